@@ -15,7 +15,7 @@ import java.util.Map;
 @AllArgsConstructor
 public class ExecutionCommandEvent {
 
-    private EventType eventType;   // START / STOP / PAUSE / RESUME
+    private EventType eventType;   // START / STOP / PAUSE / RESUME / RETRY
     private String flowId;
     private String runId;
     private String triggeredBy;
@@ -28,7 +28,9 @@ public class ExecutionCommandEvent {
         EXECUTION_START,
         EXECUTION_STOP,
         EXECUTION_PAUSE,
-        EXECUTION_RESUME
+        EXECUTION_RESUME,
+        // resume a failed run from its failed steps; completed steps are not re-executed
+        EXECUTION_RETRY
     }
 
     @Data
@@ -65,9 +67,16 @@ public class ExecutionCommandEvent {
         private int timeoutMs;
         private int retryCount;
         private int retryDelayMs;
+        // MAP steps: "stepId.outputKey" of the list to map over, items executing at once (0 = engine
+        // default) and the input that receives each item
+        private String mapOver;
+        private int parallelism;
+        private String itemInput;
+        // start a duplicate attempt when the step runs far past its plugin's p95 (idempotent plugins only)
+        private boolean speculative;
     }
 
     public enum StepType {
-        ACTION, DECISION
+        ACTION, DECISION, MAP
     }
 }
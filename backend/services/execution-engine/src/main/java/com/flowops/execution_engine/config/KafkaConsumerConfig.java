@@ -1,15 +1,33 @@
 package com.flowops.execution_engine.config;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.flowops.execution_engine.kafka.ExecutionCommandConsumer.HeldStartsFullException;
+import com.flowops.execution_engine.kafka.ExecutionCommandRebalanceListener;
+import com.flowops.kafka_contracts.Topics;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.CooperativeStickyAssignor;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataAccessException;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.BackOffHandler;
+import org.springframework.kafka.listener.ContainerPausingBackOffHandler;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.ListenerContainerPauseService;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.backoff.FixedBackOff;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -17,9 +35,14 @@ import java.util.Map;
 @Configuration
 public class KafkaConsumerConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(KafkaConsumerConfig.class);
+
     @Value("${spring.kafka.bootstrap-servers}")
     private String bootstrapServers;
 
+    @Value("${engine.admission.check-interval-ms:500}")
+    private long pauseMs;
+
     @Bean
     public ConsumerFactory<String, String> consumerFactory() {
         Map<String, Object> props = new HashMap<>();
@@ -28,15 +51,72 @@ public class KafkaConsumerConfig {
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        // partitions decide run ownership: keep them where they are when engine nodes join or leave
+        props.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, CooperativeStickyAssignor.class.getName());
         return new DefaultKafkaConsumerFactory<>(props);
     }
 
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory() {
+    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory(
+            ExecutionCommandRebalanceListener rebalanceListener, DefaultErrorHandler commandErrorHandler) {
         ConcurrentKafkaListenerContainerFactory<String, String> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory());
+        factory.getContainerProperties().setConsumerRebalanceListener(rebalanceListener);
+        factory.setCommonErrorHandler(commandErrorHandler);
         return factory;
     }
+
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolTaskScheduler commandPauseScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setThreadNamePrefix("command-pause-");
+        scheduler.initialize();
+        return scheduler;
+    }
+
+    /**
+     * A failed command is sought back, with the records after it, and redelivered after a pause instead
+     * of blocking the consumer thread. A START refused for want of room (HeldStartsFullException) pauses
+     * only its partition, so the others keep flowing. Those and Redis failures are redelivered until
+     * they succeed; an unreadable command is logged and skipped, any other failure after a few attempts.
+     */
+    @Bean
+    public DefaultErrorHandler commandErrorHandler(KafkaListenerEndpointRegistry registry,
+                                                   ThreadPoolTaskScheduler commandPauseScheduler) {
+        long interval = Math.max(50, pauseMs);
+        ListenerContainerPauseService pauser = new ListenerContainerPauseService(registry, commandPauseScheduler);
+        BackOffHandler pauseContainer = new ContainerPausingBackOffHandler(pauser);
+        BackOffHandler pausePartition = new BackOffHandler() {
+            @Override
+            public void onNextBackOff(MessageListenerContainer container, Exception exception, long nextBackOff) {
+                HeldStartsFullException full = findCause(exception, HeldStartsFullException.class);
+                if (container == null || full == null) {
+                    pauseContainer.onNextBackOff(container, exception, nextBackOff);
+                    return;
+                }
+                pauser.pausePartition(container, new TopicPartition(Topics.EXECUTION_COMMANDS, full.partition()),
+                        Duration.ofMillis(nextBackOff));
+            }
+        };
+        DefaultErrorHandler handler = new DefaultErrorHandler(
+                (record, ex) -> log.error("Dropping command at {}-{}@{}: {}",
+                        record.topic(), record.partition(), record.offset(), ex.getMessage(), ex),
+                new FixedBackOff(interval, 2),
+                pausePartition);
+        handler.setBackOffFunction((record, ex) ->
+                findCause(ex, HeldStartsFullException.class) != null || findCause(ex, DataAccessException.class) != null
+                        ? new FixedBackOff(interval, FixedBackOff.UNLIMITED_ATTEMPTS)
+                        : null);
+        handler.addNotRetryableExceptions(JsonProcessingException.class);
+        return handler;
+    }
+
+    private static <T extends Throwable> T findCause(Throwable ex, Class<T> type) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (type.isInstance(t)) return type.cast(t);
+        }
+        return null;
+    }
 }
 
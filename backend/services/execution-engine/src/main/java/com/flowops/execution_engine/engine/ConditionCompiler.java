@@ -0,0 +1,352 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.model.Step;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Compiles step and branch conditions into evaluators over the run context.
+ *
+ * Grammar (whitespace insignificant):
+ *
+ *     expr    := and ( "||" and )*
+ *     and     := unary ( "&&" unary )*
+ *     unary   := "!" unary | compare
+ *     compare := primary ( ( "==" | "!=" | "<" | "<=" | ">" | ">=" ) primary )?
+ *     primary := "(" expr ")" | number | 'string' | "string" | true | false | null | ref
+ *     ref     := stepId.outputKey[.field...]  or  ${stepId.outputKey[.field...]}
+ *
+ * A reference reads the step output from the context; further segments index into JSON objects and
+ * arrays. Numbers compare numerically, strings lexically. A condition holds when its value is truthy:
+ * not null, false, 0 or an empty string/collection.
+ *
+ * Compiled expressions are cached by their source text, so every run of a flow reuses them.
+ */
+@Component
+class ConditionCompiler {
+
+    private static final int CACHE_SIZE = 1024;
+
+    /** A compiled condition. */
+    interface Condition {
+        boolean test(Function<String, Object> context);
+        /** context keys ("stepId.outputKey") the condition reads */
+        Set<String> contextKeys();
+        /** steps whose outputs the condition reads */
+        Set<String> stepIds();
+    }
+
+    private interface Expr {
+        Object eval(Function<String, Object> context);
+    }
+
+    private final Map<String, Condition> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Condition> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    /**
+     * @return the compiled condition, or null for a blank one
+     * @throws IllegalArgumentException if the expression does not parse
+     */
+    Condition compile(String source) {
+        if (source == null || source.isBlank()) return null;
+        String key = source.trim();
+        Condition c = cache.get(key);
+        if (c == null) {
+            c = new Parser(key).parse();
+            cache.put(key, c);
+        }
+        return c;
+    }
+
+    /**
+     * Conditions of one flow definition, by stepId.
+     *
+     * A step with branches is a decision; each branch is a gate step whose condition selects it. A gate
+     * without a condition is the default branch: it is taken when none of its sibling gates' conditions
+     * hold. Steps without a pluginId (gates, pure decision nodes) are control steps and complete in the
+     * engine without a worker.
+     */
+    FlowConditions forFlow(Map<String, Step> flat) {
+        Map<String, Condition> byStep = new HashMap<>();
+        Map<String, List<String>> siblings = new HashMap<>();
+        for (Step s : flat.values()) {
+            Condition c = compile(s.getCondition());
+            if (c != null) byStep.put(s.getStepId(), c);
+            if (s.getBranches() == null || s.getBranches().isEmpty()) continue;
+            List<String> gates = s.getBranches().stream().map(Step::getStepId).toList();
+            for (String g : gates) {
+                siblings.put(g, gates.stream().filter(o -> !o.equals(g)).toList());
+            }
+        }
+        Set<String> control = new HashSet<>();
+        flat.forEach((id, s) -> {
+            if (s.getPluginId() == null || s.getPluginId().isBlank()) control.add(id);
+        });
+        return new FlowConditions(byStep, siblings, control);
+    }
+
+    static final class FlowConditions {
+        private final Map<String, Condition> byStep;
+        private final Map<String, List<String>> siblings;
+        private final Set<String> control;
+
+        private FlowConditions(Map<String, Condition> byStep, Map<String, List<String>> siblings, Set<String> control) {
+            this.byStep = byStep;
+            this.siblings = siblings;
+            this.control = control;
+        }
+
+        /** The step must be resolved by the owner before it runs (condition, gate or control step). */
+        boolean isGuarded(String stepId) {
+            return byStep.containsKey(stepId) || siblings.containsKey(stepId) || control.contains(stepId);
+        }
+
+        boolean isControl(String stepId) { return control.contains(stepId); }
+
+        /** Context keys needed to decide whether the step runs. */
+        Set<String> contextKeys(String stepId) {
+            Condition own = byStep.get(stepId);
+            if (own != null) return own.contextKeys();
+            Set<String> keys = new HashSet<>();
+            for (String s : siblings.getOrDefault(stepId, List.of())) {
+                Condition c = byStep.get(s);
+                if (c != null) keys.addAll(c.contextKeys());
+            }
+            return keys;
+        }
+
+        boolean holds(String stepId, Function<String, Object> context) {
+            Condition own = byStep.get(stepId);
+            if (own != null) return own.test(context);
+            // default branch: taken only if no sibling is
+            for (String s : siblings.getOrDefault(stepId, List.of())) {
+                Condition c = byStep.get(s);
+                if (c != null && c.test(context)) return false;
+            }
+            return true;
+        }
+    }
+
+    /* -------------------- parser -------------------- */
+
+    private static final class Parser {
+        private final String src;
+        private int pos;
+        private final Set<String> contextKeys = new LinkedHashSet<>();
+        private final Set<String> stepIds = new LinkedHashSet<>();
+
+        Parser(String src) { this.src = src; }
+
+        Condition parse() {
+            Expr root = or();
+            skipWs();
+            if (pos < src.length()) throw error("unexpected '" + src.charAt(pos) + "'");
+            Set<String> keys = Set.copyOf(contextKeys);
+            Set<String> steps = Set.copyOf(stepIds);
+            return new Condition() {
+                @Override public boolean test(Function<String, Object> context) { return truthy(root.eval(context)); }
+                @Override public Set<String> contextKeys() { return keys; }
+                @Override public Set<String> stepIds() { return steps; }
+            };
+        }
+
+        private Expr or() {
+            Expr left = and();
+            while (accept("||")) {
+                Expr l = left, r = and();
+                left = ctx -> truthy(l.eval(ctx)) || truthy(r.eval(ctx));
+            }
+            return left;
+        }
+
+        private Expr and() {
+            Expr left = unary();
+            while (accept("&&")) {
+                Expr l = left, r = unary();
+                left = ctx -> truthy(l.eval(ctx)) && truthy(r.eval(ctx));
+            }
+            return left;
+        }
+
+        private Expr unary() {
+            skipWs();
+            if (peek('!') && !src.startsWith("!=", pos)) {
+                pos++;
+                Expr e = unary();
+                return ctx -> !truthy(e.eval(ctx));
+            }
+            return compare();
+        }
+
+        private Expr compare() {
+            Expr left = primary();
+            for (String op : new String[]{"==", "!=", "<=", ">=", "<", ">"}) {
+                if (accept(op)) {
+                    Expr l = left, r = primary();
+                    return switch (op) {
+                        case "==" -> ctx -> same(l.eval(ctx), r.eval(ctx));
+                        case "!=" -> ctx -> !same(l.eval(ctx), r.eval(ctx));
+                        case "<" -> ctx -> { Integer c = order(l.eval(ctx), r.eval(ctx)); return c != null && c < 0; };
+                        case "<=" -> ctx -> { Integer c = order(l.eval(ctx), r.eval(ctx)); return c != null && c <= 0; };
+                        case ">" -> ctx -> { Integer c = order(l.eval(ctx), r.eval(ctx)); return c != null && c > 0; };
+                        default -> ctx -> { Integer c = order(l.eval(ctx), r.eval(ctx)); return c != null && c >= 0; };
+                    };
+                }
+            }
+            return left;
+        }
+
+        private Expr primary() {
+            skipWs();
+            if (pos >= src.length()) throw error("unexpected end of expression");
+            char c = src.charAt(pos);
+            if (c == '(') {
+                pos++;
+                Expr e = or();
+                if (!accept(")")) throw error("missing ')'");
+                return e;
+            }
+            if (c == '\'' || c == '"') {
+                String s = string(c);
+                return ctx -> s;
+            }
+            if (Character.isDigit(c) || (c == '-' && pos + 1 < src.length() && Character.isDigit(src.charAt(pos + 1)))) {
+                BigDecimal n = number();
+                if (n != null) return ctx -> n;
+            }
+            boolean wrapped = src.startsWith("${", pos);
+            if (wrapped) pos += 2;
+            List<String> path = new ArrayList<>();
+            path.add(ident());
+            while (peek('.')) {
+                pos++;
+                path.add(ident());
+            }
+            if (wrapped && !accept("}")) throw error("missing '}'");
+            if (path.size() == 1) {
+                switch (path.get(0)) {
+                    case "true": return ctx -> Boolean.TRUE;
+                    case "false": return ctx -> Boolean.FALSE;
+                    case "null": return ctx -> null;
+                    default: throw error("expected stepId.outputKey, got '" + path.get(0) + "'");
+                }
+            }
+            String key = path.get(0) + "." + path.get(1);
+            List<String> fields = List.copyOf(path.subList(2, path.size()));
+            stepIds.add(path.get(0));
+            contextKeys.add(key);
+            return ctx -> navigate(ctx.apply(key), fields);
+        }
+
+        private String string(char quote) {
+            StringBuilder sb = new StringBuilder();
+            pos++;
+            while (pos < src.length()) {
+                char c = src.charAt(pos++);
+                if (c == quote) return sb.toString();
+                if (c == '\\' && pos < src.length()) c = src.charAt(pos++);
+                sb.append(c);
+            }
+            throw error("unterminated string");
+        }
+
+        /** A number, or null (position unchanged) if the token continues as an identifier. */
+        private BigDecimal number() {
+            int start = pos;
+            int i = pos + (src.charAt(pos) == '-' ? 1 : 0);
+            while (i < src.length() && Character.isDigit(src.charAt(i))) i++;
+            if (i + 1 < src.length() && src.charAt(i) == '.' && Character.isDigit(src.charAt(i + 1))) {
+                i++;
+                while (i < src.length() && Character.isDigit(src.charAt(i))) i++;
+            }
+            if (i < src.length() && isIdentChar(src.charAt(i))) return null;
+            pos = i;
+            return new BigDecimal(src.substring(start, i));
+        }
+
+        private String ident() {
+            int start = pos;
+            while (pos < src.length() && isIdentChar(src.charAt(pos))) pos++;
+            if (pos == start) throw error("expected identifier");
+            return src.substring(start, pos);
+        }
+
+        private static boolean isIdentChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '-';
+        }
+
+        private boolean accept(String token) {
+            skipWs();
+            if (!src.startsWith(token, pos)) return false;
+            pos += token.length();
+            return true;
+        }
+
+        private boolean peek(char c) { return pos < src.length() && src.charAt(pos) == c; }
+
+        private void skipWs() {
+            while (pos < src.length() && Character.isWhitespace(src.charAt(pos))) pos++;
+        }
+
+        private IllegalArgumentException error(String msg) {
+            return new IllegalArgumentException("Invalid condition '" + src + "' at " + pos + ": " + msg);
+        }
+    }
+
+    /* -------------------- semantics -------------------- */
+
+    private static Object navigate(Object value, List<String> fields) {
+        Object cur = value;
+        for (String f : fields) {
+            if (cur instanceof Map<?, ?> m) {
+                cur = m.get(f);
+            } else if (cur instanceof List<?> l) {
+                try {
+                    int i = Integer.parseInt(f);
+                    cur = i >= 0 && i < l.size() ? l.get(i) : null;
+                } catch (NumberFormatException ex) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return cur;
+    }
+
+    static boolean truthy(Object v) {
+        if (v == null) return false;
+        if (v instanceof Boolean b) return b;
+        if (v instanceof Number n) return toDecimal(n).signum() != 0;
+        if (v instanceof CharSequence s) return !s.isEmpty();
+        if (v instanceof Collection<?> c) return !c.isEmpty();
+        if (v instanceof Map<?, ?> m) return !m.isEmpty();
+        return true;
+    }
+
+    private static boolean same(Object a, Object b) {
+        if (a instanceof Number x && b instanceof Number y) return toDecimal(x).compareTo(toDecimal(y)) == 0;
+        return Objects.equals(a, b);
+    }
+
+    /** Comparison result, or null when the operands are not comparable (the comparison is then false). */
+    private static Integer order(Object a, Object b) {
+        if (a instanceof Number x && b instanceof Number y) return toDecimal(x).compareTo(toDecimal(y));
+        if (a instanceof String x && b instanceof String y) return x.compareTo(y);
+        return null;
+    }
+
+    private static BigDecimal toDecimal(Number n) {
+        if (n instanceof BigDecimal d) return d;
+        if (n instanceof Double || n instanceof Float) return BigDecimal.valueOf(n.doubleValue());
+        return new BigDecimal(n.toString());
+    }
+}
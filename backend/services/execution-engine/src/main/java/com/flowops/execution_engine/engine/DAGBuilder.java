@@ -1,6 +1,7 @@
 package com.flowops.execution_engine.engine;
 
 import java.util.*;
+import java.util.function.ToLongFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -16,6 +17,9 @@ import com.flowops.execution_engine.model.Step;
  *  - Flatten children/branches recursively (duplicate stepIds are rejected)
  *  - Parse input references of the form "stepId.outputKey" or "${stepId.outputKey}"
  *    and treat them as dependencies: currentStep depends on stepId
+ *  - Steps referenced by a step's condition or a map step's config.mapOver are dependencies as well
+ *  - A branch (gate) depends on its decision step, and every step nested in the branch depends on
+ *    the gate, so a branch that is not taken can be skipped as a whole
  *
  * The adjacency map is dependency -> set(dependents).
  * The indegree map is dependent -> number of unresolved dependencies.
@@ -27,6 +31,12 @@ public class DAGBuilder {
     // We'll look for tokens like: step1.out1 or ${step1.out1}
     private static final Pattern REF_PATTERN = Pattern.compile("(?:\\$\\{)?([A-Za-z0-9_\\-]+)\\.([A-Za-z0-9_\\-]+)(?:})?");
 
+    private final ConditionCompiler conditions;
+
+    DAGBuilder(ConditionCompiler conditions) {
+        this.conditions = conditions;
+    }
+
     /**
      * Flatten nested steps (children + branches) to a map stepId -> Step.
      * Maintains insertion order of traversal.
@@ -87,30 +97,49 @@ public class DAGBuilder {
             Step s = entry.getValue();
 
             Map<String, String> inputs = s.getInputs();
-            if (inputs == null) continue;
-
-            for (String raw : inputs.values()) {
-                if (raw == null) continue;
-                // find all references inside the raw input string
-                Matcher m = REF_PATTERN.matcher(raw);
-                while (m.find()) {
-                    String depStepId = m.group(1);
-                    // validate existence
-                    if (!stepsMap.containsKey(depStepId)) {
-                        throw new IllegalArgumentException(String.format("Step '%s' references unknown dependency '%s' in input '%s'",
-                                currentStepId, depStepId, raw));
+            if (inputs != null) {
+                for (String raw : inputs.values()) {
+                    if (raw == null) continue;
+                    // find all references inside the raw input string
+                    Matcher m = REF_PATTERN.matcher(raw);
+                    while (m.find()) {
+                        String depStepId = m.group(1);
+                        // validate existence
+                        if (!stepsMap.containsKey(depStepId)) {
+                            throw new IllegalArgumentException(String.format("Step '%s' references unknown dependency '%s' in input '%s'",
+                                    currentStepId, depStepId, raw));
+                        }
+                        addEdge(adjacency, indegree, depStepId, currentStepId);
                     }
-                    // add edge depStepId -> currentStepId
-                    Set<String> dependents = adjacency.get(depStepId);
-                    // guard (should exist)
-                    if (dependents == null) {
-                        dependents = new LinkedHashSet<>();
-                        adjacency.put(depStepId, dependents);
+                }
+            }
+
+            ConditionCompiler.Condition condition = conditions.compile(s.getCondition());
+            if (condition != null) {
+                for (String depStepId : condition.stepIds()) {
+                    if (!stepsMap.containsKey(depStepId)) {
+                        throw new IllegalArgumentException(String.format("Step '%s' references unknown dependency '%s' in condition '%s'",
+                                currentStepId, depStepId, s.getCondition()));
                     }
-                    // avoid double counting duplicate references from the same dependent
-                    if (!dependents.contains(currentStepId)) {
-                        dependents.add(currentStepId);
-                        indegree.put(currentStepId, indegree.getOrDefault(currentStepId, 0) + 1);
+                    addEdge(adjacency, indegree, depStepId, currentStepId);
+                }
+            }
+
+            String mapOver = s.configString("mapOver");
+            if (mapOver != null) {
+                Matcher m = REF_PATTERN.matcher(mapOver);
+                if (!m.find() || !stepsMap.containsKey(m.group(1))) {
+                    throw new IllegalArgumentException(String.format("Map step '%s' maps over unknown reference '%s'",
+                            currentStepId, mapOver));
+                }
+                addEdge(adjacency, indegree, m.group(1), currentStepId);
+            }
+
+            if (s.getBranches() != null) {
+                for (Step gate : s.getBranches()) {
+                    addEdge(adjacency, indegree, currentStepId, gate.getStepId());
+                    for (String nested : nestedStepIds(gate)) {
+                        addEdge(adjacency, indegree, gate.getStepId(), nested);
                     }
                 }
             }
@@ -118,6 +147,29 @@ public class DAGBuilder {
         return new DAG(adjacency, indegree);
     }
 
+    // edge dependency -> dependent; duplicate references from the same dependent count once
+    private static void addEdge(Map<String, Set<String>> adjacency, Map<String, Integer> indegree, String from, String to) {
+        if (from.equals(to)) return;
+        if (adjacency.computeIfAbsent(from, k -> new LinkedHashSet<>()).add(to)) {
+            indegree.put(to, indegree.getOrDefault(to, 0) + 1);
+        }
+    }
+
+    // all steps below the given one (children and branches, recursively)
+    private static List<String> nestedStepIds(Step root) {
+        List<String> out = new ArrayList<>();
+        Deque<Step> stack = new ArrayDeque<>();
+        if (root.getChildren() != null) stack.addAll(root.getChildren());
+        if (root.getBranches() != null) stack.addAll(root.getBranches());
+        while (!stack.isEmpty()) {
+            Step s = stack.pop();
+            out.add(s.getStepId());
+            if (s.getChildren() != null) stack.addAll(s.getChildren());
+            if (s.getBranches() != null) stack.addAll(s.getBranches());
+        }
+        return out;
+    }
+
     /**
      * Kahn's algorithm: produce a topological ordering of the DAG.
      * If a cycle exists, throws IllegalStateException.
@@ -148,6 +200,29 @@ public class DAGBuilder {
         return order;
     }
 
+    /**
+     * Longest remaining path from each step to a sink, including the step itself.
+     *
+     * rank(s) = weight(s) + max(rank(d)) over dependents d. Steps with the highest rank lie on the
+     * critical path, so dispatching them first shortens the makespan when workers are contended.
+     *
+     * @param weight expected cost of a step (e.g. historical duration); use 1 for hop count
+     */
+    public Map<String, Long> criticalPathRanks(DAG dag, ToLongFunction<String> weight) {
+        List<String> order = topologicalSort(dag);
+        Map<String, Long> rank = new HashMap<>(order.size() * 2);
+        // walk sinks first so every dependent is ranked before its dependency
+        for (int i = order.size() - 1; i >= 0; i--) {
+            String id = order.get(i);
+            long longestTail = 0;
+            for (String d : dag.getAdjacency().getOrDefault(id, Collections.emptySet())) {
+                longestTail = Math.max(longestTail, rank.get(d));
+            }
+            rank.put(id, Math.max(1, weight.applyAsLong(id)) + longestTail);
+        }
+        return rank;
+    }
+
     // Simple container for adjacency + indegree
     public static class DAG {
         private final Map<String, Set<String>> adjacency;
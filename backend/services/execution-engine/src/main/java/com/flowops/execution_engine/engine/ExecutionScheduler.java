@@ -8,12 +8,22 @@ import com.flowops.kafka_contracts.events.FlowStatusEvent;
 import com.flowops.kafka_contracts.events.StepStatusEvent;
 import com.flowops.execution_engine.kafka.StatusEventProducer;
 import com.flowops.execution_engine.persistence.redis.RedisExecutionRepository;
+import com.flowops.execution_engine.persistence.redis.RedisExecutionRepository.RecoveryState;
+import com.flowops.execution_engine.persistence.redis.RedisExecutionRepository.StolenResult;
+import com.flowops.execution_engine.executor.Bulkhead;
+import com.flowops.execution_engine.executor.BulkheadRegistry;
+import com.flowops.execution_engine.executor.InterruptibleFuture;
 import com.flowops.execution_engine.executor.StepExecutor;
+import com.flowops.execution_engine.executor.WorkerPool;
 import com.flowops.execution_engine.grpc.PluginServiceClient;
 import com.flowops.execution_engine.mapper.ExecutionEventMapper;
 import com.flowops.common.grpc.PluginMetadata;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
@@ -21,16 +31,21 @@ import jakarta.annotation.PreDestroy;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
- * ExecutionScheduler — improved lifecycle handling + recovery.
+ * Executes flow runs: applies execution commands, dispatches ready steps and commits their outcomes.
  *
- * Key differences:
- *  - Persist flow definition JSON at START (repo.setFlowDefinition)
- *  - Maintain active runs index (repo.addActiveRun/listActiveRunKeys/removeActiveRun)
- *  - Use StepExecutor.createExecutionCallable(...) so that the scheduler submits a Callable
- *    to taskExecutor (so Future.cancel(true) interrupts the worker thread)
- *  - On startup recover runs from Redis and rebuild FlowRunControl
+ * Each run is owned by the node that holds its execution.commands partition and its Redis run lease
+ * (RunOwnership). Redis holds the durable run state, and step outcomes are committed by scripts fenced
+ * by the lease epoch, so a run can be recovered or handed off between nodes. In memory, a FlowRunControl
+ * per run keeps the DAG and the ready steps. A few shared dispatcher threads take steps from the
+ * FairShareScheduler and pass them through their plugin's bulkhead to the WorkerPool (or run them
+ * inline, see FastPathPolicy). Completions are handled as continuations on the step's future, and the
+ * run completes when the Redis remaining-steps counter reaches zero.
  */
 @Component
 public class ExecutionScheduler {
@@ -44,25 +59,84 @@ public class ExecutionScheduler {
     private final StatusEventProducer producer;
     private final ExecutionEventMapper eventMapper;
     private final PluginServiceClient pluginClient; // used to fetch metadata for caching & validation
+    private final StepDurationStats durationStats;
+    private final TimingWheel timingWheel;
+    private final RetryPolicy retryPolicy;
+    private final RunOwnership ownership;
+    private final BulkheadRegistry bulkheads;
+    private final ConditionCompiler conditionCompiler;
+    private final FastPathPolicy fastPath;
+    private final SpeculationPolicy speculation;
 
     private final ObjectMapper om = new ObjectMapper();
 
     // worker pool for executing steps (submit Callables returned by StepExecutor)
-    private final ExecutorService taskExecutor;
+    private final WorkerPool workerPool;
 
-    // thread pool for dispatchers (one dispatcher per active run)
+    // runs step completion continuations (persist outputs, publish status, release dependents)
+    private final ExecutorService completionExecutor;
+
+    // dispatcher threads shared by all runs; one that overruns an inline step is replaced
     private final ExecutorService dispatcherExecutor;
+    private final int dispatcherThreads;
+    // dispatchers replaced while running an inline step; they exit once it is done
+    private final Set<Thread> replacedDispatchers = ConcurrentHashMap.newKeySet();
+
+    // periodic upkeep (retries, leases, work stealing) and hand-offs from owned sections
+    private final RunHousekeeping housekeeping;
+
+    // running-future id of a step's speculative attempt: stepId + suffix
+    private static final String SPECULATIVE_SUFFIX = "~speculative";
+
+    // recovers taken-over runs in the background, a batch of runs per task
+    private final ExecutorService recoveryExecutor;
+    private final int recoveryBatch;
+    private final AtomicInteger recoveryPending = new AtomicInteger();
+    private final MeterRegistry meters;
+
+    // deletes (or sets the retention TTL on) the Redis state of finished runs, off the hot path
+    private final ExecutorService cleanupExecutor = Executors.newSingleThreadExecutor();
+    private final long retentionTtlMs;
+    private final long failedTtlMs;
+    private final int unlinkBatch;
+
+    // decides which run's ready step gets the next free worker slot
+    private final FairShareScheduler fairScheduler;
 
     // in-memory active run controls
     private final ConcurrentMap<String, FlowRunControl> runs = new ConcurrentHashMap<>();
 
+    // owned runs whose lease is still held by the previous owner; retried until it expires
+    private final Set<String> pendingRecovery = ConcurrentHashMap.newKeySet();
+    // runs currently being loaded, so the consumer thread and housekeeping do not load one twice
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+
     public ExecutionScheduler(RedisExecutionRepository repo,
                               DAGBuilder dagBuilder,
                               DAGValidator dagValidator,
                               StepExecutor stepExecutor,
                               StatusEventProducer producer,
                               ExecutionEventMapper eventMapper,
-                              PluginServiceClient pluginClient) {
+                              PluginServiceClient pluginClient,
+                              WorkerPool workerPool,
+                              FairShareScheduler fairScheduler,
+                              StepDurationStats durationStats,
+                              TimingWheel timingWheel,
+                              RetryPolicy retryPolicy,
+                              RunOwnership ownership,
+                              RunHousekeeping housekeeping,
+                              BulkheadRegistry bulkheads,
+                              ConditionCompiler conditionCompiler,
+                              FastPathPolicy fastPath,
+                              SpeculationPolicy speculation,
+                              MeterRegistry meters,
+                              @Value("${engine.dispatcher.threads:2}") int dispatcherThreads,
+                              @Value("${engine.completion.threads:4}") int completionThreads,
+                              @Value("${engine.recovery.threads:4}") int recoveryThreads,
+                              @Value("${engine.recovery.batch:64}") int recoveryBatch,
+                              @Value("${engine.retention.ttl-ms:0}") long retentionTtlMs,
+                              @Value("${engine.retention.failed-ttl-ms:604800000}") long failedTtlMs,
+                              @Value("${engine.retention.unlink-batch:100}") int unlinkBatch) {
         this.repo = repo;
         this.dagBuilder = dagBuilder;
         this.dagValidator = dagValidator;
@@ -70,12 +144,43 @@ public class ExecutionScheduler {
         this.producer = producer;
         this.pluginClient = pluginClient;
         this.eventMapper = eventMapper;
+        this.workerPool = workerPool;
+        this.fairScheduler = fairScheduler;
+        this.durationStats = durationStats;
+        this.timingWheel = timingWheel;
+        this.retryPolicy = retryPolicy;
+        this.ownership = ownership;
+        this.housekeeping = housekeeping;
+        this.bulkheads = bulkheads;
+        this.conditionCompiler = conditionCompiler;
+        this.fastPath = fastPath;
+        this.speculation = speculation;
+        this.meters = meters;
+        this.recoveryExecutor = Executors.newFixedThreadPool(Math.max(1, recoveryThreads));
+        this.recoveryBatch = Math.max(1, recoveryBatch);
+        this.retentionTtlMs = Math.max(0, retentionTtlMs);
+        this.failedTtlMs = Math.max(0, failedTtlMs);
+        this.unlinkBatch = Math.max(1, unlinkBatch);
+        Gauge.builder("engine.recovery.pending", recoveryPending, AtomicInteger::get)
+                .description("Runs of newly assigned partitions not yet recovered").register(meters);
+        this.completionExecutor = Executors.newFixedThreadPool(Math.max(1, completionThreads));
 
-        // tuned thread pools; adjust to your infra
-        this.taskExecutor = Executors.newFixedThreadPool(Math.max(8, Runtime.getRuntime().availableProcessors() * 2));
+        this.dispatcherThreads = Math.max(1, dispatcherThreads);
         this.dispatcherExecutor = Executors.newCachedThreadPool();
     }
 
+    /**
+     * Start the dispatcher loops and the housekeeping once the bean is fully built, before the command
+     * listener delivers anything.
+     */
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < dispatcherThreads; i++) {
+            dispatcherExecutor.submit(this::dispatcherLoop);
+        }
+        housekeeping.start(this);
+    }
+
     /* -------------------- PUBLIC LIFECYCLE APIs -------------------- */
 
     public void startFlow(ExecutionCommandEvent cmd) {
@@ -109,37 +214,52 @@ public class ExecutionScheduler {
             return;
         }
 
+        // take the run lease before writing any run state; a duplicate START for a run that
+        // another node still executes is dropped here
+        long epoch = repo.acquireRunLease(flowId, runId, ownership.nodeId(), ownership.leaseTtlMs());
+        if (epoch < 0) {
+            log.warn("startFlow: run {}:{} is leased by another node, ignoring", flowId, runId);
+            return;
+        }
+
         // Persist the flattened flow definition for crash-recovery. Store as JSON.
+        String defJson = null;
         try {
-            String defJson = om.writeValueAsString(flat);
-            repo.setFlowDefinition(flowId, runId, defJson);
+            defJson = om.writeValueAsString(flat);
         } catch (JsonProcessingException e) {
             log.warn("Failed to serialize flow definition to Redis for {}:{}. Continuing without persistence.", flowId, runId, e);
         }
 
-        // Persist DAG indegree and dependents
-        repo.setIndegreeMap(flowId, runId, dag.getIndegree());
-        dag.getAdjacency().forEach((dep, deps) -> {
-            for (String d : deps) repo.addDependent(flowId, runId, dep, d);
+        // roots seed the ready queue (durable copy; the in-memory queue is filled below)
+        List<String> roots = new ArrayList<>();
+        dag.getIndegree().forEach((stepId, indeg) -> {
+            if (indeg == 0) roots.add(stepId);
         });
 
-        // init step statuses
-        dag.getIndegree().keySet().forEach(stepId -> repo.setStepStatus(flowId, runId, stepId, StepStatusEvent.Status.PENDING.name()));
-
-        // seed ready queue
-        dag.getIndegree().forEach((stepId, indeg) -> { if (indeg == 0) repo.enqueueReadyStep(flowId, runId, stepId); });
+        Map<String, String> meta = new HashMap<>();
+        meta.put("status", FlowStatusEvent.Status.RUNNING.name());
+        meta.put("startedAt", Instant.now().toString());
+        meta.put(RedisExecutionRepository.STATE_VERSION_FIELD, RedisExecutionRepository.STATE_VERSION);
+        if (cmd.getTriggeredBy() != null) meta.put("triggeredBy", cmd.getTriggeredBy());
 
-        // set flow meta & mark active
-        repo.setFlowMeta(flowId, runId, Map.of("status", FlowStatusEvent.Status.RUNNING.name(), "startedAt", Instant.now().toString()));
-        repo.addActiveRun(runKey);
+        // definition, DAG, PENDING statuses, ready set, meta and active-run entry in one round trip
+        repo.initializeRun(flowId, runId, defJson, dag.getIndegree(), dag.getAdjacency(), roots, meta);
 
         producer.sendFlowStatus(flowId, runId, FlowStatusEvent.Status.RUNNING, null);
 
-        // create control and start dispatcher
-        FlowRunControl ctrl = new FlowRunControl(flowId, runId, flat, dag);
-        runs.put(runKey, ctrl);
-        startDispatcher(ctrl);
+        // create control and hand the roots to the dispatchers
+        FlowRunControl ctrl = newControl(flowId, runId, cmd.getTriggeredBy(), flat, dag, ownership.token(epoch));
+        ctrl.setRunning(true);
+        ctrl.offerAllReady(roots);
+        track(ctrl);
         log.info("Started run {}:{}", flowId, runId);
+        if (roots.isEmpty()) {
+            completeRun(ctrl); // empty flow
+            return;
+        }
+        fairScheduler.signal(ctrl);
+        // a START held back by admission control may be replayed just as its partition is revoked
+        if (!ownership.ownsRun(runId)) handOff(ctrl, true);
     }
 
     public void pauseFlow(String flowId, String runId) {
@@ -153,6 +273,8 @@ public class ExecutionScheduler {
             return;
         }
         c.setPaused(true);
+        // steps handed a bulkhead permit would hold it for the whole pause
+        c.releaseGrantedPermits();
         repo.setFlowMeta(flowId, runId, Map.of("status", FlowStatusEvent.Status.PAUSED.name(), "pausedAt", Instant.now().toString()));
         producer.sendFlowStatus(flowId, runId, FlowStatusEvent.Status.PAUSED, null);
         log.info("Paused run {}:{}", flowId, runId);
@@ -165,6 +287,7 @@ public class ExecutionScheduler {
             c.setPaused(false);
             repo.setFlowMeta(flowId, runId, Map.of("status", FlowStatusEvent.Status.RUNNING.name(), "resumedAt", Instant.now().toString()));
             producer.sendFlowStatus(flowId, runId, FlowStatusEvent.Status.RUNNING, null);
+            fairScheduler.signal(c);
             log.info("Resumed run {}:{}", flowId, runId);
             return;
         }
@@ -173,16 +296,19 @@ public class ExecutionScheduler {
         Optional<String> optDef = repo.getFlowDefinition(flowId, runId);
         if (optDef.isPresent()) {
             try {
-                // rebuild flattened map and dag
-                Map<String, Step> flat = om.readValue(optDef.get(), om.getTypeFactory().constructMapType(Map.class, String.class, Step.class));
-                DAGBuilder.DAG dag = dagBuilder.buildDAG(flat);
                 // Reconstruct FlowRunControl and re-seed any ready steps from Redis indegree/queue
-                FlowRunControl ctrl = new FlowRunControl(flowId, runId, flat, dag);
-                runs.put(rk, ctrl);
+                FlowRunControl ctrl = loadRun(flowId, runId, optDef.get());
+                if (ctrl == null) {
+                    // recorded as RUNNING so it is not recovered paused once the lease frees up
+                    repo.setFlowMeta(flowId, runId, Map.of("status", FlowStatusEvent.Status.RUNNING.name(), "resumedAt", Instant.now().toString()));
+                    pendingRecovery.add(rk);
+                    log.info("resumeFlow: run {}:{} is still leased by another node; resuming once it is released", flowId, runId);
+                    return;
+                }
                 ctrl.setPaused(false);
                 repo.setFlowMeta(flowId, runId, Map.of("status", FlowStatusEvent.Status.RUNNING.name(), "resumedAt", Instant.now().toString()));
                 producer.sendFlowStatus(flowId, runId, FlowStatusEvent.Status.RUNNING, null);
-                startDispatcher(ctrl);
+                rehydrate(ctrl);
                 log.info("Recovered and resumed run {}:{}", flowId, runId);
             } catch (Exception ex) {
                 log.error("Failed to rebuild run {}:{} for resume: {}", flowId, runId, ex.getMessage(), ex);
@@ -193,188 +319,1167 @@ public class ExecutionScheduler {
         }
     }
 
+    /**
+     * Resume a failed run from the point of failure. Failed steps go back on the ready queue with fresh
+     * attempt counts; completed steps keep their outputs in Redis and are not run again, and the steps
+     * downstream of the failed ones run as their dependencies complete. The run must still have its
+     * state in Redis (a stopped or completed run has none, a failed one keeps it for
+     * engine.retention.failed-ttl-ms).
+     */
+    public void retryFlow(String flowId, String runId) {
+        String rk = runKey(flowId, runId);
+        FlowRunControl failed = runs.get(rk);
+        if (failed != null) {
+            if (failed.isRunning()) {
+                log.warn("retryFlow: run {}:{} has not failed, ignoring", flowId, runId);
+                return;
+            }
+            // failed but not yet let go of; finish that first so the run is loaded afresh below
+            retireFailed(failed);
+        }
+        Optional<String> optDef = repo.getFlowDefinition(flowId, runId);
+        if (optDef.isEmpty()) {
+            log.warn("No persisted flow definition for {}:{}. Cannot retry.", flowId, runId);
+            producer.sendFlowStatus(flowId, runId, FlowStatusEvent.Status.FAILED, "retry failed: run state no longer available");
+            return;
+        }
+        FlowRunControl ctrl;
+        try {
+            ctrl = loadRun(flowId, runId, optDef.get());
+        } catch (Exception ex) {
+            log.error("Failed to rebuild run {}:{} for retry: {}", flowId, runId, ex.getMessage(), ex);
+            producer.sendFlowStatus(flowId, runId, FlowStatusEvent.Status.FAILED, "retry failed: " + ex.getMessage());
+            return;
+        }
+        if (ctrl == null) {
+            log.warn("retryFlow: run {}:{} is leased by another node, ignoring", flowId, runId);
+            return;
+        }
+        if (!ctrl.enterOwned()) return;
+        List<String> reset;
+        try {
+            // the failed state was left to expire: keep it again and list the run as active
+            repo.persistFlow(flowId, runId, mapStepIds(ctrl.flatSteps));
+            repo.addActiveRun(rk);
+            reset = repo.resetFailedSteps(flowId, runId, ctrl.leaseToken);
+            if (reset == null) {
+                dropFenced(ctrl);
+                return;
+            }
+            repo.setFlowMeta(flowId, runId, Map.of("status", FlowStatusEvent.Status.RUNNING.name(), "retriedAt", Instant.now().toString()));
+            producer.sendFlowStatus(flowId, runId, FlowStatusEvent.Status.RUNNING, null);
+            for (String stepId : reset) {
+                producer.sendStepStatus(flowId, runId, stepId, StepStatusEvent.Status.PENDING, "Run retried");
+            }
+        } finally {
+            ctrl.exitOwned();
+        }
+        ctrl.setPaused(false);
+        rehydrate(ctrl);
+        log.info("Retrying run {}:{} from {} failed step(s)", flowId, runId, reset.size());
+    }
+
     public void stopFlow(String flowId, String runId) {
         String rk = runKey(flowId, runId);
         FlowRunControl ctrl = runs.remove(rk);
+        pendingRecovery.remove(rk);
         if (ctrl != null) {
+            fairScheduler.unregister(ctrl);
             ctrl.setRunning(false);
+            releaseBulkheads(ctrl);
             ctrl.cancelAllRunningTasks(); // cancels Future.s and interrupts worker threads
-            long removed = repo.clearFlow(flowId, runId);
             repo.removeActiveRun(rk);
+            discardRunState(flowId, runId, ctrl.flatSteps);
             producer.sendFlowStatus(flowId, runId, FlowStatusEvent.Status.STOPPED, null);
-            log.info("Stopped run {}:{} removed {} keys", flowId, runId, removed);
+            log.info("Stopped run {}:{}", flowId, runId);
             return;
         }
         // if not in memory, still clear persisted state
-        long removed = repo.clearFlow(flowId, runId);
         repo.removeActiveRun(rk);
+        discardRunState(flowId, runId, null);
         producer.sendFlowStatus(flowId, runId, FlowStatusEvent.Status.STOPPED, null);
-        log.info("Stopped (not-in-memory) run {}:{} removed {} keys", flowId, runId, removed);
+        log.info("Stopped (not-in-memory) run {}:{}", flowId, runId);
     }
 
-    /* -------------------- Dispatcher & scheduling -------------------- */
-
-    private void startDispatcher(FlowRunControl ctrl) {
-        dispatcherExecutor.submit(() -> {
+    /**
+     * Drop the Redis state of a finished run on the cleanup thread: UNLINK in chunks of
+     * engine.retention.unlink-batch keys, or with engine.retention.ttl-ms > 0 keep it readable that long
+     * and let Redis expire it. The run must already be out of the active-runs set.
+     *
+     * @param flat the run's flattened steps, or null to read them from the stored definition
+     */
+    private void discardRunState(String flowId, String runId, Map<String, Step> flat) {
+        cleanupExecutor.execute(() -> {
             try {
-                dispatcherLoop(ctrl);
-            } catch (Throwable t) {
-                log.error("Dispatcher for {}:{} crashed: {}", ctrl.flowId, ctrl.runId, t.getMessage(), t);
-                producer.sendFlowStatus(ctrl.flowId, ctrl.runId, FlowStatusEvent.Status.FAILED, t.getMessage());
-                ctrl.setRunning(false);
+                Map<String, Step> steps = flat;
+                if (steps == null) {
+                    Optional<String> def = repo.getFlowDefinition(flowId, runId);
+                    steps = def.isEmpty() ? Map.of()
+                            : om.readValue(def.get(), om.getTypeFactory().constructMapType(Map.class, String.class, Step.class));
+                }
+                List<String> mapSteps = mapStepIds(steps);
+                if (retentionTtlMs > 0) {
+                    repo.expireFlow(flowId, runId, mapSteps, retentionTtlMs);
+                } else {
+                    long removed = repo.clearFlow(flowId, runId, mapSteps, unlinkBatch);
+                    log.debug("Cleared run {}:{}: {} keys", flowId, runId, removed);
+                }
+            } catch (Exception ex) {
+                log.warn("Failed to clear state of run {}:{}: {}", flowId, runId, ex.getMessage(), ex);
             }
         });
     }
 
-    private void dispatcherLoop(FlowRunControl ctrl) throws InterruptedException {
-        ctrl.setRunning(true);
-        log.info("Dispatcher started for {}:{}", ctrl.flowId, ctrl.runId);
+    /**
+     * Let go of a failed run: it leaves memory, the fair-share scheduler and the active-runs set, its
+     * lease is released and its Redis state is kept for engine.retention.failed-ttl-ms (0 = until it is
+     * retried or stopped), so a later EXECUTION_RETRY loads it again. Steps still executing are cancelled
+     * and put back on the ready set for that retry.
+     *
+     * relinquish waits for owned sections to drain, so failStep (called inside one) hands this to the
+     * housekeeping thread; synchronized so a retry arriving meanwhile waits for it to finish.
+     */
+    private void retireFailed(FlowRunControl ctrl) {
+        synchronized (ctrl) {
+            if (!ctrl.relinquish()) return;
+            runs.remove(ctrl.runKey(), ctrl);
+            fairScheduler.unregister(ctrl);
+            ctrl.setRunning(false);
+            releaseBulkheads(ctrl);
+            ctrl.cancelAllRunningTasks();
+            if (requeueInFlight(ctrl, repo.getFlowMeta(ctrl.flowId, ctrl.runId)) == null) {
+                log.info("Dropped failed run {} owned elsewhere", ctrl.runKey());
+                return;
+            }
+            repo.removeActiveRun(ctrl.runKey());
+            repo.releaseRunLease(ctrl.flowId, ctrl.runId, ctrl.leaseToken);
+            if (failedTtlMs > 0) repo.expireFlow(ctrl.flowId, ctrl.runId, mapStepIds(ctrl.flatSteps), failedTtlMs);
+            log.info("Released failed run {}; state kept for a retry", ctrl.runKey());
+        }
+    }
+
+    private static List<String> mapStepIds(Map<String, Step> flat) {
+        return flat.values().stream().filter(MapStep::isMapStep).map(Step::getStepId).toList();
+    }
+
+    /* -------------------- Load (admission control) -------------------- */
+
+    /**
+     * Runs executing on this node (paused ones included); failed runs waiting for a retry are not held
+     * in memory and do not count.
+     */
+    public int activeRunCount() {
+        int n = 0;
+        for (FlowRunControl c : runs.values()) if (c.isRunning()) n++;
+        return n;
+    }
+
+    /**
+     * execution.commands partitions currently assigned to this node.
+     */
+    public Set<Integer> ownedPartitions() {
+        return ownership.ownedPartitions();
+    }
+
+    /**
+     * Ready steps waiting in memory for a worker, across all runs on this node.
+     */
+    public int queuedStepCount() {
+        int n = 0;
+        for (FlowRunControl c : runs.values()) n += c.readyCount();
+        return n;
+    }
+
+    /**
+     * Fraction of worker slots in use (0..1).
+     */
+    public double workerUtilization() {
+        int capacity = fairScheduler.capacity();
+        return capacity <= 0 ? 0 : (double) fairScheduler.inFlight() / capacity;
+    }
 
-        while (ctrl.isRunning()) {
-            if (ctrl.isPaused()) {
-                Thread.sleep(250);
+    /* -------------------- Dispatcher & scheduling -------------------- */
+
+    /**
+     * Shared dispatcher loop. Blocks only on the fair-share scheduler (free worker slot + ready step),
+     * never on Redis.
+     */
+    private void dispatcherLoop() {
+        log.info("Dispatcher thread {} started", Thread.currentThread().getName());
+        while (!Thread.currentThread().isInterrupted()) {
+            if (replacedDispatchers.remove(Thread.currentThread())) break;
+            FairShareScheduler.Dispatch next;
+            try {
+                next = fairScheduler.next();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            FlowRunControl ctrl = next.run();
+            if (!ctrl.enterOwned()) {
+                // handed off after the step was polled; it is still in the durable ready set
+                fairScheduler.release(ctrl);
                 continue;
             }
+            try {
+                admit(ctrl, next.stepId());
+            } catch (Throwable t) {
+                // the step never reached a worker, so its slot is returned here
+                fairScheduler.release(ctrl);
+                log.error("Dispatch failed for {}:{} step {}: {}", ctrl.flowId, ctrl.runId, next.stepId(), t.getMessage(), t);
+                producer.sendFlowStatus(ctrl.flowId, ctrl.runId, FlowStatusEvent.Status.FAILED, t.getMessage());
+                ctrl.setRunning(false);
+            } finally {
+                ctrl.exitOwned();
+            }
+        }
+        log.info("Dispatcher thread {} exiting", Thread.currentThread().getName());
+    }
 
-            // blocking pop with timeout for periodic checks
-            String nextStep = repo.blockingDequeueReadyStep(ctrl.flowId, ctrl.runId, 1);
-            if (nextStep == null) {
-                if (isFlowCompleted(ctrl)) {
-                    // mark completed and cleanup
-                    producer.sendFlowStatus(ctrl.flowId, ctrl.runId, FlowStatusEvent.Status.COMPLETED, null);
-                    repo.clearFlow(ctrl.flowId, ctrl.runId);
-                    repo.removeActiveRun(runKey(ctrl.flowId, ctrl.runId));
-                    ctrl.setRunning(false);
-                    runs.remove(runKey(ctrl.flowId, ctrl.runId));
-                    log.info("Flow completed {}:{}", ctrl.flowId, ctrl.runId);
-                    break;
+    /**
+     * Pass the step through its plugin's bulkhead, holding the worker slot from the fair-share scheduler.
+     * A step that has to wait for the bulkhead gives the slot back and is re-offered to its run together
+     * with the permit once one frees up; it stays in the durable ready set meanwhile.
+     */
+    private void admit(FlowRunControl ctrl, String stepId) {
+        Bulkhead granted = ctrl.takeGrantedPermit(stepId);
+        if (granted != null) {
+            // passed its guard before it queued for the bulkhead
+            dispatchStep(ctrl, stepId, granted);
+            return;
+        }
+        boolean item = MapStep.isItem(stepId);
+        if (!item && ctrl.conditions.isGuarded(stepId) && !resolveGuard(ctrl, stepId)) {
+            fairScheduler.release(ctrl);
+            return;
+        }
+        Step step = ctrl.flatSteps.get(item ? MapStep.stepOf(stepId) : stepId);
+        if (!item && MapStep.isMapStep(step)) {
+            // the map step itself only fans out; its items go through the bulkhead one by one
+            startMapStep(ctrl, step);
+            fairScheduler.release(ctrl);
+            return;
+        }
+        Bulkhead bulkhead = bulkheads.forPlugin(step == null ? null : step.getPluginId());
+        if (!item && fastPath.isLightweight(step) && bulkhead.tryEnterNow()) {
+            runInline(ctrl, stepId, bulkhead);
+            return;
+        }
+        switch (bulkhead.tryEnter(ctrl.runKey(), () -> onBulkheadPermit(ctrl, stepId, bulkhead))) {
+            case ENTERED -> dispatchStep(ctrl, stepId, bulkhead);
+            case QUEUED -> fairScheduler.release(ctrl);
+            case REJECTED -> {
+                if (item) {
+                    rejectItem(ctrl, stepId, bulkhead);
+                } else {
+                    rejectStep(ctrl, stepId, bulkhead);
                 }
-                continue;
+                fairScheduler.release(ctrl);
             }
+        }
+    }
 
-            // check paused after pop
-            if (ctrl.isPaused()) {
-                repo.enqueueReadyStep(ctrl.flowId, ctrl.runId, nextStep);
-                Thread.sleep(250);
-                continue;
+    /**
+     * A bulkhead permit was handed to a step waiting for one: re-offer the step holding it. A run that is
+     * paused gets the step back without the permit; one that left the node takes neither.
+     *
+     * @return false to pass the permit on to the next waiter
+     */
+    private boolean onBulkheadPermit(FlowRunControl ctrl, String stepId, Bulkhead bulkhead) {
+        if (!ctrl.isRunning()) return false;
+        if (ctrl.isPaused()) {
+            ctrl.offerReady(stepId);
+            return false;
+        }
+        ctrl.grantPermit(stepId, bulkhead);
+        // the run may have left meanwhile, after its granted permits were returned
+        if (!ctrl.isRunning() && ctrl.takeGrantedPermit(stepId) != null) return false;
+        ctrl.offerReady(stepId);
+        fairScheduler.signal(ctrl);
+        return true;
+    }
+
+    /**
+     * Decide a guarded step before it takes a worker: if its condition (or, for a branch gate, the
+     * branch selection) does not hold, it is skipped together with everything downstream; a control
+     * step without a plugin (gate, pure decision) completes right here.
+     *
+     * @return true if the step still has to run on a worker
+     */
+    private boolean resolveGuard(FlowRunControl ctrl, String stepId) {
+        ConditionCompiler.FlowConditions conditions = ctrl.conditions;
+        if (!conditions.holds(stepId, contextOf(ctrl, conditions.contextKeys(stepId)))) {
+            skipBranch(ctrl, stepId);
+            return false;
+        }
+        if (!conditions.isControl(stepId)) return true;
+        if (repo.claimReadyStep(ctrl.flowId, ctrl.runId, stepId, null) && !commitCompleted(ctrl, stepId, null)) {
+            dropFenced(ctrl);
+        }
+        return false;
+    }
+
+    /**
+     * Mark the step and all its transitive dependents SKIPPED in a single Redis call. None of them can
+     * have started: each waits, directly or not, on the skipped step.
+     */
+    private void skipBranch(FlowRunControl ctrl, String stepId) {
+        Set<String> skipped = new LinkedHashSet<>();
+        Deque<String> todo = new ArrayDeque<>();
+        todo.push(stepId);
+        while (!todo.isEmpty()) {
+            String id = todo.pop();
+            if (skipped.add(id)) todo.addAll(ctrl.dag.getAdjacency().getOrDefault(id, Collections.emptySet()));
+        }
+        long remaining = repo.markStepsSkipped(ctrl.flowId, ctrl.runId, skipped, ctrl.leaseToken);
+        if (remaining == RedisExecutionRepository.FENCED) {
+            dropFenced(ctrl);
+            return;
+        }
+        for (String id : skipped) {
+            producer.sendStepStatus(ctrl.flowId, ctrl.runId, id, StepStatusEvent.Status.SKIPPED,
+                    id.equals(stepId) ? "Condition not met" : "Upstream step " + stepId + " skipped");
+        }
+        log.debug("Skipped {} step(s) of {} from {}", skipped.size(), ctrl.runKey(), stepId);
+        if (remaining == 0) completeRun(ctrl);
+    }
+
+    /**
+     * Context lookup for condition evaluation, reading only the given keys.
+     */
+    private Function<String, Object> contextOf(FlowRunControl ctrl, Set<String> keys) {
+        Map<String, String> raw = repo.getContextValues(ctrl.flowId, ctrl.runId, keys);
+        return key -> {
+            String json = raw.get(key);
+            if (json == null) return null;
+            try {
+                return om.readValue(json, Object.class);
+            } catch (JsonProcessingException e) {
+                return json;
             }
+        };
+    }
 
-            // dispatch step
-            dispatchStep(ctrl, nextStep);
+    /**
+     * Drop a run whose lease was found held by another node. handOff waits for owned sections to
+     * drain, so callers inside one hand it to the housekeeping thread.
+     */
+    private void dropFenced(FlowRunControl ctrl) {
+        log.warn("Lease for {} is held by another node; dropping the run", ctrl.runKey());
+        housekeeping.execute(() -> handOff(ctrl, false));
+    }
+
+    /**
+     * The bulkhead queue is full: fail the step (retries still apply) or defer it via the retry queue.
+     */
+    private void rejectStep(FlowRunControl ctrl, String stepId, Bulkhead bulkhead) {
+        String msg = "Bulkhead '" + bulkhead.name() + "' full (" + bulkhead.maxConcurrent() + " running, "
+                + bulkhead.maxQueue() + " queued)";
+        repo.removeReadyStep(ctrl.flowId, ctrl.runId, stepId);
+        if (bulkheads.rejectionPolicy() == Bulkhead.RejectionPolicy.DEFER) {
+            repo.scheduleRetry(ownership.partitionOf(ctrl.runId), ctrl.flowId, ctrl.runId, stepId,
+                    System.currentTimeMillis() + bulkheads.deferMs());
+            log.debug("Step {} of {}:{} deferred: {}", stepId, ctrl.flowId, ctrl.runId, msg);
+        } else {
+            handleStepFailure(ctrl, stepId, msg);
         }
-        log.info("Dispatcher exiting for {}:{}", ctrl.flowId, ctrl.runId);
     }
 
-    private void dispatchStep(FlowRunControl ctrl, String stepId) {
+    private void dispatchStep(FlowRunControl ctrl, String stepId, Bulkhead bulkhead) {
+        boolean submitted = false;
+        try {
+            submitted = MapStep.isItem(stepId) ? submitMapItem(ctrl, stepId, bulkhead) : submitStep(ctrl, stepId, bulkhead);
+        } finally {
+            if (!submitted) bulkhead.exit();
+        }
+    }
+
+    /**
+     * @return true if the step reached the worker pool (its completion then exits the bulkhead)
+     */
+    private boolean submitStep(FlowRunControl ctrl, String stepId, Bulkhead bulkhead) {
         String flowId = ctrl.flowId;
         String runId = ctrl.runId;
 
-        // set RUNNING status
-        repo.setStepStatus(flowId, runId, stepId, StepStatusEvent.Status.RUNNING.name());
+        // take the step off the durable ready set and mark it RUNNING in one step; it may have been
+        // offered to other nodes and claimed by one of them
+        if (!repo.claimReadyStep(flowId, runId, stepId, null)) {
+            fairScheduler.release(ctrl);
+            return false;
+        }
         producer.sendStepStatus(flowId, runId, stepId, StepStatusEvent.Status.RUNNING, null);
 
-        // fetch plugin metadata (used by StepExecutor to coerce inputs & outputs)
         Step step = ctrl.flatSteps.get(stepId);
-        PluginMetadata metadata = null;
+        // get a blocking Callable from StepExecutor (does not spawn its own thread)
+        StepExecutor.Execution execution = stepExecutor.createExecutionCallable(step, flowId, runId, metadataOf(step));
+        long hedgeAfterMs = speculation.hedgeAfterMs(step);
+        if (hedgeAfterMs < 0) {
+            launch(ctrl, stepId, step, execution, bulkhead, (outputs, err) -> onStepFinished(ctrl, stepId, outputs, err));
+            return true;
+        }
+        SpeculativeRace race = new SpeculativeRace(ctrl, stepId, execution, (outputs, err) -> onStepFinished(ctrl, stepId, outputs, err));
+        launch(ctrl, stepId, step, execution, bulkhead,
+                (outputs, err) -> race.complete(stepId, outputs, timeoutAsFailure(ctrl, stepId, err)));
+        timingWheel.schedule(hedgeAfterMs, () -> completionExecutor.execute(() -> startSpeculative(ctrl, step, race)));
+        return true;
+    }
+
+    /**
+     * The step is still running past its hedge delay: start a duplicate on an idle worker slot, if
+     * there is one and the plugin's bulkhead has a free permit. Local ready steps take precedence.
+     */
+    private void startSpeculative(FlowRunControl ctrl, Step step, SpeculativeRace race) {
+        String stepId = step.getStepId();
+        String attemptId = stepId + SPECULATIVE_SUFFIX;
+        Future<?> primary = ctrl.getRunningFuture(stepId);
+        if (primary == null || primary.isDone() || !ctrl.isRunning() || !ctrl.enterOwned()) return;
         try {
-            metadata = pluginClient.getMetadata(step.getPluginId(), null);
+            if (fairScheduler.reserveIdle(1) == 0) return;
+            Bulkhead bulkhead = bulkheads.forPlugin(step.getPluginId());
+            if (!bulkhead.tryEnterNow()) {
+                fairScheduler.releaseReserved(1);
+                return;
+            }
+            StepExecutor.Execution execution = stepExecutor.createExecutionCallable(step, ctrl.flowId, ctrl.runId, metadataOf(step));
+            if (!race.addAttempt(attemptId, execution)) {
+                bulkhead.exit();
+                fairScheduler.releaseReserved(1);
+                return;
+            }
+            log.info("Step {} of {} is running past its expected duration; starting a speculative attempt", stepId, ctrl.runKey());
+            launch(ctrl, attemptId, step, execution, bulkhead, (outputs, err) -> {
+                ctrl.removeRunningFuture(attemptId);
+                fairScheduler.releaseReserved(1);
+                race.complete(attemptId, outputs, timeoutAsFailure(ctrl, attemptId, err));
+            });
+        } finally {
+            ctrl.exitOwned();
+        }
+    }
+
+    /**
+     * A hedged attempt cancelled by its deadline is reported as a plain failure, so the outcome does
+     * not depend on which attempt's deadline fired.
+     */
+    private static Throwable timeoutAsFailure(FlowRunControl ctrl, String attemptId, Throwable err) {
+        if (!(err instanceof CancellationException)) return err;
+        String reason = ctrl.takeTimeoutReason(attemptId);
+        return reason == null ? err : new RuntimeException(reason);
+    }
+
+    /**
+     * Fetch plugin metadata (used by StepExecutor to coerce inputs & outputs); null if unavailable.
+     */
+    private PluginMetadata metadataOf(Step step) {
+        try {
+            return pluginClient.getMetadata(step.getPluginId(), null);
         } catch (Exception ex) {
-            log.warn("Failed to fetch plugin metadata for step {}: {}. Proceeding assuming plugin metadata unavailable.", stepId, ex.getMessage());
+            log.warn("Failed to fetch plugin metadata for step {}: {}. Proceeding assuming plugin metadata unavailable.", step.getStepId(), ex.getMessage());
+            return null;
         }
+    }
 
-        // get a blocking Callable from StepExecutor (does not spawn its own thread)
-        Callable<Map<String, Object>> callable = stepExecutor.createExecutionCallable(step, flowId, runId, metadata);
+    /**
+     * Run an execution on the worker pool under the step's deadline; onFinished runs on the completion
+     * executor once the execution has stopped, after the bulkhead permit is returned.
+     *
+     * @param runningId key of the execution among the run's running futures (stepId, or map item id)
+     */
+    private void launch(FlowRunControl ctrl, String runningId, Step step, StepExecutor.Execution execution, Bulkhead bulkhead,
+                        BiConsumer<Map<String, Object>, Throwable> onFinished) {
+        long timeoutMs = step.configLong("timeoutMs", 0);
+        Callable<Map<String, Object>> callable = () -> {
+            long t0 = System.nanoTime();
+            // the deadline starts when a worker picks the step up, not while it waits for one
+            TimingWheel.Timeout deadline = timeoutMs > 0
+                    ? timingWheel.schedule(timeoutMs, () -> onStepTimeout(ctrl, runningId, execution, timeoutMs))
+                    : null;
+            try {
+                Map<String, Object> out = execution.call();
+                // time successful executions so future runs can weight their critical path
+                durationStats.record(step.getPluginId(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+                return out;
+            } finally {
+                if (deadline != null) deadline.cancel();
+            }
+        };
 
-        // submit to taskExecutor
-        Future<Map<String, Object>> future = taskExecutor.submit(callable);
+        // submit to the worker pool
+        InterruptibleFuture<Map<String, Object>> future = workerPool.submit(callable);
 
         // register future in control
-        ctrl.addRunningFuture(stepId, future);
+        ctrl.addRunningFuture(runningId, future);
 
-        // asynchronously handle completion
-        taskExecutor.submit(() -> {
-            try {
-                Map<String, Object> outputs = future.get(); // will block until complete or throw CancellationException/ExecutionException
-                if (outputs != null) {
-                    outputs.forEach((k, v) -> repo.setStepOutput(flowId, runId, stepId, k, v));
-                }
-                repo.setStepStatus(flowId, runId, stepId, StepStatusEvent.Status.COMPLETED.name());
-                producer.sendStepStatus(flowId, runId, stepId, StepStatusEvent.Status.COMPLETED, null);
-
-                // update dependents
-                Set<String> dependents = repo.getDependents(flowId, runId, stepId);
-                for (String dep : dependents) {
-                    long newInd = repo.decrementIndegreeAndGet(flowId, runId, dep);
-                    if (newInd == 0) repo.enqueueReadyStep(flowId, runId, dep);
+        // handle completion as a continuation; nothing blocks while the plugin runs. A cancelled plugin
+        // that ignores the interrupt keeps its permit and slot until it returns, and its step is not
+        // retried before then, so it never runs twice at once
+        future.whenExitedAsync((outputs, err) -> {
+            bulkhead.exit();
+            onFinished.accept(outputs, err);
+        }, completionExecutor);
+    }
+
+    /* -------------------- Fast path -------------------- */
+
+    /**
+     * Run a lightweight step on this dispatcher thread, then follow its chain: a released dependent
+     * that is lightweight as well runs next under the same worker slot, up to engine.fast-path.max-chain
+     * steps and engine.fast-path.max-chain-ms. The slot is returned at the end; a bulkhead permit is held
+     * only while its step executes.
+     */
+    private void runInline(FlowRunControl ctrl, String stepId, Bulkhead bulkhead) {
+        Bulkhead permit = bulkhead;
+        String id = stepId;
+        int chained = 0;
+        long chainEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fastPath.maxChainMs());
+        try {
+            while (true) {
+                String next = executeInlineWithDeadline(ctrl, id);
+                permit.exit();
+                permit = null;
+                if (next == null) break;
+                Step step = ctrl.flatSteps.get(next);
+                boolean chain = ++chained < fastPath.maxChain() && System.nanoTime() < chainEnd
+                        && !replacedDispatchers.contains(Thread.currentThread())
+                        && ctrl.isRunning() && !ctrl.isPaused();
+                Bulkhead b = chain ? bulkheads.forPlugin(step.getPluginId()) : null;
+                if (b == null || !b.tryEnterNow()) {
+                    ctrl.offerReady(next);
+                    fairScheduler.signal(ctrl);
+                    break;
                 }
-            } catch (CancellationException ce) {
-                // step was cancelled (STOP); mark CANCELLED
-                repo.setStepStatus(flowId, runId, stepId, StepStatusEvent.Status.CANCELLED.name());
-                producer.sendStepStatus(flowId, runId, stepId, StepStatusEvent.Status.CANCELLED, "Cancelled");
-            } catch (ExecutionException ee) {
-                Throwable cause = ee.getCause();
-                String err = cause == null ? ee.getMessage() : cause.getMessage();
-                repo.setStepStatus(flowId, runId, stepId, StepStatusEvent.Status.FAILED.name());
-                producer.sendStepStatus(flowId, runId, stepId, StepStatusEvent.Status.FAILED, err);
-                producer.sendFlowStatus(flowId, runId, FlowStatusEvent.Status.FAILED, err);
-                // stop scheduling further steps in this run
-                ctrl.setRunning(false);
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-            } finally {
-                ctrl.removeRunningFuture(stepId);
+                permit = b;
+                id = next;
             }
+        } finally {
+            if (permit != null) permit.exit();
+        }
+        fairScheduler.release(ctrl);
+    }
+
+    /**
+     * executeInline under engine.fast-path.deadline-ms. A step that overruns it cannot be moved, so this
+     * thread finishes it the way a worker would, while a new dispatcher takes over dispatching and this
+     * one exits afterwards; the plugin runs on the worker pool from then on.
+     */
+    private String executeInlineWithDeadline(FlowRunControl ctrl, String stepId) {
+        Thread dispatcher = Thread.currentThread();
+        String pluginId = ctrl.flatSteps.get(stepId).getPluginId();
+        AtomicBoolean settled = new AtomicBoolean(false);
+        TimingWheel.Timeout deadline = timingWheel.schedule(fastPath.deadlineMs(), () -> {
+            if (!settled.compareAndSet(false, true) || dispatcherExecutor.isShutdown()) return;
+            fastPath.demote(pluginId);
+            replacedDispatchers.add(dispatcher);
+            log.warn("Inline step {} of {} overran {} ms; replacing dispatcher {}", stepId, ctrl.runKey(),
+                    fastPath.deadlineMs(), dispatcher.getName());
+            dispatcherExecutor.submit(this::dispatcherLoop);
         });
+        try {
+            return executeInline(ctrl, stepId);
+        } finally {
+            settled.set(true);
+            deadline.cancel();
+        }
     }
 
-    private boolean isFlowCompleted(FlowRunControl ctrl) {
-        Map<String, String> statuses = repo.getAllStepStatuses(ctrl.flowId, ctrl.runId);
-        if (statuses == null || statuses.isEmpty()) return false;
-        for (String val : statuses.values()) {
-            if (!StepStatusEvent.Status.COMPLETED.name().equals(val) &&
-                !StepStatusEvent.Status.SKIPPED.name().equals(val)) {
-                return false;
+    /**
+     * Execute one step inline and commit its outputs, COMPLETED status and released dependents in one
+     * Redis call. Only the terminal status event is sent.
+     *
+     * @return a released dependent to run inline next, or null (the other released steps are queued)
+     */
+    private String executeInline(FlowRunControl ctrl, String stepId) {
+        String flowId = ctrl.flowId;
+        String runId = ctrl.runId;
+        if (!repo.claimReadyStep(flowId, runId, stepId, null)) return null;
+
+        Step step = ctrl.flatSteps.get(stepId);
+        Map<String, Object> outputs;
+        long t0 = System.nanoTime();
+        try {
+            outputs = stepExecutor.createExecutionCallable(step, flowId, runId, metadataOf(step)).call();
+        } catch (Exception ex) {
+            handleStepFailure(ctrl, stepId, ex.getMessage());
+            return null;
+        }
+        durationStats.record(step.getPluginId(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+
+        RedisExecutionRepository.StepCommit commit = repo.completeStep(flowId, runId, stepId, outputs,
+                ctrl.dag.getAdjacency().getOrDefault(stepId, Collections.emptySet()), ctrl.leaseToken);
+        if (commit.remaining() == RedisExecutionRepository.FENCED) {
+            dropFenced(ctrl);
+            return null;
+        }
+        if (commit.remaining() == RedisExecutionRepository.UNCHANGED) return null; // completed or skipped already
+        producer.sendStepStatus(flowId, runId, stepId, StepStatusEvent.Status.COMPLETED, null);
+        if (commit.remaining() == 0) {
+            completeRun(ctrl);
+            return null;
+        }
+        String next = null;
+        for (String dep : commit.ready()) {
+            if (next == null && !ctrl.conditions.isGuarded(dep) && fastPath.isLightweight(ctrl.flatSteps.get(dep))) {
+                next = dep;
+            } else {
+                ctrl.offerReady(dep);
             }
         }
+        if (commit.ready().size() > (next == null ? 0 : 1)) fairScheduler.signal(ctrl);
+        return next;
+    }
+
+    /* -------------------- Map steps -------------------- */
+
+    /**
+     * Claim a ready map step, read its list and put the first items (up to its parallelism) on the
+     * run's ready queue. Items already finished by an earlier attempt are not repeated.
+     */
+    private void startMapStep(FlowRunControl ctrl, Step step) {
+        String stepId = step.getStepId();
+        if (!repo.claimReadyStep(ctrl.flowId, ctrl.runId, stepId, null)) return;
+        producer.sendStepStatus(ctrl.flowId, ctrl.runId, stepId, StepStatusEvent.Status.RUNNING, null);
+
+        String ref = step.configString("mapOver");
+        if (ref.startsWith("${") && ref.endsWith("}")) ref = ref.substring(2, ref.length() - 1);
+        Object value = contextOf(ctrl, Set.of(ref)).apply(ref);
+        if (!(value instanceof List<?> list)) {
+            handleStepFailure(ctrl, stepId, "mapOver '" + ref + "' is not a list");
+            return;
+        }
+        MapStep map = new MapStep(step, new ArrayList<>(list), repo.getMapItemsDone(ctrl.flowId, ctrl.runId, stepId));
+        ctrl.putMapStep(map);
+        List<Integer> first = map.start();
+        if (first.isEmpty()) {
+            settleMapStep(ctrl, map); // empty list, or every item finished before
+            return;
+        }
+        for (int i : first) ctrl.offerReady(MapStep.itemId(stepId, i));
+        fairScheduler.signal(ctrl);
+        log.debug("Map step {} of {}: {} items, {} started", stepId, ctrl.runKey(), list.size(), first.size());
+    }
+
+    /**
+     * @return true if the item reached the worker pool
+     */
+    private boolean submitMapItem(FlowRunControl ctrl, String itemId, Bulkhead bulkhead) {
+        String stepId = MapStep.stepOf(itemId);
+        int index = MapStep.indexOf(itemId);
+        MapStep map = ctrl.getMapStep(stepId);
+        if (map == null || !map.claim(index)) {
+            // left over from an attempt that already settled
+            fairScheduler.release(ctrl);
+            return false;
+        }
+        Step step = ctrl.flatSteps.get(stepId);
+        String itemJson;
+        try {
+            itemJson = om.writeValueAsString(map.items.get(index));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize item " + index + " of map step " + stepId, e);
+        }
+        StepExecutor.Execution execution = stepExecutor.createExecutionCallable(step, ctrl.flowId, ctrl.runId, metadataOf(step),
+                Map.of(map.itemInput, itemJson));
+        launch(ctrl, itemId, step, execution, bulkhead, (outputs, err) -> onMapItemFinished(ctrl, map, index, outputs, err));
         return true;
     }
 
-    /* -------------------- Recovery on startup -------------------- */
+    /**
+     * Item rejected by the bulkhead: try again after defer-ms, or count it as failed.
+     */
+    private void rejectItem(FlowRunControl ctrl, String itemId, Bulkhead bulkhead) {
+        if (bulkheads.rejectionPolicy() == Bulkhead.RejectionPolicy.DEFER) {
+            timingWheel.schedule(Math.max(1, bulkheads.deferMs()), () -> {
+                ctrl.offerReady(itemId);
+                fairScheduler.signal(ctrl);
+            });
+            return;
+        }
+        MapStep map = ctrl.getMapStep(MapStep.stepOf(itemId));
+        int index = MapStep.indexOf(itemId);
+        if (map == null || !map.claim(index)) return;
+        map.finished(index, "Bulkhead '" + bulkhead.name() + "' full");
+        if (map.isSettled()) settleMapStep(ctrl, map);
+    }
 
-    @PostConstruct
-    public void recoverRunsOnStartup() {
-        log.info("Recovering active runs from Redis...");
-        List<String> runKeys = repo.listActiveRunKeys(); // e.g., ["flow1:runA", "flow2:runB"]
-        if (runKeys == null || runKeys.isEmpty()) { log.info("No active runs found."); return; }
+    private void onMapItemFinished(FlowRunControl ctrl, MapStep map, int index, Map<String, Object> outputs, Throwable err) {
+        String itemId = MapStep.itemId(map.stepId, index);
+        if (!ctrl.enterOwned()) {
+            ctrl.removeRunningFuture(itemId);
+            fairScheduler.release(ctrl);
+            return;
+        }
+        try {
+            String error = null;
+            if (err == null) {
+                repo.setMapItemResult(ctrl.flowId, ctrl.runId, map.stepId, index, outputs);
+            } else if (err instanceof CancellationException) {
+                error = ctrl.takeTimeoutReason(itemId);
+                if (error == null) return; // STOP
+            } else {
+                Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                error = String.valueOf(cause.getMessage());
+            }
+            int next = map.finished(index, error);
+            if (next >= 0) {
+                ctrl.offerReady(MapStep.itemId(map.stepId, next));
+                fairScheduler.signal(ctrl);
+            } else if (map.isSettled()) {
+                settleMapStep(ctrl, map);
+            }
+        } catch (Exception ex) {
+            log.error("Completion handling failed for item {} of {}: {}", itemId, ctrl.runKey(), ex.getMessage(), ex);
+        } finally {
+            ctrl.exitOwned();
+            ctrl.removeRunningFuture(itemId);
+            fairScheduler.release(ctrl);
+        }
+    }
+
+    /**
+     * All items are done (or one failed and the rest settled): fail the step, or complete it with
+     * one list per output key, in item order.
+     */
+    private void settleMapStep(FlowRunControl ctrl, MapStep map) {
+        if (!ctrl.removeMapStep(map)) return;
+        if (map.failure() != null) {
+            handleStepFailure(ctrl, map.stepId, map.failure());
+            return;
+        }
+        Map<Integer, Map<String, Object>> results = repo.getMapItemResults(ctrl.flowId, ctrl.runId, map.stepId);
+        Set<String> keys = new LinkedHashSet<>();
+        Step step = ctrl.flatSteps.get(map.stepId);
+        if (step.getOutputs() != null) keys.addAll(step.getOutputs().keySet());
+        results.values().forEach(r -> keys.addAll(r.keySet()));
+        Map<String, Object> outputs = new LinkedHashMap<>();
+        for (String key : keys) {
+            List<Object> values = new ArrayList<>(map.items.size());
+            for (int i = 0; i < map.items.size(); i++) {
+                values.add(results.getOrDefault(i, Collections.emptyMap()).get(key));
+            }
+            outputs.put(key, values);
+        }
+        if (!commitCompleted(ctrl, map.stepId, outputs)) dropFenced(ctrl);
+    }
+
+    private void onStepFinished(FlowRunControl ctrl, String stepId, Map<String, Object> outputs, Throwable err) {
+        String flowId = ctrl.flowId;
+        String runId = ctrl.runId;
+        if (!ctrl.enterOwned()) {
+            // the run moved to another node, which re-executes this step
+            ctrl.removeRunningFuture(stepId);
+            fairScheduler.release(ctrl);
+            return;
+        }
+        boolean fenced = false;
+        try {
+            if (err == null) {
+                fenced = !commitCompleted(ctrl, stepId, outputs);
+            } else if (err instanceof CancellationException) {
+                String timeoutReason = ctrl.takeTimeoutReason(stepId);
+                if (timeoutReason != null) {
+                    handleStepFailure(ctrl, stepId, timeoutReason);
+                } else {
+                    // step was cancelled (STOP); mark CANCELLED
+                    repo.setStepStatus(flowId, runId, stepId, StepStatusEvent.Status.CANCELLED.name());
+                    producer.sendStepStatus(flowId, runId, stepId, StepStatusEvent.Status.CANCELLED, "Cancelled");
+                }
+            } else {
+                Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                handleStepFailure(ctrl, stepId, cause.getMessage());
+            }
+        } catch (Exception ex) {
+            log.error("Completion handling failed for step {} of {}:{}: {}", stepId, flowId, runId, ex.getMessage(), ex);
+        } finally {
+            ctrl.exitOwned();
+            ctrl.removeRunningFuture(stepId);
+            fairScheduler.release(ctrl);
+            if (fenced) {
+                log.warn("Lease for {}:{} is held by another node; dropping the run", flowId, runId);
+                handOff(ctrl, false);
+            }
+        }
+    }
+
+    /**
+     * Store the outputs, mark the step COMPLETED and release its dependents in one atomic Redis call,
+     * then complete the run when nothing remains. A repeated completion of the same step writes its
+     * outputs again but releases and reports nothing.
+     *
+     * @param outputs outputs to store, or null if there are none (or they are already persisted)
+     * @return false if the run lease is held by another node (nothing was written)
+     */
+    private boolean commitCompleted(FlowRunControl ctrl, String stepId, Map<String, Object> outputs) {
+        String flowId = ctrl.flowId;
+        String runId = ctrl.runId;
+        RedisExecutionRepository.StepCommit commit = repo.completeStep(flowId, runId, stepId, outputs,
+                ctrl.dag.getAdjacency().getOrDefault(stepId, Collections.emptySet()), ctrl.leaseToken);
+        if (commit.remaining() == RedisExecutionRepository.FENCED) return false;
+        if (commit.remaining() == RedisExecutionRepository.UNCHANGED) return true; // completed or skipped already
+        producer.sendStepStatus(flowId, runId, stepId, StepStatusEvent.Status.COMPLETED, null);
+
+        // dependents already on the durable ready set; hand them to the dispatchers
+        if (!commit.ready().isEmpty()) {
+            ctrl.offerAllReady(commit.ready());
+            fairScheduler.signal(ctrl);
+        }
+        if (commit.remaining() == 0) completeRun(ctrl);
+        return true;
+    }
+
+    /**
+     * Commit the outcome of an owned run's step that was executed by another node.
+     *
+     * @return true once the result is handled (or is a duplicate); false if the run left this node
+     */
+    boolean applyStolenResult(FlowRunControl ctrl, StolenResult r) {
+        if (!ctrl.enterOwned()) return false;
+        boolean fenced = false;
+        try {
+            // a reclaimed step can report twice, and its first executor late; only the first report of
+            // the executor recorded for a RUNNING step counts
+            if (!repo.acceptStolenResult(ctrl.flowId, ctrl.runId, r.stepId(), r.executor())) {
+                return true;
+            }
+            if (r.success()) {
+                fenced = !commitCompleted(ctrl, r.stepId(), r.outputs());
+            } else {
+                handleStepFailure(ctrl, r.stepId(), r.error());
+            }
+            return !fenced;
+        } finally {
+            ctrl.exitOwned();
+            if (fenced) {
+                log.warn("Lease for {} is held by another node; dropping the run", ctrl.runKey());
+                handOff(ctrl, false);
+            }
+        }
+    }
+
+    /**
+     * Retry the step if its retryCount allows, otherwise fail it (and the run).
+     */
+    private void handleStepFailure(FlowRunControl ctrl, String stepId, String msg) {
+        Step step = ctrl.flatSteps.get(stepId);
+        if (!ctrl.isRunning() || step == null) {
+            failStep(ctrl, stepId, msg);
+            return;
+        }
+        long failedAttempts = repo.incrementStepAttempts(ctrl.flowId, ctrl.runId, stepId);
+        if (!retryPolicy.shouldRetry(step, failedAttempts)) {
+            failStep(ctrl, stepId, msg);
+            return;
+        }
+        long delayMs = retryPolicy.backoffMs(step, failedAttempts);
+        repo.setStepStatus(ctrl.flowId, ctrl.runId, stepId, StepStatusEvent.Status.PENDING.name());
+        repo.scheduleRetry(ownership.partitionOf(ctrl.runId), ctrl.flowId, ctrl.runId, stepId, System.currentTimeMillis() + delayMs);
+        producer.sendStepStatus(ctrl.flowId, ctrl.runId, stepId, StepStatusEvent.Status.PENDING,
+                "Attempt " + failedAttempts + " failed: " + msg + "; retrying in " + delayMs + " ms");
+        log.info("Step {} of {}:{} failed (attempt {}), retry in {} ms", stepId, ctrl.flowId, ctrl.runId, failedAttempts, delayMs);
+    }
+
+    private void failStep(FlowRunControl ctrl, String stepId, String msg) {
+        repo.setStepStatus(ctrl.flowId, ctrl.runId, stepId, StepStatusEvent.Status.FAILED.name());
+        // kept in Redis so the run can be retried from here (retryFlow)
+        repo.setFlowMeta(ctrl.flowId, ctrl.runId, Map.of("status", FlowStatusEvent.Status.FAILED.name(), "failedAt", Instant.now().toString()));
+        producer.sendStepStatus(ctrl.flowId, ctrl.runId, stepId, StepStatusEvent.Status.FAILED, msg);
+        producer.sendFlowStatus(ctrl.flowId, ctrl.runId, FlowStatusEvent.Status.FAILED, msg);
+        // stop scheduling further steps in this run, then release it until it is retried
+        ctrl.setRunning(false);
+        housekeeping.execute(() -> retireFailed(ctrl));
+    }
 
-        for (String rk : runKeys) {
+    /**
+     * Deadline expired while the step was still executing: cancel its Future (interrupts the worker),
+     * ask the plugin to stop, and let the completion continuation record the FAILED status.
+     */
+    private void onStepTimeout(FlowRunControl ctrl, String stepId, StepExecutor.Execution execution, long timeoutMs) {
+        Future<?> future = ctrl.getRunningFuture(stepId);
+        if (future == null || future.isDone()) return;
+        log.warn("Step {} of {}:{} exceeded timeout of {} ms; cancelling", stepId, ctrl.flowId, ctrl.runId, timeoutMs);
+        ctrl.markTimedOut(stepId, "Step timed out after " + timeoutMs + " ms");
+        if (!future.cancel(true)) {
+            // finished in the meantime; keep its real outcome
+            ctrl.takeTimeoutReason(stepId);
+            return;
+        }
+        execution.stop();
+    }
+
+    /**
+     * Called when the remaining-steps counter reaches zero. Reports completion once.
+     */
+    private void completeRun(FlowRunControl ctrl) {
+        if (!ctrl.markFinished()) return;
+        producer.sendFlowStatus(ctrl.flowId, ctrl.runId, FlowStatusEvent.Status.COMPLETED, null);
+        repo.removeActiveRun(ctrl.runKey());
+        discardRunState(ctrl.flowId, ctrl.runId, ctrl.flatSteps);
+        ctrl.setRunning(false);
+        runs.remove(ctrl.runKey());
+        fairScheduler.unregister(ctrl);
+        releaseBulkheads(ctrl);
+        log.info("Flow completed {}:{}", ctrl.flowId, ctrl.runId);
+    }
+
+    /**
+     * Remaining counter for a recovered run. Runs persisted before the counter existed get it
+     * computed once from the step statuses.
+     */
+    private long remainingSteps(FlowRunControl ctrl) {
+        Long remaining = repo.getRemainingSteps(ctrl.flowId, ctrl.runId);
+        if (remaining != null) return remaining;
+        Map<String, String> statuses = repo.getAllStepStatuses(ctrl.flowId, ctrl.runId);
+        long count = ctrl.dag.getIndegree().keySet().stream()
+                .filter(id -> !StepStatusEvent.Status.COMPLETED.name().equals(statuses.get(id))
+                        && !StepStatusEvent.Status.SKIPPED.name().equals(statuses.get(id)))
+                .count();
+        repo.setRemainingSteps(ctrl.flowId, ctrl.runId, count);
+        return count;
+    }
+
+    /* -------------------- Ownership: recovery & hand-off -------------------- */
+
+    /**
+     * Command partitions were assigned to this node: take over the active runs that hash to them.
+     */
+    public void onPartitionsAssigned(Collection<Integer> partitions, int partitionCount) {
+        ownership.assign(partitions, partitionCount);
+        if (partitions.isEmpty()) return;
+        List<String> runKeys = new ArrayList<>();
+        for (String rk : repo.listActiveRunKeys()) { // e.g., ["flow1:runA", "flow2:runB"]
             String[] parts = rk.split(":", 2);
             if (parts.length != 2) {
                 log.warn("Invalid runKey in active set: {}", rk);
                 continue;
             }
-            String flowId = parts[0], runId = parts[1];
-            Optional<String> defOpt = repo.getFlowDefinition(flowId, runId);
-            if (defOpt.isEmpty()) {
+            if (partitions.contains(ownership.partitionOf(parts[1])) && !runs.containsKey(rk)) runKeys.add(rk);
+        }
+        log.info("Partitions {} assigned: {} active runs to recover", partitions, runKeys.size());
+        if (!runKeys.isEmpty()) recoverInBackground(runKeys);
+    }
+
+    /**
+     * Recover runs on the recovery pool, so the consumer goes on taking commands meanwhile. Each task
+     * reads the definitions and meta of a batch of runs in one pipelined round trip, then loads and
+     * rehydrates them one by one; a run becomes dispatchable as soon as its own recovery finishes.
+     */
+    private void recoverInBackground(List<String> runKeys) {
+        long t0 = System.nanoTime();
+        recoveryPending.addAndGet(runKeys.size());
+        int batches = (runKeys.size() + recoveryBatch - 1) / recoveryBatch;
+        AtomicInteger batchesLeft = new AtomicInteger(batches);
+        for (int i = 0; i < runKeys.size(); i += recoveryBatch) {
+            List<String> batch = List.copyOf(runKeys.subList(i, Math.min(runKeys.size(), i + recoveryBatch)));
+            recoveryExecutor.execute(() -> {
+                int done = 0;
+                try {
+                    for (RecoveryState state : repo.loadRecoveryStates(batch)) {
+                        recoverRun(state);
+                        done++;
+                    }
+                } catch (Exception ex) {
+                    log.error("Recovery of {} runs failed: {}", batch.size() - done, ex.getMessage(), ex);
+                    recoveryPending.addAndGet(done - batch.size());
+                } finally {
+                    if (batchesLeft.decrementAndGet() == 0) {
+                        long nanos = System.nanoTime() - t0;
+                        Timer.builder("engine.recovery.duration").description("Time to recover the runs of newly assigned partitions")
+                                .register(meters).record(nanos, TimeUnit.NANOSECONDS);
+                        log.info("Recovered {} runs in {} ms", runKeys.size(), TimeUnit.NANOSECONDS.toMillis(nanos));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Command partitions were taken from this node. Runs on the consumer thread before the new owner
+     * is assigned, so the runs are handed off (in-flight steps requeued, lease released) by then.
+     *
+     * @param lost the partitions were lost without a clean revoke (e.g. session timeout); another
+     *             node may already own them, so nothing is written back
+     */
+    public void onPartitionsRevoked(Collection<Integer> partitions, boolean lost) {
+        ownership.revoke(partitions);
+        for (FlowRunControl ctrl : new ArrayList<>(runs.values())) {
+            if (partitions.contains(ownership.partitionOf(ctrl.runId))) handOff(ctrl, !lost);
+        }
+        pendingRecovery.removeIf(rk -> {
+            String[] parts = rk.split(":", 2);
+            return parts.length != 2 || !ownership.ownsRun(parts[1]);
+        });
+    }
+
+    private void recoverRun(String flowId, String runId) {
+        recoverRun(new RecoveryState(flowId, runId, repo.getFlowDefinition(flowId, runId).orElse(null), null));
+    }
+
+    /**
+     * Load and rehydrate one run, unless it is already here or its partition was revoked meanwhile.
+     * Recorded in engine.recovery.run by outcome.
+     */
+    private void recoverRun(RecoveryState state) {
+        String flowId = state.flowId();
+        String runId = state.runId();
+        String rk = runKey(flowId, runId);
+        long t0 = System.nanoTime();
+        String outcome = "skipped";
+        try {
+            if (runs.containsKey(rk)) {
+                pendingRecovery.remove(rk);
+                return;
+            }
+            if (!ownership.ownsRun(runId)) return;
+            if (state.definition() == null) {
                 log.warn("No flow definition for {}:{}. Skipping recovery.", flowId, runId);
-                continue;
+                outcome = "missing";
+                return;
             }
-            try {
-                Map<String, Step> flat = om.readValue(defOpt.get(), om.getTypeFactory().constructMapType(Map.class, String.class, Step.class));
-                DAGBuilder.DAG dag = dagBuilder.buildDAG(flat);
-                FlowRunControl ctrl = new FlowRunControl(flowId, runId, flat, dag);
-                runs.put(rk, ctrl);
-                // if flow was paused in redis, keep paused state
-                Map<Object, Object> meta = repo.getFlowMeta(flowId, runId);
-                if (meta != null && "PAUSED".equalsIgnoreCase(String.valueOf(meta.get("status")))) {
-                    ctrl.setPaused(true);
-                    log.info("Recovered run {}:{} in PAUSED state.", flowId, runId);
-                }
-                startDispatcher(ctrl);
-                log.info("Recovered dispatcher for {}:{}", flowId, runId);
-            } catch (Exception ex) {
-                log.error("Failed to recover run {}:{} - {}", flowId, runId, ex.getMessage(), ex);
+            FlowRunControl ctrl = loadRun(flowId, runId, state.definition(), state.meta());
+            if (ctrl == null) {
+                // previous owner has not released it (crashed or slow); retried until its lease expires
+                pendingRecovery.add(rk);
+                log.info("Run {}:{} is still leased by another node; will retry", flowId, runId);
+                outcome = "leased";
+                return;
             }
+            rehydrate(ctrl);
+            outcome = "recovered";
+            log.info("Recovered run {}:{}", flowId, runId);
+            // the partition may have been revoked while this run was loading
+            if (!ownership.ownsRun(runId)) handOff(ctrl, true);
+        } catch (Exception ex) {
+            outcome = "failed";
+            log.error("Failed to recover run {}:{} - {}", flowId, runId, ex.getMessage(), ex);
+        } finally {
+            if (state.meta() != null) recoveryPending.decrementAndGet(); // batch recovery only
+            Timer.builder("engine.recovery.run").tag("outcome", outcome).register(meters)
+                    .record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Take the run lease and rebuild the control block from the persisted definition. Paused runs stay
+     * paused. The caller rehydrates the ready queue.
+     *
+     * @return the tracked control, or null if the lease is held by another node (or the run is already
+     *         loaded or loading)
+     */
+    private FlowRunControl loadRun(String flowId, String runId, String defJson) throws JsonProcessingException {
+        return loadRun(flowId, runId, defJson, null);
+    }
+
+    /**
+     * @param meta run meta already read (batch recovery), or null to read it here
+     */
+    private FlowRunControl loadRun(String flowId, String runId, String defJson, Map<Object, Object> prefetchedMeta)
+            throws JsonProcessingException {
+        String rk = runKey(flowId, runId);
+        if (!loading.add(rk)) return null;
+        try {
+            if (runs.containsKey(rk)) return null;
+            long epoch = repo.acquireRunLease(flowId, runId, ownership.nodeId(), ownership.leaseTtlMs());
+            if (epoch < 0) return null;
+            pendingRecovery.remove(rk);
+            Map<String, Step> flat = om.readValue(defJson, om.getTypeFactory().constructMapType(Map.class, String.class, Step.class));
+            DAGBuilder.DAG dag = dagBuilder.buildDAG(flat);
+            Map<Object, Object> meta = prefetchedMeta != null ? prefetchedMeta : repo.getFlowMeta(flowId, runId);
+            FlowRunControl ctrl = newControl(flowId, runId, ownerOf(meta), flat, dag, ownership.token(epoch));
+            // steps the previous owner was executing when it died are lost with it: run them again
+            List<String> requeued = requeueInFlight(ctrl, meta);
+            if (requeued == null) return null; // lease taken over meanwhile
+            if (!requeued.isEmpty()) log.info("Run {}:{}: requeued {} step(s) left running by the previous owner", flowId, runId, requeued.size());
+            // if flow was paused in redis, keep paused state
+            if (meta != null && "PAUSED".equalsIgnoreCase(String.valueOf(meta.get("status")))) {
+                ctrl.setPaused(true);
+                log.info("Recovered run {}:{} in PAUSED state.", flowId, runId);
+            }
+            track(ctrl);
+            return ctrl;
+        } finally {
+            loading.remove(rk);
+        }
+    }
+
+    /**
+     * Stop executing a run on this node. With leaseHeld, steps that were executing are put back on the
+     * durable ready set and the lease is released, so the next owner can resume at once; otherwise the
+     * run already belongs to someone else and is only dropped from memory.
+     */
+    void handOff(FlowRunControl ctrl, boolean leaseHeld) {
+        // waits for dispatches and completions in progress; after this nothing else writes for the run
+        if (!ctrl.relinquish()) return;
+        runs.remove(ctrl.runKey(), ctrl);
+        fairScheduler.unregister(ctrl);
+        ctrl.setRunning(false);
+        releaseBulkheads(ctrl);
+        ctrl.cancelAllRunningTasks();
+        if (leaseHeld) {
+            // steps stolen by other nodes keep running there and report to whoever owns the run next
+            List<String> requeued = requeueInFlight(ctrl, repo.getFlowMeta(ctrl.flowId, ctrl.runId));
+            repo.releaseRunLease(ctrl.flowId, ctrl.runId, ctrl.leaseToken);
+            log.info("Handed off run {}:{} ({} in-flight steps requeued)", ctrl.flowId, ctrl.runId, requeued == null ? 0 : requeued.size());
+        } else {
+            log.info("Dropped run {}:{} owned elsewhere", ctrl.flowId, ctrl.runId);
+        }
+    }
+
+    /**
+     * A run leaving the node (not running any more) gives up its places in the bulkhead queues and the
+     * permits its waiting steps were handed, so they go to other runs' steps.
+     */
+    private void releaseBulkheads(FlowRunControl ctrl) {
+        bulkheads.purge(ctrl.runKey());
+        ctrl.releaseGrantedPermits();
+    }
+
+    /**
+     * Retry the recovery of owned runs that were waiting for a previous owner's lease.
+     */
+    void retryPendingRecoveries() {
+        for (String rk : new ArrayList<>(pendingRecovery)) {
+            String[] parts = rk.split(":", 2);
+            if (parts.length != 2 || !ownership.ownsRun(parts[1]) || !repo.isActiveRun(rk)) {
+                pendingRecovery.remove(rk);
+                continue;
+            }
+            recoverRun(parts[0], parts[1]);
+        }
+    }
+
+    /**
+     * Put the steps this owner (or a dead previous owner) had running back on the durable ready set. Runs
+     * started before the in-flight set existed are found by one status scan and then marked current.
+     *
+     * @return the requeued steps, or null if the lease is held by another node
+     */
+    private List<String> requeueInFlight(FlowRunControl ctrl, Map<Object, Object> meta) {
+        boolean legacy = meta == null
+                || !RedisExecutionRepository.STATE_VERSION.equals(String.valueOf(meta.get(RedisExecutionRepository.STATE_VERSION_FIELD)));
+        List<String> requeued = repo.requeueInFlight(ctrl.flowId, ctrl.runId, ctrl.leaseToken, legacy);
+        if (requeued != null && legacy) {
+            repo.setFlowMeta(ctrl.flowId, ctrl.runId,
+                    Map.of(RedisExecutionRepository.STATE_VERSION_FIELD, RedisExecutionRepository.STATE_VERSION));
+        }
+        return requeued;
+    }
+
+    /**
+     * Re-seed the in-memory ready queue of a rebuilt run from its durable copy in Redis. A run that had
+     * failed (left active by an older engine) is released again until it is retried.
+     */
+    private void rehydrate(FlowRunControl ctrl) {
+        Map<Object, Object> meta = repo.getFlowMeta(ctrl.flowId, ctrl.runId);
+        if (meta != null && FlowStatusEvent.Status.FAILED.name().equals(String.valueOf(meta.get("status")))) {
+            log.info("Run {} failed before; releasing it until it is retried", ctrl.runKey());
+            retireFailed(ctrl);
+            return;
+        }
+        ctrl.offerAllReady(repo.getReadySteps(ctrl.flowId, ctrl.runId));
+        ctrl.setRunning(true);
+        if (remainingSteps(ctrl) == 0) {
+            completeRun(ctrl);
+        } else {
+            fairScheduler.signal(ctrl);
         }
     }
 
@@ -382,57 +1487,64 @@ public class ExecutionScheduler {
 
     @PreDestroy
     public void shutdown() {
-        log.info("Shutting down ExecutionScheduler — stopping runs and cancelling tasks...");
-        // stop all runs
-        for (String rk : new ArrayList<>(runs.keySet())) {
-            FlowRunControl c = runs.remove(rk);
-            if (c != null) {
-                c.setRunning(false);
-                c.cancelAllRunningTasks();
-                repo.setFlowMeta(c.flowId, c.runId, Map.of("status", FlowStatusEvent.Status.PAUSED.name(), "pausedAt", Instant.now().toString()));
-                producer.sendFlowStatus(c.flowId, c.runId, FlowStatusEvent.Status.PAUSED, "Engine shutting down");
+        log.info("Shutting down ExecutionScheduler — handing off runs and cancelling tasks...");
+        // normally empty already: stopping the listener container revokes our partitions first.
+        // Runs are handed off rather than paused so another node picks them up.
+        for (FlowRunControl c : new ArrayList<>(runs.values())) {
+            try {
+                handOff(c, true);
+            } catch (Exception ex) {
+                log.warn("Hand-off of {} failed on shutdown: {}", c.runKey(), ex.getMessage());
             }
         }
         try {
-            taskExecutor.shutdownNow();
+            housekeeping.shutdown();
+            recoveryExecutor.shutdownNow();
+            workerPool.shutdownNow();
+            completionExecutor.shutdownNow();
             dispatcherExecutor.shutdownNow();
+            // finished runs are no longer in the active set; let their queued cleanup finish
+            cleanupExecutor.shutdown();
+            if (!cleanupExecutor.awaitTermination(5, TimeUnit.SECONDS)) cleanupExecutor.shutdownNow();
         } catch (Exception ignored) {}
     }
 
-    /* -------------------- Helpers & FlowRunControl -------------------- */
+    /* -------------------- Helpers -------------------- */
+
+    /**
+     * Build the control block, ranking steps by longest remaining path weighted with the expected
+     * plugin duration. Plugins without history get the average of the known ones in this flow
+     * (or one unit, i.e. hop count, when nothing is known yet).
+     */
+    private FlowRunControl newControl(String flowId, String runId, String owner, Map<String, Step> flat, DAGBuilder.DAG dag,
+                                      String leaseToken) {
+        Map<String, Long> expected = new HashMap<>();
+        flat.forEach((stepId, s) -> expected.put(stepId, durationStats.expectedDurationMs(s.getPluginId())));
+        long fallback = Math.round(expected.values().stream().filter(v -> v >= 0).mapToLong(Long::longValue).average().orElse(1));
+        Map<String, Long> ranks = dagBuilder.criticalPathRanks(dag, stepId -> {
+            long ms = expected.getOrDefault(stepId, -1L);
+            return ms >= 0 ? ms : fallback;
+        });
+        return new FlowRunControl(flowId, runId, owner, flat, dag, ranks, leaseToken, conditionCompiler.forFlow(flat));
+    }
 
-    private static class FlowRunControl {
-        final String flowId;
-        final String runId;
-        final Map<String, Step> flatSteps;
-        final DAGBuilder.DAG dag;
+    /** The control of a run active on this node, or null. */
+    FlowRunControl activeRun(String runKey) {
+        return runs.get(runKey);
+    }
 
-        private volatile boolean running = false;
-        private volatile boolean paused = false;
-        // track stepId -> Future returned by taskExecutor for cancellation
-        private final ConcurrentMap<String, Future<?>> runningFutures = new ConcurrentHashMap<>();
+    Collection<FlowRunControl> activeRuns() {
+        return runs.values();
+    }
 
-        FlowRunControl(String flowId, String runId, Map<String, Step> flatSteps, DAGBuilder.DAG dag) {
-            this.flowId = flowId;
-            this.runId = runId;
-            this.flatSteps = flatSteps;
-            this.dag = dag;
-        }
+    private void track(FlowRunControl ctrl) {
+        runs.put(ctrl.runKey(), ctrl);
+        fairScheduler.register(ctrl);
+    }
 
-        void addRunningFuture(String stepId, Future<?> f) { runningFutures.put(stepId, f); }
-        void removeRunningFuture(String stepId) { runningFutures.remove(stepId); }
-        void cancelAllRunningTasks() {
-            for (Map.Entry<String, Future<?>> e : runningFutures.entrySet()) {
-                try {
-                    e.getValue().cancel(true); // interrupt worker thread executing the plugin callable
-                } catch (Exception ignored) { }
-            }
-            runningFutures.clear();
-        }
-        boolean isRunning() { return running; }
-        void setRunning(boolean v) { running = v; }
-        boolean isPaused() { return paused; }
-        void setPaused(boolean v) { paused = v; }
+    private String ownerOf(Map<Object, Object> meta) {
+        Object owner = meta == null ? null : meta.get("triggeredBy");
+        return owner == null ? null : owner.toString();
     }
 
     private String runKey(String flowId, String runId) { return flowId + ":" + runId; }
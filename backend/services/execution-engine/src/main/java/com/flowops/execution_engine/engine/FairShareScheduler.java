@@ -0,0 +1,426 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.executor.WorkerPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Weighted fair-share scheduling between the per-run ready queues and the worker pool.
+ *
+ * Runs are grouped by a share key (engine.fairness.key):
+ *  - owner: the user that triggered the run (ExecutionCommandEvent.triggeredBy), default
+ *  - flow : the flowId
+ *  - run  : every run is its own group
+ *
+ * Groups are served with stride scheduling: each dispatch advances the group's pass by
+ * STRIDE / weight and the runnable group with the lowest pass goes next, so a group with weight 4
+ * gets four times the dispatches of a weight-1 group. Runs inside a group are served round-robin.
+ * A run holding engine.fairness.max-run-share of the worker capacity is parked, so a run with a
+ * huge fan-out cannot take every worker and a small interactive run is served on the next free slot
+ * instead of behind the batch. The cap is work-conserving: parked runs still get slots that no other
+ * run has a dispatchable step for.
+ *
+ * The scheduler also owns the worker slots: next() only hands out a step when total in-flight
+ * steps are below capacity, and release() must be called once per dispatched step. Capacity follows
+ * the worker pool size, which PoolSizeController may change at runtime.
+ *
+ * Since steps queue here rather than in the worker pool, the scheduler also records how long ready
+ * steps wait for a slot: each dispatch counts the time since its run last had a ready step that was
+ * not dispatched (waiting behind capacity, the run cap or other groups). drainQueueStats() hands the
+ * totals to PoolSizeController.
+ */
+@Component
+class FairShareScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(FairShareScheduler.class);
+
+    private static final long STRIDE = 1L << 20;
+    private static final String ANONYMOUS = "anonymous";
+
+    enum ShareKey { OWNER, FLOW, RUN }
+
+    /** A step handed to a dispatcher together with the run it belongs to. */
+    record Dispatch(FlowRunControl run, String stepId) {}
+
+    /** Dispatches and their total wait for a slot since the previous drainQueueStats() call. */
+    record QueueStats(long dispatched, long waitNanos) {}
+
+    private static final class Group {
+        final String key;
+        final int weight;
+        long pass;
+        boolean inHeap;
+        final ArrayDeque<RunEntry> runnable = new ArrayDeque<>();
+        int members;
+
+        Group(String key, int weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+
+    private static final class RunEntry {
+        final FlowRunControl ctrl;
+        final Group group;
+        int inFlight;
+        boolean queued;
+        // at its run cap with steps ready; served only when no other run has one
+        boolean parked;
+        // since when the run has had a ready step that was not dispatched; 0 if it has none
+        long waitingSince;
+
+        RunEntry(FlowRunControl ctrl, Group group) {
+            this.ctrl = ctrl;
+            this.group = group;
+        }
+    }
+
+    private final ShareKey shareKey;
+    private final Map<String, Integer> weights;
+    private final double maxRunShare;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+
+    private final Map<String, Group> groups = new HashMap<>();
+    private final Map<String, RunEntry> entries = new HashMap<>();
+    private final PriorityQueue<Group> heap = new PriorityQueue<>(Comparator.comparingLong((Group g) -> g.pass).thenComparing(g -> g.key));
+    private final ArrayDeque<RunEntry> parked = new ArrayDeque<>();
+
+    private int capacity;
+    private int inFlight;
+    // pass of the most recently served group; new or re-activated groups start here, not at zero
+    private long virtualTime;
+    private long dispatched;
+    private long waitNanos;
+
+    FairShareScheduler(WorkerPool workerPool,
+                       @Value("${engine.fairness.key:owner}") String shareKey,
+                       @Value("${engine.fairness.weights:}") String weights,
+                       @Value("${engine.fairness.max-run-share:0.5}") double maxRunShare) {
+        this.shareKey = ShareKey.valueOf(shareKey.trim().toUpperCase());
+        this.weights = parseWeights(weights);
+        this.maxRunShare = maxRunShare <= 0 || maxRunShare > 1 ? 1.0 : maxRunShare;
+        this.capacity = workerPool.getMaxConcurrency();
+        log.info("Fair-share scheduler: key={} weights={} maxRunShare={} capacity={}",
+                this.shareKey, this.weights, this.maxRunShare, capacity);
+    }
+
+    /* -------------------- run membership -------------------- */
+
+    void register(FlowRunControl ctrl) {
+        lock.lock();
+        try {
+            if (entries.containsKey(ctrl.runKey())) return;
+            String key = groupKey(ctrl);
+            Group g = groups.computeIfAbsent(key, k -> new Group(k, weights.getOrDefault(k, 1)));
+            g.members++;
+            entries.put(ctrl.runKey(), new RunEntry(ctrl, g));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void unregister(FlowRunControl ctrl) {
+        lock.lock();
+        try {
+            RunEntry e = entries.remove(ctrl.runKey());
+            if (e == null) return;
+            e.group.runnable.remove(e);
+            if (e.parked) parked.remove(e);
+            if (--e.group.members == 0) {
+                heap.remove(e.group);
+                groups.remove(e.group.key);
+            }
+            // in-flight steps of a removed run still release their slots via release()
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The run may have become dispatchable (new ready step, resumed). Cheap when nothing changed.
+     */
+    void signal(FlowRunControl ctrl) {
+        lock.lock();
+        try {
+            RunEntry e = entries.get(ctrl.runKey());
+            if (e != null && enqueue(e)) workAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* -------------------- dispatch -------------------- */
+
+    /**
+     * Block until a worker slot is free and some run has a dispatchable step, then take that step.
+     * The slot stays reserved until release() is called for the run.
+     */
+    Dispatch next() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (inFlight < capacity) {
+                    Dispatch d = pollNext();
+                    if (d != null) return d;
+                }
+                workAvailable.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Free the worker slot held by one dispatched step of this run.
+     */
+    void release(FlowRunControl ctrl) {
+        lock.lock();
+        try {
+            inFlight--;
+            RunEntry e = entries.get(ctrl.runKey());
+            if (e != null) {
+                e.inFlight--;
+                enqueue(e);
+            }
+            workAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserve up to max free worker slots for steps stolen from other nodes. Local runs come first:
+     * nothing is reserved while any local run has a dispatchable step, parked runs included.
+     *
+     * @return slots reserved; each must be returned with releaseReserved()
+     */
+    int reserveIdle(int max) {
+        lock.lock();
+        try {
+            if (!heap.isEmpty() || !parked.isEmpty()) return 0;
+            int n = Math.max(0, Math.min(max, capacity - inFlight));
+            inFlight += n;
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void releaseReserved(int n) {
+        if (n <= 0) return;
+        lock.lock();
+        try {
+            inFlight -= n;
+            workAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Change the number of worker slots (adaptive pool sizing). Shrinking lets in-flight steps finish;
+     * new dispatches wait until in-flight drops below the new capacity.
+     */
+    void setCapacity(int newCapacity) {
+        lock.lock();
+        try {
+            capacity = Math.max(1, newCapacity);
+            // the per-run cap grows with capacity: runs parked at the old cap may be dispatchable again
+            for (RunEntry e : entries.values()) enqueue(e);
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int capacity() {
+        lock.lock();
+        try {
+            return capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Slot wait totals since the previous call, then reset.
+     */
+    QueueStats drainQueueStats() {
+        lock.lock();
+        try {
+            QueueStats stats = new QueueStats(dispatched, waitNanos);
+            dispatched = 0;
+            waitNanos = 0;
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* -------------------- internals (lock held) -------------------- */
+
+    private Dispatch pollNext() {
+        while (!heap.isEmpty()) {
+            Group g = heap.poll();
+            Dispatch d = pollGroup(g);
+            if (d == null) {
+                g.inHeap = false;
+                continue;
+            }
+            virtualTime = g.pass;
+            g.pass += STRIDE / g.weight;
+            if (!g.runnable.isEmpty()) heap.add(g);
+            else g.inHeap = false;
+            return d;
+        }
+        return pollParked();
+    }
+
+    /**
+     * No run below its cap has a dispatchable step: give the slot to a parked run, round-robin.
+     */
+    private Dispatch pollParked() {
+        while (!parked.isEmpty()) {
+            RunEntry e = parked.pollFirst();
+            FlowRunControl ctrl = e.ctrl;
+            String stepId = ctrl.isRunning() && !ctrl.isPaused() ? ctrl.pollReady() : null;
+            if (stepId == null) {
+                e.parked = false;
+                e.waitingSince = 0;
+                continue;
+            }
+            Dispatch d = dispatch(e, stepId);
+            if (ctrl.hasReady()) parked.addLast(e);
+            else e.parked = false;
+            return d;
+        }
+        return null;
+    }
+
+    private Dispatch pollGroup(Group g) {
+        int runCap = runCap();
+        while (!g.runnable.isEmpty()) {
+            RunEntry e = g.runnable.pollFirst();
+            FlowRunControl ctrl = e.ctrl;
+            // paused / empty runs leave the queue, over-cap runs are parked; resume, release and new steps re-queue them
+            if (!ctrl.isRunning() || ctrl.isPaused()) {
+                e.waitingSince = 0; // not waiting for a slot
+                e.queued = false;
+                continue;
+            }
+            if (e.inFlight >= runCap) {
+                e.queued = false;
+                if (ctrl.hasReady()) park(e);
+                continue;
+            }
+            String stepId = ctrl.pollReady();
+            if (stepId == null) {
+                e.waitingSince = 0;
+                e.queued = false;
+                continue;
+            }
+            Dispatch d = dispatch(e, stepId);
+            if (ctrl.hasReady() && e.inFlight < runCap) {
+                g.runnable.addLast(e); // round-robin within the group
+            } else {
+                e.queued = false;
+                if (ctrl.hasReady()) park(e);
+            }
+            return d;
+        }
+        return null;
+    }
+
+    private Dispatch dispatch(RunEntry e, String stepId) {
+        long now = System.nanoTime();
+        if (e.waitingSince != 0) waitNanos += now - e.waitingSince;
+        dispatched++;
+        e.waitingSince = e.ctrl.hasReady() ? now : 0;
+        e.inFlight++;
+        inFlight++;
+        return new Dispatch(e.ctrl, stepId);
+    }
+
+    private void park(RunEntry e) {
+        if (e.parked) return;
+        e.parked = true;
+        parked.addLast(e);
+    }
+
+    private boolean enqueue(RunEntry e) {
+        FlowRunControl ctrl = e.ctrl;
+        if (!ctrl.isRunning() || ctrl.isPaused() || !ctrl.hasReady()) {
+            return false;
+        }
+        // a run parked at its cap is waiting for a slot too
+        if (e.waitingSince == 0) e.waitingSince = System.nanoTime();
+        if (e.queued) return false;
+        if (e.inFlight >= runCap()) {
+            // parked: may still take a slot nobody else has a step for
+            if (e.parked) return false;
+            park(e);
+            return true;
+        }
+        if (e.parked) {
+            e.parked = false;
+            parked.remove(e);
+        }
+        e.queued = true;
+        Group g = e.group;
+        g.runnable.addLast(e);
+        if (!g.inHeap) {
+            // an idle group does not bank credit while it had nothing to run
+            g.pass = Math.max(g.pass, virtualTime);
+            g.inHeap = true;
+            heap.add(g);
+        }
+        return true;
+    }
+
+    private int runCap() {
+        return Math.max(1, (int) Math.floor(capacity * maxRunShare));
+    }
+
+    private String groupKey(FlowRunControl ctrl) {
+        return switch (shareKey) {
+            case OWNER -> ctrl.owner == null || ctrl.owner.isBlank() ? ANONYMOUS : ctrl.owner;
+            case FLOW -> ctrl.flowId;
+            case RUN -> ctrl.runKey();
+        };
+    }
+
+    /**
+     * Parses "alice:4,bob:2" into a weight map. Unlisted keys get weight 1.
+     */
+    private static Map<String, Integer> parseWeights(String raw) {
+        Map<String, Integer> out = new HashMap<>();
+        if (raw == null || raw.isBlank()) return out;
+        for (String pair : raw.split(",")) {
+            String[] kv = pair.trim().split(":", 2);
+            if (kv.length != 2) continue;
+            try {
+                out.put(kv[0].trim(), Math.max(1, Integer.parseInt(kv[1].trim())));
+            } catch (NumberFormatException ex) {
+                log.warn("Ignoring invalid fairness weight '{}'", pair);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,90 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.model.Step;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which steps run inline on the dispatcher thread instead of on a worker.
+ *
+ * A plugin is lightweight when it is listed in engine.fast-path.plugins or, with
+ * engine.fast-path.auto-max-ms > 0, when its average duration on this node (StepDurationStats) is at
+ * most that. Inline steps skip the RUNNING event and the worker hand-off, and commit their outputs,
+ * status and released dependents in one Redis call. Steps with a timeoutMs or a mapOver always go
+ * through the worker pool, since an inline step cannot be cancelled.
+ *
+ * An inline step still has to finish within engine.fast-path.deadline-ms: one that overruns it is left
+ * to finish on its thread, a fresh dispatcher takes over, and its plugin is demoted to the worker pool
+ * on this node. A chain of inline steps yields its slot after engine.fast-path.max-chain steps or
+ * engine.fast-path.max-chain-ms, whichever comes first.
+ */
+@Component
+class FastPathPolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(FastPathPolicy.class);
+
+    private final boolean enabled;
+    private final Set<String> plugins;
+    private final long autoMaxMs;
+    private final int maxChain;
+    private final long maxChainMs;
+    private final long deadlineMs;
+    private final StepDurationStats durationStats;
+    // plugins that overran the inline deadline; they run on workers until restart
+    private final Set<String> demoted = ConcurrentHashMap.newKeySet();
+
+    FastPathPolicy(StepDurationStats durationStats,
+                   @Value("${engine.fast-path.enabled:true}") boolean enabled,
+                   @Value("${engine.fast-path.plugins:}") String plugins,
+                   @Value("${engine.fast-path.auto-max-ms:0}") long autoMaxMs,
+                   @Value("${engine.fast-path.max-chain:32}") int maxChain,
+                   @Value("${engine.fast-path.max-chain-ms:50}") long maxChainMs,
+                   @Value("${engine.fast-path.deadline-ms:200}") long deadlineMs) {
+        this.durationStats = durationStats;
+        this.enabled = enabled;
+        this.plugins = Arrays.stream(plugins.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        this.autoMaxMs = autoMaxMs;
+        this.maxChain = Math.max(1, maxChain);
+        this.maxChainMs = Math.max(1, maxChainMs);
+        this.deadlineMs = Math.max(1, deadlineMs);
+    }
+
+    boolean isLightweight(Step step) {
+        if (!enabled || step == null) return false;
+        String pluginId = step.getPluginId();
+        if (pluginId == null || pluginId.isBlank()) return false;
+        if (MapStep.isMapStep(step) || step.configLong("timeoutMs", 0) > 0) return false;
+        if (demoted.contains(pluginId)) return false;
+        if (plugins.contains(pluginId)) return true;
+        if (autoMaxMs <= 0) return false;
+        long expected = durationStats.expectedDurationMs(pluginId);
+        return expected >= 0 && expected <= autoMaxMs;
+    }
+
+    /** Steps one dispatch may run back to back along a chain before yielding its slot. */
+    int maxChain() { return maxChain; }
+
+    /** Wall time one dispatch may spend along a chain before yielding its slot. */
+    long maxChainMs() { return maxChainMs; }
+
+    /** Time an inline step may take before its dispatcher is replaced. */
+    long deadlineMs() { return deadlineMs; }
+
+    /** The plugin overran the inline deadline: run its steps on the worker pool from now on. */
+    void demote(String pluginId) {
+        if (pluginId != null && demoted.add(pluginId)) {
+            log.warn("Plugin {} overran the inline deadline of {} ms; its steps run on workers from now on", pluginId, deadlineMs);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.executor.Bulkhead;
+import com.flowops.execution_engine.model.Step;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory control block for one active run.
+ *
+ * Holds the flattened definition, the DAG, the in-memory ready queue (Redis keeps the durable copy)
+ * and the futures of steps currently executing so they can be cancelled.
+ *
+ * The ready queue is ordered critical-path first: steps with the longest remaining path to a sink
+ * (see DAGBuilder.criticalPathRanks) are dispatched before the rest.
+ *
+ * Dispatch and completion handling run inside enterOwned()/exitOwned(). Handing the run to another
+ * node (relinquish) waits for those sections to drain, so after it returns this node writes nothing
+ * more for the run and the Redis state it leaves behind is consistent.
+ */
+class FlowRunControl {
+    final String flowId;
+    final String runId;
+    // user that triggered the run; fair-share group key in owner mode (may be null)
+    final String owner;
+    final Map<String, Step> flatSteps;
+    final DAGBuilder.DAG dag;
+    // stepId -> longest remaining path to a sink (higher = more urgent)
+    final Map<String, Long> ranks;
+    // "nodeId|epoch" of the run lease this node holds; checked by Redis when a step commits
+    final String leaseToken;
+    // compiled step/branch conditions of the definition
+    final ConditionCompiler.FlowConditions conditions;
+
+    private volatile boolean running = false;
+    private volatile boolean paused = false;
+
+    // ready stepIds waiting for a dispatcher; mirrored in Redis for crash-recovery
+    private final Queue<String> readyQueue;
+    // flips once when the run reaches a terminal state, so completion is reported exactly once
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+
+    // track stepId -> Future returned by the worker pool for cancellation
+    private final ConcurrentMap<String, Future<?>> runningFutures = new ConcurrentHashMap<>();
+    // stepId -> failure reason for steps cancelled by their deadline (vs. cancelled by STOP)
+    private final ConcurrentMap<String, String> timeoutReasons = new ConcurrentHashMap<>();
+    // stepId -> state of map steps whose items are executing
+    private final ConcurrentMap<String, MapStep> mapSteps = new ConcurrentHashMap<>();
+    // ready stepId -> bulkhead permit handed to it while it waited; dispatched on that permit
+    private final ConcurrentMap<String, Bulkhead> grantedPermits = new ConcurrentHashMap<>();
+
+    private final ReentrantReadWriteLock ownership = new ReentrantReadWriteLock();
+    private boolean handedOff; // guarded by ownership
+
+    FlowRunControl(String flowId, String runId, String owner, Map<String, Step> flatSteps, DAGBuilder.DAG dag,
+                   Map<String, Long> ranks, String leaseToken, ConditionCompiler.FlowConditions conditions) {
+        this.flowId = flowId;
+        this.runId = runId;
+        this.owner = owner;
+        this.flatSteps = flatSteps;
+        this.dag = dag;
+        this.ranks = ranks;
+        this.leaseToken = leaseToken;
+        this.conditions = conditions;
+        this.readyQueue = new PriorityBlockingQueue<>(16,
+                Comparator.comparingLong((String id) -> -rank(id)).thenComparing(id -> id));
+    }
+
+    /* -------------------- ready queue -------------------- */
+
+    void offerReady(String stepId) { readyQueue.offer(stepId); }
+    void offerAllReady(Collection<String> stepIds) { readyQueue.addAll(stepIds); }
+    String pollReady() { return readyQueue.poll(); }
+    boolean hasReady() { return !readyQueue.isEmpty(); }
+    int readyCount() { return readyQueue.size(); }
+
+    // items of a map step rank like the step itself
+    private long rank(String id) {
+        return ranks.getOrDefault(MapStep.isItem(id) ? MapStep.stepOf(id) : id, 0L);
+    }
+
+    /** @return true only for the first caller, which then owns terminal handling */
+    boolean markFinished() { return finished.compareAndSet(false, true); }
+
+    /* -------------------- ownership -------------------- */
+
+    /** Enter a section that writes run state. Returns false (and holds nothing) once handed off. */
+    boolean enterOwned() {
+        ownership.readLock().lock();
+        if (handedOff) {
+            ownership.readLock().unlock();
+            return false;
+        }
+        return true;
+    }
+
+    void exitOwned() { ownership.readLock().unlock(); }
+
+    /**
+     * Wait for running owned sections to finish and refuse new ones. Must not be called from inside one.
+     *
+     * @return true for the first caller
+     */
+    boolean relinquish() {
+        ownership.writeLock().lock();
+        try {
+            if (handedOff) return false;
+            handedOff = true;
+            return true;
+        } finally {
+            ownership.writeLock().unlock();
+        }
+    }
+
+    /* -------------------- map steps -------------------- */
+
+    void putMapStep(MapStep map) { mapSteps.put(map.stepId, map); }
+    MapStep getMapStep(String stepId) { return mapSteps.get(stepId); }
+    /** @return true if this call removed it (exactly one caller settles a map step) */
+    boolean removeMapStep(MapStep map) { return mapSteps.remove(map.stepId, map); }
+
+    /* -------------------- bulkhead permits -------------------- */
+
+    void grantPermit(String stepId, Bulkhead bulkhead) { grantedPermits.put(stepId, bulkhead); }
+    /** @return the permit handed to the step while it waited, or null; the caller then owns it */
+    Bulkhead takeGrantedPermit(String stepId) { return grantedPermits.remove(stepId); }
+
+    /** Return the permits of steps that were handed one but not dispatched yet. */
+    void releaseGrantedPermits() {
+        for (String stepId : grantedPermits.keySet()) {
+            Bulkhead b = grantedPermits.remove(stepId);
+            if (b != null) b.exit();
+        }
+    }
+
+    /* -------------------- running futures -------------------- */
+
+    void addRunningFuture(String stepId, Future<?> f) { runningFutures.put(stepId, f); }
+    void removeRunningFuture(String stepId) { runningFutures.remove(stepId); }
+    Future<?> getRunningFuture(String stepId) { return runningFutures.get(stepId); }
+
+    void markTimedOut(String stepId, String reason) { timeoutReasons.put(stepId, reason); }
+    /** @return the timeout reason if the step was cancelled by its deadline, else null */
+    String takeTimeoutReason(String stepId) { return timeoutReasons.remove(stepId); }
+    void cancelAllRunningTasks() {
+        for (Map.Entry<String, Future<?>> e : runningFutures.entrySet()) {
+            try {
+                e.getValue().cancel(true); // interrupt worker thread executing the plugin callable
+            } catch (Exception ignored) { }
+        }
+        runningFutures.clear();
+    }
+
+    boolean isRunning() { return running; }
+    void setRunning(boolean v) { running = v; }
+    boolean isPaused() { return paused; }
+    void setPaused(boolean v) { paused = v; }
+
+    String runKey() { return flowId + ":" + runId; }
+}
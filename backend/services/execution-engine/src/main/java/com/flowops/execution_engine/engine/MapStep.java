@@ -0,0 +1,122 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.model.Step;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runtime state of one executing map step (config.mapOver).
+ *
+ * A map step is a single DAG node whatever the number of items: its items are dispatched as in-memory
+ * ready entries "stepId#index", at most parallelism at a time, and each item's outputs are stored in
+ * the step's map results hash. Items already present there (an earlier attempt, or a previous owner)
+ * are not run again. Once every item is done the step completes with one list per output key.
+ *
+ * The first failing item stops new items from starting, including issued ones that were not
+ * submitted yet; once the running ones settle the step fails as a whole (and is retried per its
+ * retryCount, resuming with the missing items).
+ */
+final class MapStep {
+
+    static final char ITEM_SEPARATOR = '#';
+    static final int DEFAULT_PARALLELISM = 16;
+    static final String DEFAULT_ITEM_INPUT = "item";
+
+    final String stepId;
+    final List<Object> items;
+    final String itemInput;
+    private final int parallelism;
+
+    // guarded by this
+    private int next;
+    private int inFlight;                 // issued + executing
+    private final Set<Integer> issued = new HashSet<>(); // on the ready queue, not yet submitted
+    private final Set<Integer> done;
+    private String failure;
+
+    MapStep(Step step, List<Object> items, Collection<Integer> alreadyDone) {
+        this.stepId = step.getStepId();
+        this.items = items;
+        String input = step.configString("itemInput");
+        this.itemInput = input != null ? input : DEFAULT_ITEM_INPUT;
+        long p = step.configLong("parallelism", 0);
+        this.parallelism = p > 0 ? (int) Math.min(p, Integer.MAX_VALUE) : DEFAULT_PARALLELISM;
+        this.done = new HashSet<>(alreadyDone);
+    }
+
+    static boolean isMapStep(Step step) {
+        return step != null && step.configString("mapOver") != null;
+    }
+
+    static String itemId(String stepId, int index) { return stepId + ITEM_SEPARATOR + index; }
+
+    static boolean isItem(String id) { return id.indexOf(ITEM_SEPARATOR) >= 0; }
+
+    static String stepOf(String itemId) { return itemId.substring(0, itemId.lastIndexOf(ITEM_SEPARATOR)); }
+
+    static int indexOf(String itemId) { return Integer.parseInt(itemId.substring(itemId.lastIndexOf(ITEM_SEPARATOR) + 1)); }
+
+    /**
+     * Items to dispatch now: up to parallelism not yet done.
+     */
+    synchronized List<Integer> start() {
+        List<Integer> out = new ArrayList<>();
+        while (inFlight < parallelism) {
+            int i = nextPending();
+            if (i < 0) break;
+            inFlight++;
+            issued.add(i);
+            out.add(i);
+        }
+        return out;
+    }
+
+    /**
+     * Take an issued item for submission. False for a stale ready entry of an earlier attempt.
+     */
+    synchronized boolean claim(int index) {
+        return issued.remove(index);
+    }
+
+    /**
+     * Record an item outcome (error == null for success).
+     *
+     * @return the next item to dispatch, or -1
+     */
+    synchronized int finished(int index, String error) {
+        inFlight--;
+        if (error == null) {
+            done.add(index);
+        } else if (failure == null) {
+            failure = "Item " + index + " failed: " + error;
+        }
+        if (failure != null) {
+            // issued items not submitted yet will not be: their ready entries are now stale
+            inFlight -= issued.size();
+            issued.clear();
+            return -1;
+        }
+        int i = nextPending();
+        if (i >= 0) {
+            inFlight++;
+            issued.add(i);
+        }
+        return i;
+    }
+
+    /** Nothing is running and nothing more will be started. */
+    synchronized boolean isSettled() {
+        return inFlight == 0 && (failure != null || done.size() >= items.size());
+    }
+
+    synchronized String failure() { return failure; }
+
+    private int nextPending() {
+        while (next < items.size() && done.contains(next)) next++;
+        return next < items.size() ? next++ : -1;
+    }
+}
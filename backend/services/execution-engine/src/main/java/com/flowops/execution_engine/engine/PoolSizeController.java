@@ -0,0 +1,154 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.executor.WorkerPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes the worker pool from what the steps actually do (engine.workers.adaptive.*).
+ *
+ * Every interval it reads the step timings recorded by WorkerPool and computes the classic
+ * pool-size estimate
+ *
+ *     N = cores * targetUtilization * (1 + W/C)
+ *
+ * where W/C is the ratio of waiting (blocked) to compute time per step. CPU time is measured per step
+ * on platform threads; for virtual threads, which the JVM does not time, it is estimated from the
+ * process CPU load over the interval. The ratio is smoothed (EWMA) across intervals.
+ *
+ * Growth only happens while ready steps actually queue for a worker slot in the FairShareScheduler
+ * (average slot wait at least 10% of service time); otherwise more threads would not help. The
+ * WorkerPool's own queue stays empty because the scheduler never dispatches beyond capacity. Each
+ * adjustment moves at most 25% of the current size, and the result is clamped to [min, max]. The new
+ * size is applied to both the WorkerPool and the FairShareScheduler slots.
+ */
+@Component
+class PoolSizeController {
+
+    private static final Logger log = LoggerFactory.getLogger(PoolSizeController.class);
+
+    // weight of the newest interval in the smoothed blocking ratio
+    private static final double ALPHA = 0.3;
+    private static final double MAX_STEP = 0.25;
+    private static final int MIN_SAMPLES = 8;
+
+    private final WorkerPool workerPool;
+    private final FairShareScheduler fairScheduler;
+    private final int cores = Runtime.getRuntime().availableProcessors();
+    private final int minSize;
+    private final int maxSize;
+    private final double targetUtilization;
+    private final long intervalMs;
+    private final ScheduledExecutorService ticker;
+
+    private double blockingRatio = -1; // W/C, -1 until the first measurement
+
+    PoolSizeController(WorkerPool workerPool,
+                       FairShareScheduler fairScheduler,
+                       @Value("${engine.workers.adaptive.enabled:true}") boolean enabled,
+                       @Value("${engine.workers.adaptive.min:0}") int minSize,
+                       @Value("${engine.workers.adaptive.max:0}") int maxSize,
+                       @Value("${engine.workers.adaptive.target-utilization:0.9}") double targetUtilization,
+                       @Value("${engine.workers.adaptive.interval-ms:5000}") long intervalMs) {
+        this.workerPool = workerPool;
+        this.fairScheduler = fairScheduler;
+        this.minSize = minSize > 0 ? minSize : cores;
+        int defaultMax = workerPool.getMode() == WorkerPool.Mode.VIRTUAL
+                ? Math.max(workerPool.getMaxConcurrency(), 2000)
+                : cores * 32;
+        this.maxSize = Math.max(this.minSize, maxSize > 0 ? maxSize : defaultMax);
+        this.targetUtilization = targetUtilization <= 0 || targetUtilization > 1 ? 0.9 : targetUtilization;
+        this.intervalMs = Math.max(500, intervalMs);
+        this.ticker = enabled ? Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "pool-sizer")) : null;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (ticker == null) return;
+        ticker.scheduleWithFixedDelay(this::adjust, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        log.info("Adaptive worker pool sizing: min={} max={} targetUtilization={}", minSize, maxSize, targetUtilization);
+    }
+
+    private void adjust() {
+        try {
+            WorkerPool.Stats s = workerPool.drainStats();
+            FairShareScheduler.QueueStats q = fairScheduler.drainQueueStats();
+            int current = workerPool.getMaxConcurrency();
+            int next = nextSize(s, q, current);
+            if (next == current) return;
+
+            workerPool.resize(next);
+            fairScheduler.setCapacity(next);
+            log.info("Worker pool resized {} -> {} (W/C={}, avg service={} ms, avg slot wait={} ms)", current, next,
+                    String.format("%.2f", blockingRatio), Math.round((double) s.serviceNanos() / s.completed() / 1e6),
+                    Math.round(avgWait(q) / 1e6));
+        } catch (Exception ex) {
+            log.warn("Worker pool sizing failed: {}", ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Pool size for the next interval from one interval's step timings and slot waits.
+     *
+     * @return current if there is too little data to decide
+     */
+    int nextSize(WorkerPool.Stats s, FairShareScheduler.QueueStats q, int current) {
+        if (s.completed() < MIN_SAMPLES || s.serviceNanos() <= 0) return current;
+
+        double sample = measuredBlockingRatio(s);
+        if (sample < 0) return current;
+        blockingRatio = blockingRatio < 0 ? sample : blockingRatio + ALPHA * (sample - blockingRatio);
+
+        int target = (int) Math.ceil(cores * targetUtilization * (1 + blockingRatio));
+        double avgService = (double) s.serviceNanos() / s.completed();
+        if (target > current && avgWait(q) < 0.1 * avgService) {
+            target = current; // nothing is waiting for a worker
+        }
+        int maxDelta = Math.max(1, (int) (current * MAX_STEP));
+        int next = Math.max(current - maxDelta, Math.min(current + maxDelta, target));
+        return Math.max(minSize, Math.min(maxSize, next));
+    }
+
+    private static double avgWait(FairShareScheduler.QueueStats q) {
+        return q.dispatched() == 0 ? 0 : (double) q.waitNanos() / q.dispatched();
+    }
+
+    /**
+     * W/C for the interval, or -1 if it cannot be determined.
+     */
+    private double measuredBlockingRatio(WorkerPool.Stats s) {
+        if (s.cpuSampled() > 0 && s.cpuServiceNanos() > 0) {
+            double cpu = Math.max(1, s.cpuNanos());
+            return Math.max(0, (s.cpuServiceNanos() - cpu) / cpu);
+        }
+        // virtual threads: share of the process CPU over the interval against total step wall time
+        double load = processCpuLoad();
+        if (load < 0) return -1;
+        double cpuNanos = load * cores * TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        double cpu = Math.max(1, Math.min(cpuNanos, s.serviceNanos()));
+        return Math.max(0, (s.serviceNanos() - cpu) / cpu);
+    }
+
+    private static double processCpuLoad() {
+        try {
+            if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+                return os.getProcessCpuLoad();
+            }
+        } catch (Exception ignored) { }
+        return -1;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (ticker != null) ticker.shutdownNow();
+    }
+}
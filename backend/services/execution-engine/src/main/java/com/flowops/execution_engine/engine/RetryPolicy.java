@@ -0,0 +1,43 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.model.Step;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry decisions for failed steps, driven by the step config (retryCount, retryDelayMs).
+ *
+ * Backoff is exponential in the attempt number, capped at engine.retry.max-delay-ms, with "equal
+ * jitter": half the delay is fixed and the other half random, so retries of a fan-out that failed
+ * together do not all come back at the same instant.
+ */
+@Component
+public class RetryPolicy {
+
+    private final long maxDelayMs;
+
+    public RetryPolicy(@Value("${engine.retry.max-delay-ms:300000}") long maxDelayMs) {
+        this.maxDelayMs = Math.max(0, maxDelayMs);
+    }
+
+    /**
+     * @param failedAttempts attempts that have failed so far, including the one just finished (>= 1)
+     */
+    public boolean shouldRetry(Step step, long failedAttempts) {
+        return failedAttempts <= step.configLong("retryCount", 0);
+    }
+
+    /**
+     * Delay before the next attempt: retryDelayMs * 2^(failedAttempts-1), capped, with jitter.
+     */
+    public long backoffMs(Step step, long failedAttempts) {
+        long base = Math.max(0, step.configLong("retryDelayMs", 0));
+        if (base == 0) return 0;
+        int shift = (int) Math.min(30, Math.max(0, failedAttempts - 1));
+        long delay = Math.min(maxDelayMs, base << shift);
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+}
@@ -0,0 +1,209 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.persistence.redis.RedisExecutionRepository;
+import com.flowops.execution_engine.persistence.redis.RedisExecutionRepository.StolenResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic upkeep of the runs owned by this node, on two background threads:
+ *  - due retries move from the Redis delay queues back to the ready queue (engine.retry.poll-interval-ms),
+ *  - run leases are renewed every lease TTL / 3, and runs waiting for a previous owner's lease retried,
+ *  - with work stealing, surplus ready steps are offered to other nodes and the outcomes of stolen
+ *    steps committed (engine.steal.poll-interval-ms).
+ *
+ * The same threads take the one-off tasks the scheduler cannot run inside an owned section (hand-offs,
+ * retiring failed runs). Nothing runs until the ExecutionScheduler starts it.
+ */
+@Component
+public class RunHousekeeping {
+
+    private static final Logger log = LoggerFactory.getLogger(RunHousekeeping.class);
+
+    private static final int POLL_BATCH = 256;
+
+    private final RedisExecutionRepository repo;
+    private final RunOwnership ownership;
+    private final FairShareScheduler fairScheduler;
+    private final WorkStealer stealer;
+    private final long retryPollMs;
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+    private ExecutionScheduler scheduler;
+
+    public RunHousekeeping(RedisExecutionRepository repo,
+                           RunOwnership ownership,
+                           FairShareScheduler fairScheduler,
+                           WorkStealer stealer,
+                           @Value("${engine.retry.poll-interval-ms:200}") long retryPollIntervalMs) {
+        this.repo = repo;
+        this.ownership = ownership;
+        this.fairScheduler = fairScheduler;
+        this.stealer = stealer;
+        this.retryPollMs = Math.max(10, retryPollIntervalMs);
+    }
+
+    /**
+     * Start the periodic tasks for the runs of this scheduler.
+     */
+    synchronized void start(ExecutionScheduler scheduler) {
+        if (this.scheduler != null) return;
+        this.scheduler = scheduler;
+        long leaseMs = ownership.leaseTtlMs() / 3;
+        executor.scheduleWithFixedDelay(this::pollDueRetries, retryPollMs, retryPollMs, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(this::maintainLeases, leaseMs, leaseMs, TimeUnit.MILLISECONDS);
+        if (stealer.isEnabled()) {
+            long stealMs = stealer.pollIntervalMs();
+            executor.scheduleWithFixedDelay(this::offloadBacklog, stealMs, stealMs, TimeUnit.MILLISECONDS);
+            executor.scheduleWithFixedDelay(this::pollStolenResults, stealMs, stealMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Run a one-off task on the housekeeping threads.
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Move due retries of the owned partitions back to the ready queue. The durable ready copy is
+     * written before the retry entry is removed, so a crash in between re-delivers the step instead
+     * of losing it.
+     */
+    private void pollDueRetries() {
+        long now = System.currentTimeMillis();
+        for (int partition : ownership.ownedPartitions()) {
+            try {
+                for (String member : repo.listDueRetries(partition, now, POLL_BATCH)) {
+                    int sep = member.lastIndexOf('|');
+                    if (sep < 0) {
+                        repo.removeRetry(partition, member);
+                        continue;
+                    }
+                    String rk = member.substring(0, sep);
+                    String stepId = member.substring(sep + 1);
+                    FlowRunControl ctrl = scheduler.activeRun(rk);
+                    if (ctrl == null) {
+                        // run stopped or finished: drop it; still active means it is being recovered
+                        if (!repo.isActiveRun(rk)) repo.removeRetry(partition, member);
+                        continue;
+                    }
+                    repo.enqueueReadyStep(ctrl.flowId, ctrl.runId, stepId);
+                    if (repo.removeRetry(partition, member)) {
+                        ctrl.offerReady(stepId);
+                        fairScheduler.signal(ctrl);
+                    }
+                }
+            } catch (Exception ex) {
+                log.warn("Retry poll failed for partition {}: {}", partition, ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Extend the leases of all runs on this node and retry runs waiting for a previous owner's lease.
+     */
+    private void maintainLeases() {
+        try {
+            Map<String, String> tokens = new HashMap<>();
+            scheduler.activeRuns().forEach(c -> tokens.put(c.runKey(), c.leaseToken));
+            for (String rk : repo.renewRunLeases(tokens, ownership.leaseTtlMs())) {
+                FlowRunControl ctrl = scheduler.activeRun(rk);
+                if (ctrl == null) continue; // completed or stopped meanwhile
+                log.warn("Lost lease for run {}; stopping local execution", rk);
+                scheduler.handOff(ctrl, false);
+            }
+            scheduler.retryPendingRecoveries();
+        } catch (Exception ex) {
+            log.warn("Lease maintenance failed: {}", ex.getMessage(), ex);
+        }
+    }
+
+    /* -------------------- Work stealing (owner side) -------------------- */
+
+    /**
+     * Offer ready steps this node cannot start soon to other nodes: whatever exceeds the free worker
+     * slots plus engine.steal.min-backlog, taken round-robin across runs. Offered steps stay in the
+     * durable ready set until claimed, so the owner's own stealer can still take them back.
+     */
+    private void offloadBacklog() {
+        try {
+            int free = Math.max(0, fairScheduler.capacity() - fairScheduler.inFlight());
+            int backlog = 0;
+            for (FlowRunControl c : scheduler.activeRuns()) {
+                if (c.isRunning() && !c.isPaused()) backlog += c.readyCount();
+            }
+            int excess = Math.min(stealer.batch(), backlog - free - stealer.minBacklog());
+            boolean progress = true;
+            while (excess > 0 && progress) {
+                progress = false;
+                for (FlowRunControl ctrl : scheduler.activeRuns()) {
+                    if (excess <= 0) break;
+                    if (!ctrl.isRunning() || ctrl.isPaused() || !ctrl.hasReady() || !ctrl.enterOwned()) continue;
+                    try {
+                        // guarded steps are decided by the owner and map steps fan out here, so they stay
+                        List<String> local = new ArrayList<>();
+                        String stepId;
+                        while ((stepId = ctrl.pollReady()) != null && isLocalOnly(ctrl, stepId)) local.add(stepId);
+                        ctrl.offerAllReady(local);
+                        if (stepId == null) continue;
+                        try {
+                            repo.offerStealableStep(ctrl.runKey(), stepId, ownership.partitionOf(ctrl.runId));
+                        } catch (RuntimeException ex) {
+                            ctrl.offerReady(stepId);
+                            throw ex;
+                        }
+                        excess--;
+                        progress = true;
+                    } finally {
+                        ctrl.exitOwned();
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            log.warn("Offloading ready steps failed: {}", ex.getMessage(), ex);
+        }
+    }
+
+    private boolean isLocalOnly(FlowRunControl ctrl, String stepId) {
+        return MapStep.isItem(stepId) || ctrl.conditions.isGuarded(stepId) || MapStep.isMapStep(ctrl.flatSteps.get(stepId));
+    }
+
+    /**
+     * Commit the outcomes of owned runs' steps that were executed by other nodes.
+     */
+    private void pollStolenResults() {
+        for (int partition : ownership.ownedPartitions()) {
+            try {
+                for (StolenResult r : repo.readStolenResults(partition, POLL_BATCH)) {
+                    FlowRunControl ctrl = scheduler.activeRun(r.runKey());
+                    if (ctrl == null) {
+                        // run stopped or finished: drop it; still active means it is being recovered
+                        if (!repo.isActiveRun(r.runKey())) repo.deleteStolenResult(partition, r.id());
+                        continue;
+                    }
+                    if (scheduler.applyStolenResult(ctrl, r)) repo.deleteStolenResult(partition, r.id());
+                }
+            } catch (Exception ex) {
+                log.warn("Polling stolen step results failed for partition {}: {}", partition, ex.getMessage(), ex);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
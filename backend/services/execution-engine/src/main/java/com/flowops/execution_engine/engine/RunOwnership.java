@@ -0,0 +1,89 @@
+package com.flowops.execution_engine.engine;
+
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which runs this engine node is responsible for.
+ *
+ * Commands are keyed by runId, so every command of a run lands on one partition of execution.commands.
+ * The node that has that partition assigned owns the run: it starts it, recovers it, and receives its
+ * pause/resume/stop commands. partitionOf() mirrors the Kafka default partitioner
+ * (murmur2(key) mod partitions) so ownership of runs already in Redis can be decided without reading
+ * their commands again.
+ *
+ * Partition assignment only says who should own a run; the Redis run lease (with its fencing epoch)
+ * is what lets a node execute it, so a node that has not yet noticed a rebalance cannot commit steps
+ * of a run that moved.
+ */
+@Component
+class RunOwnership {
+
+    private static final Logger log = LoggerFactory.getLogger(RunOwnership.class);
+
+    private final String nodeId;
+    private final long leaseTtlMs;
+
+    private final Set<Integer> ownedPartitions = ConcurrentHashMap.newKeySet();
+    private volatile int partitionCount;
+
+    RunOwnership(@Value("${engine.node-id:}") String nodeId,
+                 @Value("${engine.lease.ttl-ms:30000}") long leaseTtlMs) {
+        this.nodeId = nodeId == null || nodeId.isBlank() ? defaultNodeId() : nodeId.trim();
+        this.leaseTtlMs = Math.max(1000, leaseTtlMs);
+        log.info("Engine node id={} leaseTtlMs={}", this.nodeId, this.leaseTtlMs);
+    }
+
+    String nodeId() { return nodeId; }
+    long leaseTtlMs() { return leaseTtlMs; }
+
+    /** Value stored in the run lease for the given epoch. */
+    String token(long epoch) { return nodeId + "|" + epoch; }
+
+    /**
+     * @return the execution.commands partition of the run, or -1 before the first assignment
+     */
+    int partitionOf(String runId) {
+        int n = partitionCount;
+        if (n <= 0 || runId == null) return -1;
+        return Utils.toPositive(Utils.murmur2(runId.getBytes(StandardCharsets.UTF_8))) % n;
+    }
+
+    boolean ownsRun(String runId) {
+        return ownedPartitions.contains(partitionOf(runId));
+    }
+
+    Set<Integer> ownedPartitions() { return Set.copyOf(ownedPartitions); }
+
+    void assign(Collection<Integer> partitions, int partitionCount) {
+        if (partitionCount > 0) this.partitionCount = partitionCount;
+        ownedPartitions.addAll(partitions);
+        log.info("Assigned command partitions {} (of {}), now owning {}", partitions, this.partitionCount, ownedPartitions);
+    }
+
+    void revoke(Collection<Integer> partitions) {
+        ownedPartitions.removeAll(partitions);
+        log.info("Revoked command partitions {}, now owning {}", partitions, ownedPartitions);
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception ex) {
+            host = "engine";
+        }
+        // random suffix: a restarted node must not inherit the leases of its previous incarnation
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,45 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.model.Step;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * When to start a speculative duplicate of a straggling step.
+ *
+ * Only steps with config.speculative = true are hedged; the flag is meant for idempotent plugins,
+ * since both attempts may run to completion. A duplicate is started once the step has run for
+ * p95-multiplier times its plugin's recent p95 (StepDurationStats), and only after min-samples
+ * executions of the plugin have been seen on this node.
+ */
+@Component
+class SpeculationPolicy {
+
+    private final StepDurationStats durationStats;
+    private final boolean enabled;
+    private final double multiplier;
+    private final int minSamples;
+    private final long minDelayMs;
+
+    SpeculationPolicy(StepDurationStats durationStats,
+                      @Value("${engine.speculation.enabled:true}") boolean enabled,
+                      @Value("${engine.speculation.p95-multiplier:1.5}") double multiplier,
+                      @Value("${engine.speculation.min-samples:20}") int minSamples,
+                      @Value("${engine.speculation.min-delay-ms:50}") long minDelayMs) {
+        this.durationStats = durationStats;
+        this.enabled = enabled;
+        this.multiplier = Math.max(1.0, multiplier);
+        this.minSamples = Math.max(1, minSamples);
+        this.minDelayMs = Math.max(1, minDelayMs);
+    }
+
+    /**
+     * @return how long after the step starts a duplicate is launched, or -1 if it is not hedged
+     */
+    long hedgeAfterMs(Step step) {
+        if (!enabled || step == null || !step.configBoolean("speculative")) return -1;
+        long p95 = durationStats.p95Ms(step.getPluginId(), minSamples);
+        if (p95 < 0) return -1;
+        return Math.max(minDelayMs, Math.round(p95 * multiplier));
+    }
+}
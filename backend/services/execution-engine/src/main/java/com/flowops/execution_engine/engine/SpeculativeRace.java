@@ -0,0 +1,56 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.executor.StepExecutor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+/**
+ * Attempts of one hedged step racing each other.
+ *
+ * The first attempt to succeed wins: the others are cancelled and only the winner's outcome is
+ * reported. A failure is reported only once no other attempt is left running, since a duplicate may
+ * still succeed.
+ */
+final class SpeculativeRace {
+
+    private final FlowRunControl ctrl;
+    private final BiConsumer<Map<String, Object>, Throwable> onFinished;
+
+    // guarded by this: running attempt key (running future id) -> its execution
+    private final Map<String, StepExecutor.Execution> running = new HashMap<>();
+    private boolean decided;
+
+    SpeculativeRace(FlowRunControl ctrl, String key, StepExecutor.Execution first,
+                    BiConsumer<Map<String, Object>, Throwable> onFinished) {
+        this.ctrl = ctrl;
+        this.onFinished = onFinished;
+        running.put(key, first);
+    }
+
+    /** @return false if the race is already decided (the attempt must not be started) */
+    synchronized boolean addAttempt(String key, StepExecutor.Execution execution) {
+        if (decided) return false;
+        running.put(key, execution);
+        return true;
+    }
+
+    /** Outcome of one attempt (err == null for success). */
+    void complete(String key, Map<String, Object> outputs, Throwable err) {
+        Map<String, StepExecutor.Execution> losers;
+        synchronized (this) {
+            running.remove(key);
+            if (decided || (err != null && !running.isEmpty())) return;
+            decided = true;
+            losers = new HashMap<>(running);
+        }
+        losers.forEach((loserKey, execution) -> {
+            Future<?> f = ctrl.getRunningFuture(loserKey);
+            if (f != null) f.cancel(true);
+            execution.stop();
+        });
+        onFinished.accept(outputs, err);
+    }
+}
@@ -0,0 +1,70 @@
+package com.flowops.execution_engine.engine;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory history of step execution durations, per pluginId.
+ *
+ * Keeps an exponentially weighted moving average of successful execution times. Used to weight
+ * the critical path when ordering ready steps; plugins never seen on this node have no estimate.
+ * The last WINDOW samples are also kept for percentiles (straggler detection).
+ */
+@Component
+public class StepDurationStats {
+
+    // weight of the newest sample in the moving average
+    private static final double ALPHA = 0.2;
+
+    // recent samples kept per plugin for percentiles
+    private static final int WINDOW = 128;
+
+    private final ConcurrentMap<String, Double> ewmaMs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Window> recent = new ConcurrentHashMap<>();
+
+    public void record(String pluginId, long durationMs) {
+        if (pluginId == null) return;
+        ewmaMs.merge(pluginId, (double) durationMs, (old, sample) -> old + ALPHA * (sample - old));
+        recent.computeIfAbsent(pluginId, k -> new Window()).add(durationMs);
+    }
+
+    /**
+     * @return 95th percentile of the recent durations in ms, or -1 with fewer than minSamples recorded
+     */
+    public long p95Ms(String pluginId, int minSamples) {
+        if (pluginId == null) return -1;
+        Window w = recent.get(pluginId);
+        return w == null ? -1 : w.percentile(0.95, Math.max(1, minSamples));
+    }
+
+    /**
+     * @return average duration in ms, or -1 when nothing has been recorded for this plugin
+     */
+    public long expectedDurationMs(String pluginId) {
+        if (pluginId == null) return -1;
+        Double v = ewmaMs.get(pluginId);
+        return v == null ? -1 : Math.round(v);
+    }
+
+    private static final class Window {
+        private final long[] samples = new long[WINDOW];
+        private int count;
+        private int next;
+
+        synchronized void add(long v) {
+            samples[next] = v;
+            next = (next + 1) % WINDOW;
+            if (count < WINDOW) count++;
+        }
+
+        synchronized long percentile(double p, int minSamples) {
+            if (count < minSamples) return -1;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(count - 1, Math.ceil(p * count) - 1)];
+        }
+    }
+}
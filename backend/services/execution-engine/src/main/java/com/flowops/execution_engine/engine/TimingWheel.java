@@ -0,0 +1,210 @@
+package com.flowops.execution_engine.engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical timing wheel for step deadlines (timeouts, straggler checks).
+ *
+ * One wheel of engine.timer.wheel-size buckets of engine.timer.tick-ms each; deadlines beyond its
+ * span go to lazily created overflow wheels whose tick is the span of the wheel below. Scheduling and
+ * cancelling are O(1), so 100k in-flight deadlines cost one small object each instead of one
+ * scheduled task each. Only non-empty buckets are put on a DelayQueue, so the single ticker thread
+ * sleeps until the next bucket is due; when a bucket expires its entries either fire or cascade
+ * into a finer wheel. A task fires up to one tick late, never early.
+ *
+ * Expired tasks run on virtual threads so a slow task (e.g. a plugin's stop()) cannot hold up the ticker.
+ */
+@Component
+public class TimingWheel {
+
+    private static final Logger log = LoggerFactory.getLogger(TimingWheel.class);
+
+    /** Handle returned by schedule(); cancel() when the guarded work finishes first. */
+    public static final class Timeout {
+        private final long deadlineMs;
+        private final Runnable task;
+        private volatile Bucket bucket;
+        private volatile boolean cancelled;
+
+        private Timeout(long deadlineMs, Runnable task) {
+            this.deadlineMs = deadlineMs;
+            this.task = task;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            Bucket b = bucket;
+            if (b != null) b.remove(this);
+        }
+
+        public boolean isCancelled() { return cancelled; }
+    }
+
+    private static final class Bucket implements Delayed {
+        private final Set<Timeout> entries = ConcurrentHashMap.newKeySet();
+        private final AtomicLong expiration = new AtomicLong(-1);
+
+        void add(Timeout t) {
+            t.bucket = this;
+            entries.add(t);
+        }
+
+        void remove(Timeout t) {
+            if (entries.remove(t)) t.bucket = null;
+        }
+
+        /** @return true if the expiration changed, i.e. the bucket must be (re)queued */
+        boolean setExpiration(long ms) { return expiration.getAndSet(ms) != ms; }
+
+        long getExpiration() { return expiration.get(); }
+
+        List<Timeout> drain() {
+            List<Timeout> out = new ArrayList<>(entries);
+            for (Timeout t : out) remove(t);
+            expiration.set(-1);
+            return out;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(Math.max(0, expiration.get() - nowMs()), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(expiration.get(), ((Bucket) o).expiration.get());
+        }
+    }
+
+    private final class Level {
+        final long tickMs;
+        final int size;
+        final long interval;
+        final Bucket[] buckets;
+        long currentTime;
+        Level overflow;
+
+        Level(long tickMs, int size, long startMs) {
+            this.tickMs = tickMs;
+            this.size = size;
+            this.interval = tickMs * size;
+            this.buckets = new Bucket[size];
+            for (int i = 0; i < size; i++) buckets[i] = new Bucket();
+            this.currentTime = startMs - (startMs % tickMs);
+        }
+
+        /** @return false if the timeout is already due and should fire now */
+        boolean add(Timeout t) {
+            boolean finest = this == root;
+            // coarser levels hand a timeout down as soon as its tick starts; the finest fires it once past
+            if (finest ? t.deadlineMs <= currentTime : t.deadlineMs < currentTime + tickMs) return false;
+            if (t.deadlineMs < currentTime + interval) {
+                long virtualId = t.deadlineMs / tickMs;
+                Bucket b = buckets[(int) (virtualId % size)];
+                b.add(t);
+                // a finest bucket expires at the end of its tick, when all of its deadlines have passed
+                if (b.setExpiration((finest ? virtualId + 1 : virtualId) * tickMs)) queue.offer(b);
+                return true;
+            }
+            if (overflow == null) overflow = new Level(interval, size, currentTime);
+            return overflow.add(t);
+        }
+
+        void advance(long timeMs) {
+            if (timeMs >= currentTime + tickMs) {
+                currentTime = timeMs - (timeMs % tickMs);
+                if (overflow != null) overflow.advance(currentTime);
+            }
+        }
+    }
+
+    private final DelayQueue<Bucket> queue = new DelayQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Level root;
+    private final ExecutorService taskExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("timer-task-", 0).factory());
+    private final Thread ticker;
+
+    public TimingWheel(@Value("${engine.timer.tick-ms:10}") long tickMs,
+                       @Value("${engine.timer.wheel-size:512}") int wheelSize) {
+        this.root = new Level(Math.max(1, tickMs), Math.max(2, wheelSize), nowMs());
+        this.ticker = new Thread(this::tickLoop, "timing-wheel");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Run task after delayMs unless the returned Timeout is cancelled first; at once if delayMs <= 0.
+     */
+    public Timeout schedule(long delayMs, Runnable task) {
+        Timeout t = new Timeout(nowMs() + Math.max(0, delayMs), task);
+        if (delayMs <= 0) {
+            fire(t);
+            return t;
+        }
+        lock.lock();
+        try {
+            if (!root.add(t)) fire(t);
+        } finally {
+            lock.unlock();
+        }
+        return t;
+    }
+
+    private void tickLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Bucket b = queue.take();
+                lock.lock();
+                try {
+                    while (b != null) {
+                        root.advance(b.getExpiration());
+                        // re-insert: entries now due fire, the rest cascade into a finer level
+                        for (Timeout t : b.drain()) {
+                            if (!t.cancelled && !root.add(t)) fire(t);
+                        }
+                        b = queue.poll();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                log.error("Timing wheel tick failed: {}", ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private void fire(Timeout t) {
+        if (t.cancelled) return;
+        taskExecutor.execute(() -> {
+            if (t.cancelled) return;
+            try {
+                t.task.run();
+            } catch (Exception ex) {
+                log.warn("Timer task failed: {}", ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.interrupt();
+        taskExecutor.shutdownNow();
+    }
+
+    private static long nowMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,311 @@
+package com.flowops.execution_engine.engine;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flowops.common.grpc.PluginMetadata;
+import com.flowops.execution_engine.executor.Bulkhead;
+import com.flowops.execution_engine.executor.BulkheadRegistry;
+import com.flowops.execution_engine.executor.InterruptibleFuture;
+import com.flowops.execution_engine.executor.StepExecutor;
+import com.flowops.execution_engine.executor.WorkerPool;
+import com.flowops.execution_engine.grpc.PluginServiceClient;
+import com.flowops.execution_engine.kafka.StatusEventProducer;
+import com.flowops.execution_engine.model.Step;
+import com.flowops.execution_engine.persistence.redis.RedisExecutionRepository;
+import com.flowops.execution_engine.persistence.redis.RedisExecutionRepository.StealEntry;
+import com.flowops.kafka_contracts.events.StepStatusEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Optional cross-node work stealing (engine.steal.enabled).
+ *
+ * A run owner whose local backlog exceeds its free workers offers ready steps on the Redis stream
+ * flowops:steal (see ExecutionScheduler.offloadBacklog). Every node, the owner included, reads that
+ * stream through the "engine" consumer group whenever it has idle workers and no local step waiting:
+ *  1. claim the step (atomically off the run's ready set, RUNNING, recorded in the run's remote hash
+ *     under this node and offer),
+ *  2. execute it like a local step,
+ *  3. report the outcome and outputs on flowops:steal:done:{partition}, where the run owner commits
+ *     them under its lease (status, outputs, dependents, retries) exactly as for a local step,
+ *  4. XACK the offer, unless another node has reclaimed it meanwhile.
+ *
+ * The owner only accepts a report from the executor currently recorded for the step, so a node that
+ * was presumed dead and reclaimed from cannot overwrite the outcome of the node that took over.
+ *
+ * An offer read by a node that dies stays pending in the group; XAUTOCLAIM hands it to another node
+ * once idle for engine.steal.reclaim-idle-ms. Nodes keep their own executing entries fresh with XCLAIM,
+ * so long-running steps are not reclaimed while their executor is alive.
+ *
+ * A stolen step only runs if its plugin's bulkhead has a free permit right away; otherwise the offer
+ * is put back on the stream for another node.
+ */
+@Component
+class WorkStealer {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkStealer.class);
+
+    private static final int DEFINITION_CACHE_SIZE = 256;
+
+    private final RedisExecutionRepository repo;
+    private final StepExecutor stepExecutor;
+    private final PluginServiceClient pluginClient;
+    private final WorkerPool workerPool;
+    private final FairShareScheduler fairScheduler;
+    private final TimingWheel timingWheel;
+    private final StepDurationStats durationStats;
+    private final StatusEventProducer producer;
+    private final BulkheadRegistry bulkheads;
+    private final String nodeId;
+
+    private final boolean enabled;
+    private final int batch;
+    private final int minBacklog;
+    private final long pollIntervalMs;
+    private final long reclaimIdleMs;
+
+    private final ObjectMapper om = new ObjectMapper();
+    // flattened definitions of runs read from Redis; evicted least recently used
+    private final Map<String, Map<String, Step>> definitions = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, Step>> eldest) {
+                    return size() > DEFINITION_CACHE_SIZE;
+                }
+            });
+    // steal-stream entry ids executing on this node
+    private final Set<String> executing = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService loop;
+    private volatile boolean groupReady;
+    private String reclaimCursor = "0-0";
+    private long nextReclaimAt;
+
+    WorkStealer(RedisExecutionRepository repo,
+                StepExecutor stepExecutor,
+                PluginServiceClient pluginClient,
+                WorkerPool workerPool,
+                FairShareScheduler fairScheduler,
+                TimingWheel timingWheel,
+                StepDurationStats durationStats,
+                StatusEventProducer producer,
+                RunOwnership ownership,
+                BulkheadRegistry bulkheads,
+                @Value("${engine.steal.enabled:false}") boolean enabled,
+                @Value("${engine.steal.batch:64}") int batch,
+                @Value("${engine.steal.min-backlog:16}") int minBacklog,
+                @Value("${engine.steal.poll-interval-ms:100}") long pollIntervalMs,
+                @Value("${engine.steal.reclaim-idle-ms:60000}") long reclaimIdleMs) {
+        this.repo = repo;
+        this.stepExecutor = stepExecutor;
+        this.pluginClient = pluginClient;
+        this.workerPool = workerPool;
+        this.fairScheduler = fairScheduler;
+        this.timingWheel = timingWheel;
+        this.durationStats = durationStats;
+        this.producer = producer;
+        this.bulkheads = bulkheads;
+        this.nodeId = ownership.nodeId();
+        this.enabled = enabled;
+        this.batch = Math.max(1, batch);
+        this.minBacklog = Math.max(0, minBacklog);
+        this.pollIntervalMs = Math.max(10, pollIntervalMs);
+        this.reclaimIdleMs = Math.max(1000, reclaimIdleMs);
+        this.loop = enabled ? Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "work-stealer")) : null;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (loop == null) return;
+        loop.scheduleWithFixedDelay(this::stealOnce, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+        long touchMs = reclaimIdleMs / 3;
+        loop.scheduleWithFixedDelay(this::touchExecuting, touchMs, touchMs, TimeUnit.MILLISECONDS);
+        log.info("Work stealing enabled: batch={} minBacklog={} reclaimIdleMs={}", batch, minBacklog, reclaimIdleMs);
+    }
+
+    boolean isEnabled() { return enabled; }
+    int batch() { return batch; }
+    int minBacklog() { return minBacklog; }
+    long pollIntervalMs() { return pollIntervalMs; }
+
+    private void stealOnce() {
+        try {
+            if (!groupReady) {
+                repo.ensureStealGroup();
+                groupReady = true;
+            }
+            int slots = fairScheduler.reserveIdle(batch);
+            if (slots == 0) return;
+            int used = 0;
+            try {
+                List<StealEntry> entries = new ArrayList<>();
+                long now = System.currentTimeMillis();
+                if (now >= nextReclaimAt) {
+                    reclaimCursor = repo.reclaimStealableSteps(nodeId, reclaimIdleMs, reclaimCursor, slots, entries);
+                    if ("0-0".equals(reclaimCursor)) nextReclaimAt = now + reclaimIdleMs / 2;
+                }
+                int reclaimed = entries.size();
+                if (reclaimed < slots) entries.addAll(repo.readStealableSteps(nodeId, slots - reclaimed));
+                for (int i = 0; i < entries.size(); i++) {
+                    if (execute(entries.get(i), i < reclaimed)) used++;
+                }
+            } finally {
+                fairScheduler.releaseReserved(slots - used);
+            }
+        } catch (Exception ex) {
+            log.warn("Work stealing poll failed: {}", ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return true if the step was submitted (its slot is then released when it finishes)
+     */
+    private boolean execute(StealEntry e, boolean reclaimed) {
+        String[] parts = e.runKey().split(":", 2);
+        if (parts.length != 2 || e.partition() < 0) {
+            repo.ackStealableStep(nodeId, e.id());
+            return false;
+        }
+        String flowId = parts[0];
+        String runId = parts[1];
+        String stepId = e.stepId();
+        String executor = RedisExecutionRepository.stealExecutor(nodeId, e.id());
+        Bulkhead bulkhead = null;
+        boolean submitted = false;
+        try {
+            Step step = definition(flowId, runId).get(stepId);
+            if (step != null) {
+                bulkhead = bulkheads.forPlugin(step.getPluginId());
+                if (!bulkhead.tryEnterNow()) {
+                    // no room for this plugin here; leave it to another node
+                    bulkhead = null;
+                    repo.offerStealableStep(e.runKey(), stepId, e.partition());
+                    repo.ackStealableStep(nodeId, e.id());
+                    return false;
+                }
+            }
+            boolean claimed = reclaimed
+                    ? repo.adoptRemoteStep(flowId, runId, stepId, executor)
+                    : repo.claimReadyStep(flowId, runId, stepId, executor);
+            if (!claimed) {
+                // taken back by its owner, finished, or the run is gone
+                repo.ackStealableStep(nodeId, e.id());
+                return false;
+            }
+            if (step == null) {
+                repo.reportStolenResult(e.partition(), e.runKey(), stepId, executor, false, null,
+                        "Flow definition not found for stolen step");
+                repo.ackStealableStep(nodeId, e.id());
+                return false;
+            }
+            if (reclaimed) log.info("Reclaimed step {} of {} from a dead node", stepId, e.runKey());
+            producer.sendStepStatus(flowId, runId, stepId, StepStatusEvent.Status.RUNNING, null);
+
+            PluginMetadata metadata = null;
+            try {
+                metadata = pluginClient.getMetadata(step.getPluginId(), null);
+            } catch (Exception ex) {
+                log.warn("Failed to fetch plugin metadata for stolen step {}: {}", stepId, ex.getMessage());
+            }
+            StepExecutor.Execution execution = stepExecutor.createExecutionCallable(step, flowId, runId, metadata);
+            long timeoutMs = step.configLong("timeoutMs", 0);
+            AtomicBoolean timedOut = new AtomicBoolean(false);
+            AtomicReference<Future<?>> futureRef = new AtomicReference<>();
+            Callable<Map<String, Object>> callable = () -> {
+                long t0 = System.nanoTime();
+                TimingWheel.Timeout deadline = timeoutMs > 0
+                        ? timingWheel.schedule(timeoutMs, () -> {
+                            Future<?> f = futureRef.get();
+                            if (f == null || !f.isDone()) {
+                                timedOut.set(true);
+                                // with no future yet, the submitting thread cancels it once it has one
+                                if (f != null && f.cancel(true)) execution.stop();
+                            }
+                        })
+                        : null;
+                try {
+                    Map<String, Object> out = execution.call();
+                    durationStats.record(step.getPluginId(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+                    return out;
+                } finally {
+                    if (deadline != null) deadline.cancel();
+                }
+            };
+            executing.add(e.id());
+            InterruptibleFuture<Map<String, Object>> future = workerPool.submit(callable);
+            futureRef.set(future);
+            // the deadline may have fired before the future was published
+            if (timedOut.get() && future.cancel(true)) execution.stop();
+            Bulkhead held = bulkhead;
+            // permit and reserved slot are returned only once the plugin has really stopped
+            future.whenExitedAsync((outputs, err) -> {
+                held.exit();
+                finish(e, executor, outputs, err, timedOut.get() ? "Step timed out after " + timeoutMs + " ms" : null);
+            }, Runnable::run);
+            submitted = true;
+            return true;
+        } catch (Exception ex) {
+            // left pending: reclaimed by some node after reclaim-idle-ms
+            executing.remove(e.id());
+            log.error("Failed to execute stolen step {} of {}: {}", stepId, e.runKey(), ex.getMessage(), ex);
+            return false;
+        } finally {
+            if (!submitted && bulkhead != null) bulkhead.exit();
+        }
+    }
+
+    private void finish(StealEntry e, String executor, Map<String, Object> outputs, Throwable err, String timeoutReason) {
+        try {
+            if (err == null) {
+                // outputs travel with the report: only the owner writes them, fenced by its lease
+                repo.reportStolenResult(e.partition(), e.runKey(), e.stepId(), executor, true, outputs, null);
+            } else {
+                Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                String msg = timeoutReason != null ? timeoutReason
+                        : cause instanceof CancellationException ? "Cancelled" : cause.getMessage();
+                repo.reportStolenResult(e.partition(), e.runKey(), e.stepId(), executor, false, null, msg);
+            }
+            repo.ackStealableStep(nodeId, e.id());
+        } catch (Exception ex) {
+            // not acknowledged: another node reclaims and re-executes the step
+            log.error("Failed to report stolen step {} of {}: {}", e.stepId(), e.runKey(), ex.getMessage(), ex);
+        } finally {
+            executing.remove(e.id());
+            fairScheduler.releaseReserved(1);
+        }
+    }
+
+    private void touchExecuting() {
+        try {
+            repo.touchStealableSteps(nodeId, new ArrayList<>(executing));
+        } catch (Exception ex) {
+            log.warn("Failed to refresh stolen steps: {}", ex.getMessage());
+        }
+    }
+
+    private Map<String, Step> definition(String flowId, String runId) throws JsonProcessingException {
+        String rk = flowId + ":" + runId;
+        Map<String, Step> def = definitions.get(rk);
+        if (def != null) return def;
+        Optional<String> json = repo.getFlowDefinition(flowId, runId);
+        if (json.isEmpty()) return Collections.emptyMap();
+        def = om.readValue(json.get(), om.getTypeFactory().constructMapType(Map.class, String.class, Step.class));
+        definitions.put(rk, def);
+        return def;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // entries still executing stay pending and are reclaimed by other nodes
+        if (loop != null) loop.shutdownNow();
+    }
+}
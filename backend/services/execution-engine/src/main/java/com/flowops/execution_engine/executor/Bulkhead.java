@@ -0,0 +1,129 @@
+package com.flowops.execution_engine.executor;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * Concurrency compartment for the steps of one plugin (or plugin group) on the shared WorkerPool.
+ *
+ * At most maxConcurrent steps of the compartment execute at once. A step arriving while it is full
+ * waits in the compartment's own bounded queue, not on a worker: the caller gets QUEUED and gives its
+ * worker slot back. A freed permit is handed straight to the oldest waiter, whose callback takes it
+ * over (and must then exit() once); a waiter that can no longer use it declines and the permit moves
+ * on to the next one, so a permit is never left free while steps wait. Once the queue is full too the
+ * step is REJECTED and the caller applies the rejection policy. Waiters of a run that leaves the node
+ * are dropped with purge().
+ *
+ * So a plugin that hangs or slows down can hold at most maxConcurrent workers; everything else
+ * keeps running.
+ */
+public final class Bulkhead {
+
+    public enum Admission { ENTERED, QUEUED, REJECTED }
+
+    public enum RejectionPolicy {
+        /** fail the step (its retryCount still applies) */
+        FAIL,
+        /** put the step back on the retry delay queue without counting an attempt */
+        DEFER
+    }
+
+    private final String name;
+    private final IntSupplier maxConcurrent;
+    private final int maxQueue;
+
+    private record Waiter(Object owner, BooleanSupplier onPermit) {}
+
+    private int active;                                        // guarded by this
+    private final ArrayDeque<Waiter> waiting = new ArrayDeque<>(); // guarded by this
+
+    private final LongAdder entered = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    Bulkhead(String name, IntSupplier maxConcurrent, int maxQueue) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+    }
+
+    /**
+     * Take a permit, or wait in the queue, or reject. ENTERED must be paired with exactly one exit().
+     *
+     * A queued caller's onPermit runs (on the thread of the exit() that freed the permit) holding the
+     * permit: it returns true to keep it, which again must be paired with one exit(), or false to pass
+     * it on to the next waiter.
+     *
+     * @param owner what the waiter belongs to, for purge()
+     */
+    public Admission tryEnter(Object owner, BooleanSupplier onPermit) {
+        synchronized (this) {
+            if (active < maxConcurrent.getAsInt()) {
+                active++;
+                entered.increment();
+                return Admission.ENTERED;
+            }
+            if (waiting.size() < maxQueue) {
+                waiting.addLast(new Waiter(owner, onPermit));
+                queued.increment();
+                return Admission.QUEUED;
+            }
+        }
+        rejected.increment();
+        return Admission.REJECTED;
+    }
+
+    /**
+     * Take a permit only if one is free right now.
+     */
+    public synchronized boolean tryEnterNow() {
+        if (active >= maxConcurrent.getAsInt()) return false;
+        active++;
+        entered.increment();
+        return true;
+    }
+
+    /**
+     * Return a permit: it goes to the first waiter that takes it, or back to the pool.
+     */
+    public void exit() {
+        while (true) {
+            Waiter next;
+            synchronized (this) {
+                // after a shrink the permit is dropped rather than handed over
+                if (waiting.isEmpty() || active > maxConcurrent.getAsInt()) {
+                    active = Math.max(0, active - 1);
+                    return;
+                }
+                next = waiting.pollFirst();
+            }
+            if (next.onPermit().getAsBoolean()) {
+                entered.increment();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drop the waiters of an owner that will not run here any more.
+     *
+     * @return the number dropped
+     */
+    public synchronized int purge(Object owner) {
+        int before = waiting.size();
+        waiting.removeIf(w -> Objects.equals(w.owner(), owner));
+        return before - waiting.size();
+    }
+
+    public String name() { return name; }
+    public synchronized int active() { return active; }
+    public synchronized int queued() { return waiting.size(); }
+    public int maxConcurrent() { return maxConcurrent.getAsInt(); }
+    public int maxQueue() { return maxQueue; }
+    public long enteredCount() { return entered.sum(); }
+    public long queuedCount() { return queued.sum(); }
+    public long rejectedCount() { return rejected.sum(); }
+}
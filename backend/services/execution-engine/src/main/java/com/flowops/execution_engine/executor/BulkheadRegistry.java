@@ -0,0 +1,122 @@
+package com.flowops.execution_engine.executor;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * One Bulkhead per pluginId, or per plugin group (engine.bulkhead.*):
+ *  - groups        : "pluginA:io,pluginB:io" puts plugins in a shared compartment; others get their own
+ *  - max-concurrent-share: default permits as a fraction of the worker pool size (follows pool resizing)
+ *  - limits        : "pluginA:4,io:16" fixed permits per plugin or group
+ *  - max-queue     : steps that may wait per compartment before rejection
+ *  - rejection     : fail | defer, what happens to a rejected step
+ *
+ * Each compartment publishes engine.bulkhead.active / .queued gauges and .entered / .waited /
+ * .rejected counters, tagged with bulkhead=<name>.
+ */
+@Component
+public class BulkheadRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkheadRegistry.class);
+
+    private static final String DEFAULT_KEY = "default";
+
+    private final WorkerPool workerPool;
+    private final MeterRegistry meters;
+    private final boolean enabled;
+    private final double share;
+    private final int maxQueue;
+    private final Bulkhead.RejectionPolicy rejection;
+    private final long deferMs;
+    private final Map<String, String> groups;
+    private final Map<String, Integer> limits;
+
+    private final ConcurrentMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+    // used when bulkheads are disabled or the step has no plugin
+    private final Bulkhead unbounded = new Bulkhead("unbounded", () -> Integer.MAX_VALUE, 0);
+
+    public BulkheadRegistry(WorkerPool workerPool,
+                            MeterRegistry meters,
+                            @Value("${engine.bulkhead.enabled:true}") boolean enabled,
+                            @Value("${engine.bulkhead.max-concurrent-share:0.5}") double share,
+                            @Value("${engine.bulkhead.max-queue:1000}") int maxQueue,
+                            @Value("${engine.bulkhead.rejection:defer}") String rejection,
+                            @Value("${engine.bulkhead.defer-ms:1000}") long deferMs,
+                            @Value("${engine.bulkhead.groups:}") String groups,
+                            @Value("${engine.bulkhead.limits:}") String limits) {
+        this.workerPool = workerPool;
+        this.meters = meters;
+        this.enabled = enabled;
+        this.share = share <= 0 || share > 1 ? 0.5 : share;
+        this.maxQueue = Math.max(0, maxQueue);
+        this.rejection = Bulkhead.RejectionPolicy.valueOf(rejection.trim().toUpperCase());
+        this.deferMs = Math.max(0, deferMs);
+        this.groups = parsePairs(groups);
+        this.limits = new HashMap<>();
+        parsePairs(limits).forEach((k, v) -> {
+            try {
+                this.limits.put(k, Math.max(1, Integer.parseInt(v)));
+            } catch (NumberFormatException ex) {
+                log.warn("Ignoring invalid bulkhead limit '{}:{}'", k, v);
+            }
+        });
+        log.info("Plugin bulkheads: enabled={} share={} maxQueue={} rejection={} groups={} limits={}",
+                enabled, this.share, this.maxQueue, this.rejection, this.groups, this.limits);
+    }
+
+    /**
+     * Compartment for the plugin's steps, created on first use.
+     */
+    public Bulkhead forPlugin(String pluginId) {
+        if (!enabled) return unbounded;
+        String key = pluginId == null || pluginId.isBlank() ? DEFAULT_KEY : groups.getOrDefault(pluginId, pluginId);
+        return bulkheads.computeIfAbsent(key, this::create);
+    }
+
+    public Bulkhead.RejectionPolicy rejectionPolicy() { return rejection; }
+
+    /**
+     * Drop the waiters of an owner (a run leaving the node) from every compartment.
+     */
+    public void purge(Object owner) {
+        bulkheads.values().forEach(b -> b.purge(owner));
+    }
+    public long deferMs() { return deferMs; }
+
+    private Bulkhead create(String key) {
+        Integer fixed = limits.get(key);
+        Bulkhead b = new Bulkhead(key,
+                fixed != null ? () -> fixed : () -> Math.max(1, (int) Math.ceil(workerPool.getMaxConcurrency() * share)),
+                maxQueue);
+        Gauge.builder("engine.bulkhead.active", b, Bulkhead::active).tag("bulkhead", key)
+                .description("Steps executing in the bulkhead").register(meters);
+        Gauge.builder("engine.bulkhead.queued", b, Bulkhead::queued).tag("bulkhead", key)
+                .description("Steps waiting for a bulkhead permit").register(meters);
+        Gauge.builder("engine.bulkhead.limit", b, Bulkhead::maxConcurrent).tag("bulkhead", key)
+                .description("Bulkhead permits").register(meters);
+        FunctionCounter.builder("engine.bulkhead.entered", b, Bulkhead::enteredCount).tag("bulkhead", key).register(meters);
+        FunctionCounter.builder("engine.bulkhead.waited", b, Bulkhead::queuedCount).tag("bulkhead", key).register(meters);
+        FunctionCounter.builder("engine.bulkhead.rejected", b, Bulkhead::rejectedCount).tag("bulkhead", key).register(meters);
+        return b;
+    }
+
+    private static Map<String, String> parsePairs(String raw) {
+        Map<String, String> out = new HashMap<>();
+        if (raw == null || raw.isBlank()) return out;
+        for (String pair : raw.split(",")) {
+            String[] kv = pair.trim().split(":", 2);
+            if (kv.length == 2 && !kv[0].isBlank()) out.put(kv[0].trim(), kv[1].trim());
+        }
+        return out;
+    }
+}
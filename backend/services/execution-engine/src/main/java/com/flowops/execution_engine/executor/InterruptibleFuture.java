@@ -0,0 +1,61 @@
+package com.flowops.execution_engine.executor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * CompletableFuture view of a task running on the WorkerPool.
+ *
+ * A plain CompletableFuture does not interrupt anything on cancel; this one forwards
+ * cancel(true) to the underlying task so the worker thread executing the plugin is interrupted,
+ * while callers can still attach non-blocking continuations (whenCompleteAsync etc.).
+ *
+ * Cancelling completes the future at once, but a plugin that ignores the interrupt keeps running.
+ * Whatever the task holds (a worker slot, a bulkhead permit) must therefore be released from
+ * whenExitedAsync(), which runs only once the task has actually returned or never started.
+ */
+public class InterruptibleFuture<T> extends CompletableFuture<T> {
+
+    private static final int NEW = 0, STARTED = 1, ABANDONED = 2;
+
+    private volatile Future<?> task;
+    private final AtomicInteger state = new AtomicInteger(NEW);
+    private final CompletableFuture<Void> exited = new CompletableFuture<>();
+
+    void bind(Future<?> task) {
+        this.task = task;
+        // cancelled before the task was bound: propagate now
+        if (isCancelled()) task.cancel(true);
+    }
+
+    /** Called by the worker before running the task; false if it was cancelled before it started. */
+    boolean start() {
+        return state.compareAndSet(NEW, STARTED);
+    }
+
+    /** Called by the worker once the task has returned or thrown, after this future was completed. */
+    void markExited() {
+        exited.complete(null);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        Future<?> t = task;
+        if (t != null) t.cancel(mayInterruptIfRunning);
+        // never started, and now never will
+        if (state.compareAndSet(NEW, ABANDONED)) exited.complete(null);
+        return cancelled;
+    }
+
+    /**
+     * Like whenCompleteAsync, but the action runs once the task has also stopped executing, with the
+     * outcome this future completed with (a CancellationException if it was cancelled).
+     */
+    public void whenExitedAsync(BiConsumer<? super T, ? super Throwable> action, Executor executor) {
+        exited.thenRunAsync(() -> whenComplete(action), executor);
+    }
+}
@@ -0,0 +1,102 @@
+package com.flowops.execution_engine.executor;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.flowops.common.grpc.PluginMetadata;
+import com.flowops.execution_engine.persistence.redis.RedisExecutionRepository;
+import com.flowops.execution_engine.persistence.redis.RedisKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Output cache for deterministic plugins, shared by all engine nodes through Redis.
+ *
+ * Plugins listed in engine.memo.plugins are treated as pure functions of their inputs: outputs are
+ * stored under (pluginId, plugin metadata id, SHA-256 of the resolved inputs) and a later execution
+ * with the same key returns them without loading or running the plugin. Entries expire after
+ * engine.memo.ttl-ms and at most engine.memo.max-entries are kept per plugin, oldest evicted first.
+ * Each plugin's entries share one Redis hash tag, so the cache spreads over the cluster by plugin.
+ * Plugins without a metadata id are never memoized, since their code can change under the same key.
+ *
+ * Cache failures are logged and treated as misses; they never fail a step.
+ */
+@Component
+public class OutputMemo {
+
+    private static final Logger log = LoggerFactory.getLogger(OutputMemo.class);
+
+    private final RedisExecutionRepository repo;
+    private final Set<String> plugins;
+    private final long ttlMs;
+    private final long maxEntries;
+    // sorted map keys, so equal inputs always hash the same
+    private final ObjectMapper canonical = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    public OutputMemo(RedisExecutionRepository repo,
+                      @Value("${engine.memo.plugins:}") String plugins,
+                      @Value("${engine.memo.ttl-ms:86400000}") long ttlMs,
+                      @Value("${engine.memo.max-entries:100000}") long maxEntries) {
+        this.repo = repo;
+        this.plugins = Arrays.stream(plugins.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        this.ttlMs = Math.max(1, ttlMs);
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /** Cache entry of one execution: the plugin (whose index bounds it) and the entry's Redis key. */
+    public record Key(String pluginId, String entry) {}
+
+    /**
+     * @return the cache key for this execution, or null if the plugin is not memoized
+     */
+    public Key keyFor(String pluginId, PluginMetadata metadata, Map<String, Object> resolvedInputs) {
+        if (!plugins.contains(pluginId) || metadata == null || metadata.getId() == null || metadata.getId().isEmpty()) {
+            return null;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(canonical.writeValueAsString(resolvedInputs).getBytes(StandardCharsets.UTF_8));
+            return new Key(pluginId, RedisKeys.memoEntry(pluginId, metadata.getId(), HexFormat.of().formatHex(digest)));
+        } catch (JsonProcessingException | NoSuchAlgorithmException ex) {
+            log.warn("Cannot hash inputs of plugin {}; not memoizing: {}", pluginId, ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return memoized outputs, or null on a miss
+     */
+    public Map<String, Object> get(Key key) {
+        try {
+            String json = repo.getMemoizedOutputs(key.entry());
+            return json == null ? null : canonical.readValue(json, new TypeReference<Map<String, Object>>() {});
+        } catch (Exception ex) {
+            log.warn("Memo lookup failed for {}: {}", key.entry(), ex.getMessage());
+            return null;
+        }
+    }
+
+    public void put(Key key, Map<String, Object> outputs) {
+        try {
+            repo.putMemoizedOutputs(key.pluginId(), key.entry(),
+                    canonical.writeValueAsString(outputs == null ? Map.of() : outputs), ttlMs, maxEntries);
+        } catch (Exception ex) {
+            log.warn("Memo store failed for {}: {}", key.entry(), ex.getMessage());
+        }
+    }
+}
@@ -27,7 +27,12 @@ import java.util.jar.JarFile;
  * StepExecutor that provides a Callable factory for executing plugin tasks.
  *
  * The returned Callable runs the plugin in the worker thread (no internal thread spawn).
- * Future.cancel(true) will interrupt that thread (best-effort cancellation).
+ * Future.cancel(true) will interrupt that thread (best-effort cancellation); Execution.stop()
+ * additionally asks the live plugin instance to stop (used on timeouts).
+ *
+ * Plugins with a version id are fetched and loaded once and kept loaded (up to 64 versions), so
+ * repeated executions skip the jar download and class scan.
+ * Deterministic plugins (OutputMemo) return memoized outputs for inputs they have seen before.
  */
 @Component
 public class StepExecutor {
@@ -37,12 +42,32 @@ public class StepExecutor {
     private final PluginServiceClient pluginClient;
     private final JarCache jarCache;
     private final RedisExecutionRepository redisRepo;
+    private final OutputMemo memo;
     private final ObjectMapper om = new ObjectMapper();
 
-    public StepExecutor(PluginServiceClient pluginClient, JarCache jarCache, RedisExecutionRepository redisRepo) {
+    private static final int LOADED_PLUGIN_CACHE_SIZE = 64;
+
+    private record LoadedPlugin(URLClassLoader loader, Class<?> taskClass) {}
+
+    // "pluginId:version" -> loaded task class; least recently used evicted. Guarded by itself.
+    private final Map<String, LoadedPlugin> loadedPlugins = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LoadedPlugin> eldest) {
+            if (size() <= LOADED_PLUGIN_CACHE_SIZE) return false;
+            try {
+                eldest.getValue().loader().close();
+            } catch (IOException ex) {
+                log.debug("Closing plugin class loader {} failed: {}", eldest.getKey(), ex.getMessage());
+            }
+            return true;
+        }
+    };
+
+    public StepExecutor(PluginServiceClient pluginClient, JarCache jarCache, RedisExecutionRepository redisRepo, OutputMemo memo) {
         this.pluginClient = pluginClient;
         this.jarCache = jarCache;
         this.redisRepo = redisRepo;
+        this.memo = memo;
     }
 
     /**
@@ -56,8 +81,49 @@ public class StepExecutor {
      *  - invokes start() on the task instance (in current thread)
      *  - on completion/interrupt collects outputs and returns them
      */
-    public Callable<Map<String, Object>> createExecutionCallable(Step step, String flowId, String runId, PluginMetadata providedMetadata) {
-        return () -> {
+    public Execution createExecutionCallable(Step step, String flowId, String runId, PluginMetadata providedMetadata) {
+        return new Execution(step, flowId, runId, providedMetadata, Collections.emptyMap());
+    }
+
+    /**
+     * Same, with some inputs given directly as JSON values instead of the step's input mapping
+     * (the item of a map step).
+     */
+    public Execution createExecutionCallable(Step step, String flowId, String runId, PluginMetadata providedMetadata,
+                                             Map<String, String> jsonInputs) {
+        return new Execution(step, flowId, runId, providedMetadata, jsonInputs);
+    }
+
+    /**
+     * One execution of a step. Runs the plugin in the calling thread; stop() can be invoked from
+     * another thread to call stop() on the plugin instance once it has been created.
+     */
+    public final class Execution implements Callable<Map<String, Object>> {
+        private final Step step;
+        private final String flowId;
+        private final String runId;
+        private final PluginMetadata providedMetadata;
+        private final Map<String, String> jsonInputs;
+        private volatile Object taskInstance;
+
+        private Execution(Step step, String flowId, String runId, PluginMetadata providedMetadata, Map<String, String> jsonInputs) {
+            this.step = step;
+            this.flowId = flowId;
+            this.runId = runId;
+            this.providedMetadata = providedMetadata;
+            this.jsonInputs = jsonInputs;
+        }
+
+        /**
+         * Best-effort: ask the running plugin instance to stop. No-op before it was instantiated.
+         */
+        public void stop() {
+            Object instance = taskInstance;
+            if (instance != null) callStopIfPresent(instance);
+        }
+
+        @Override
+        public Map<String, Object> call() throws Exception {
             String pluginId = step.getPluginId();
             if (pluginId == null || pluginId.isBlank()) {
                 throw new IllegalArgumentException("Step missing pluginId: " + step.getStepId());
@@ -74,35 +140,41 @@ public class StepExecutor {
                 }
             }
 
-            // 2) jar bytes and caching
-            byte[] jarBytes = null;
-            Path jarPath;
-            try {
-                if (metadata != null && metadata.getId() != null && !metadata.getId().isEmpty()) {
-                    jarBytes = pluginClient.getJarBytes(pluginId, metadata.getId());
-                    jarPath = jarCache.getOrWriteJar(pluginId, metadata.getId(), jarBytes);
-                } else {
-                    // fallback: try to fetch without id
-                    jarBytes = pluginClient.getJarBytes(pluginId, "");
-                    jarPath = jarCache.getOrWriteJar(pluginId, "latest", jarBytes);
+            // 2) resolve inputs (reads redis context)
+            Map<String, Object> resolvedInputs = resolveInputs(step, flowId, runId, metadata);
+            for (Map.Entry<String, String> e : jsonInputs.entrySet()) {
+                PluginIO io = findPluginInput(metadata, e.getKey());
+                resolvedInputs.put(e.getKey(), io == null ? om.readValue(e.getValue(), Object.class) : convertJsonToType(e.getValue(), io.getType()));
+            }
+
+            // 3) deterministic plugins: same version + same inputs -> memoized outputs, nothing is loaded or run
+            OutputMemo.Key memoKey = memo.keyFor(pluginId, metadata, resolvedInputs);
+            if (memoKey != null) {
+                Map<String, Object> memoized = memo.get(memoKey);
+                if (memoized != null) {
+                    log.debug("Step {} served from memoized outputs of {}", step.getStepId(), pluginId);
+                    return memoized;
                 }
-            } catch (Exception ex) {
-                log.error("Failed to fetch or cache plugin jar for {}: {}", pluginId, ex.getMessage(), ex);
-                throw new RuntimeException("Cannot load plugin jar: " + ex.getMessage(), ex);
             }
 
-            // 3) load class and instantiate task
-            Object taskInstance;
-            Class<?> taskClass;
-            try (URLClassLoader loader = new URLClassLoader(new URL[]{jarPath.toUri().toURL()}, this.getClass().getClassLoader())) {
-                taskClass = findTaskClassInJar(jarPath, loader);
+            // 4) task class: a plugin version is fetched and loaded once, then kept; without a
+            // version id the jar is fetched and loaded for this execution only
+            String version = metadata != null && metadata.getId() != null && !metadata.getId().isEmpty() ? metadata.getId() : null;
+            URLClassLoader ownLoader = null;
+            try {
+                Class<?> taskClass;
+                if (version != null) {
+                    taskClass = loadedTaskClass(pluginId, version);
+                } else {
+                    Path jarPath = fetchJar(pluginId, null);
+                    ownLoader = new URLClassLoader(new URL[]{jarPath.toUri().toURL()}, StepExecutor.this.getClass().getClassLoader());
+                    taskClass = findTaskClassInJar(jarPath, ownLoader);
+                }
                 if (taskClass == null) {
                     throw new IllegalStateException("No Task implementation (BaseTask) found in plugin jar: " + pluginId);
                 }
-                taskInstance = taskClass.getDeclaredConstructor().newInstance();
-
-                // 4) resolve inputs (reads redis context)
-                Map<String, Object> resolvedInputs = resolveInputs(step, flowId, runId, metadata);
+                Object taskInstance = taskClass.getDeclaredConstructor().newInstance();
+                this.taskInstance = taskInstance;
 
                 // 5) inject inputs into task instance
                 injectInputs(taskInstance, resolvedInputs);
@@ -126,20 +198,64 @@ public class StepExecutor {
 
                 // 7) after normal completion collect outputs
                 Map<String, Object> outputs = collectOutputs(taskInstance, metadata);
+                if (memoKey != null) memo.put(memoKey, outputs);
                 return outputs;
 
             } catch (IOException ioe) {
                 throw new RuntimeException("Failed to load plugin jar: " + ioe.getMessage(), ioe);
             } finally {
                 // Note: if thread was interrupted while start() running, we cannot forcibly stop it here.
-                // Best-effort: if interrupted flag set after return, try calling stop() on instance (not guaranteed)
-                // but since 'taskInstance' scope ends here, we attempt nothing further.
+                // Callers that need to stop a hung plugin (timeouts) use Execution.stop() from another thread.
+                if (ownLoader != null) {
+                    try { ownLoader.close(); } catch (IOException ignored) { }
+                }
             }
-        };
+        }
     }
 
     // -------------------- Helper methods --------------------
 
+    /**
+     * Fetch the plugin jar into the JarCache.
+     */
+    private Path fetchJar(String pluginId, String version) {
+        try {
+            byte[] jarBytes = pluginClient.getJarBytes(pluginId, version == null ? "" : version);
+            return jarCache.getOrWriteJar(pluginId, version == null ? "latest" : version, jarBytes);
+        } catch (Exception ex) {
+            log.error("Failed to fetch or cache plugin jar for {}: {}", pluginId, ex.getMessage(), ex);
+            throw new RuntimeException("Cannot load plugin jar: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Task class of a plugin version, loaded on first use. The class loader stays open while cached
+     * and is closed on eviction.
+     */
+    private Class<?> loadedTaskClass(String pluginId, String version) throws IOException {
+        String key = pluginId + ":" + version;
+        synchronized (loadedPlugins) {
+            LoadedPlugin cached = loadedPlugins.get(key);
+            if (cached != null) return cached.taskClass();
+        }
+        Path jarPath = fetchJar(pluginId, version);
+        URLClassLoader loader = new URLClassLoader(new URL[]{jarPath.toUri().toURL()}, getClass().getClassLoader());
+        Class<?> taskClass = findTaskClassInJar(jarPath, loader);
+        if (taskClass == null) {
+            loader.close();
+            return null;
+        }
+        synchronized (loadedPlugins) {
+            LoadedPlugin raced = loadedPlugins.get(key);
+            if (raced != null) {
+                loader.close();
+                return raced.taskClass();
+            }
+            loadedPlugins.put(key, new LoadedPlugin(loader, taskClass));
+        }
+        return taskClass;
+    }
+
     private Class<?> findTaskClassInJar(Path jarPath, URLClassLoader loader) throws IOException {
         try (JarFile jf = new JarFile(jarPath.toFile())) {
             Enumeration<JarEntry> entries = jf.entries();
@@ -182,7 +298,12 @@ public class StepExecutor {
         Map<String, Object> resolved = new HashMap<>();
         Map<String, String> rawInputs = step.getInputs() == null ? Collections.emptyMap() : step.getInputs();
 
-        Map<String, String> ctx = redisRepo.getContext(flowId, runId);
+        // fetch only the context entries this step references
+        Set<String> refKeys = new HashSet<>();
+        for (String rawVal : rawInputs.values()) {
+            if (rawVal != null && looksLikeReference(rawVal)) refKeys.add(extractRefKey(rawVal));
+        }
+        Map<String, String> ctx = redisRepo.getContextValues(flowId, runId, refKeys);
 
         for (Map.Entry<String, String> e : rawInputs.entrySet()) {
             String inputName = e.getKey();
@@ -0,0 +1,180 @@
+package com.flowops.execution_engine.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Worker pool that runs plugin step Callables.
+ *
+ * Modes (engine.workers.mode):
+ *  - platform: pool of platform threads (default, suits CPU-bound plugins)
+ *  - virtual : one virtual thread per step, suited to I/O-bound plugins that sleep or call out
+ *
+ * engine.workers.max-concurrency is the initial cap on steps executing at once in both modes
+ * (0 = mode default); resize() changes it at runtime (see PoolSizeController). In virtual mode the
+ * cap is a semaphore acquired inside the virtual thread, so queued steps cost no platform thread and
+ * Future.cancel(true) still interrupts them whether they are waiting for a permit or running.
+ *
+ * Every step records its queue wait, service (wall) time and, on platform threads, CPU time;
+ * drainStats() hands the totals to the sizing controller.
+ *
+ * submit() returns an InterruptibleFuture so callers attach completion continuations instead of
+ * parking a second thread on Future.get(); its whenExitedAsync() tells when the task really stopped.
+ */
+@Component
+public class WorkerPool {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkerPool.class);
+
+    public enum Mode { PLATFORM, VIRTUAL }
+
+    private static final int DEFAULT_VIRTUAL_CONCURRENCY = 2000;
+
+    /** Step timings accumulated since the previous drainStats() call. */
+    public record Stats(long completed, long queueWaitNanos, long serviceNanos, long cpuSampled, long cpuNanos, long cpuServiceNanos) {}
+
+    /** Semaphore whose permit count can be lowered while permits are held. */
+    private static final class ResizableSemaphore extends Semaphore {
+        ResizableSemaphore(int permits) { super(permits); }
+        void shrink(int by) { reducePermits(by); }
+    }
+
+    private final Mode mode;
+    private volatile int maxConcurrency;
+    private final ExecutorService executor;
+    // only set in platform mode
+    private final ThreadPoolExecutor platformPool;
+    // only used in virtual mode; the platform pool is bounded by its thread count
+    private final ResizableSemaphore permits;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTimeSupported;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+    private final LongAdder cpuSampled = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+    // service time of the steps that have a CPU sample, so CPU and wall time are compared like for like
+    private final LongAdder cpuServiceNanos = new LongAdder();
+
+    public WorkerPool(@Value("${engine.workers.mode:platform}") String mode,
+                      @Value("${engine.workers.max-concurrency:0}") int maxConcurrency) {
+        this.mode = Mode.valueOf(mode.trim().toUpperCase());
+        if (this.mode == Mode.VIRTUAL) {
+            this.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : DEFAULT_VIRTUAL_CONCURRENCY;
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("step-vt-", 0).factory());
+            this.platformPool = null;
+            this.permits = new ResizableSemaphore(this.maxConcurrency);
+        } else {
+            // starting point; PoolSizeController adjusts it from the observed blocking ratio
+            this.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+            this.platformPool = new ThreadPoolExecutor(this.maxConcurrency, this.maxConcurrency,
+                    60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+            this.executor = platformPool;
+            this.permits = null;
+        }
+        boolean cpu = false;
+        try {
+            cpu = threads.isCurrentThreadCpuTimeSupported();
+            if (cpu && !threads.isThreadCpuTimeEnabled()) threads.setThreadCpuTimeEnabled(true);
+        } catch (Exception ex) {
+            log.debug("Thread CPU time unavailable: {}", ex.getMessage());
+        }
+        this.cpuTimeSupported = cpu;
+        log.info("Step worker pool: mode={} maxConcurrency={}", this.mode, this.maxConcurrency);
+    }
+
+    /**
+     * Submit a step Callable. The returned future completes with the Callable's result or exception;
+     * cancel(true) interrupts the thread running it.
+     */
+    public <T> InterruptibleFuture<T> submit(Callable<T> task) {
+        InterruptibleFuture<T> result = new InterruptibleFuture<>();
+        long submittedAt = System.nanoTime();
+        Future<?> f = executor.submit(() -> {
+            if (!result.start()) return; // cancelled while queued
+            try {
+                if (permits != null) permits.acquire();
+                try {
+                    result.complete(timed(task, submittedAt));
+                } finally {
+                    if (permits != null) permits.release();
+                }
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                result.markExited();
+            }
+        });
+        result.bind(f);
+        return result;
+    }
+
+    private <T> T timed(Callable<T> task, long submittedAt) throws Exception {
+        long start = System.nanoTime();
+        boolean sampleCpu = cpuTimeSupported && !Thread.currentThread().isVirtual();
+        long cpuStart = sampleCpu ? threads.getCurrentThreadCpuTime() : -1;
+        try {
+            return task.call();
+        } finally {
+            long end = System.nanoTime();
+            completed.increment();
+            queueWaitNanos.add(start - submittedAt);
+            serviceNanos.add(end - start);
+            if (cpuStart >= 0) {
+                long cpuEnd = threads.getCurrentThreadCpuTime();
+                if (cpuEnd >= cpuStart) {
+                    cpuSampled.increment();
+                    cpuNanos.add(cpuEnd - cpuStart);
+                    cpuServiceNanos.add(end - start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Totals since the previous call, then reset.
+     */
+    public Stats drainStats() {
+        return new Stats(completed.sumThenReset(), queueWaitNanos.sumThenReset(), serviceNanos.sumThenReset(),
+                cpuSampled.sumThenReset(), cpuNanos.sumThenReset(), cpuServiceNanos.sumThenReset());
+    }
+
+    /**
+     * Change the number of steps that may execute at once. Running steps are never interrupted;
+     * when shrinking, the pool converges as they finish.
+     */
+    public synchronized void resize(int newMax) {
+        int n = Math.max(1, newMax);
+        int old = maxConcurrency;
+        if (n == old) return;
+        if (platformPool != null) {
+            // order matters: core may never exceed max
+            if (n > old) {
+                platformPool.setMaximumPoolSize(n);
+                platformPool.setCorePoolSize(n);
+            } else {
+                platformPool.setCorePoolSize(n);
+                platformPool.setMaximumPoolSize(n);
+            }
+        } else {
+            if (n > old) permits.release(n - old);
+            else permits.shrink(old - n);
+        }
+        maxConcurrency = n;
+    }
+
+    public Mode getMode() { return mode; }
+    public int getMaxConcurrency() { return maxConcurrency; }
+
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+}
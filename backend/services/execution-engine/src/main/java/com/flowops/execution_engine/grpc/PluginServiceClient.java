@@ -9,20 +9,44 @@ import io.grpc.ManagedChannelBuilder;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * gRPC client of the plugin service. Metadata lookups are cached for
+ * pluginservice.metadata-cache-ttl-ms (0 = no cache), since every step dispatch needs them, and give
+ * up after pluginservice.metadata-deadline-ms, since dispatchers and inline steps wait for them.
+ */
 @Component
 public class PluginServiceClient {
     private final ManagedChannel channel;
     private final PluginServiceGrpc.PluginServiceBlockingStub blockingStub;
+    private final long metadataTtlMs;
+    private final long metadataDeadlineMs;
+
+    private record CachedMetadata(PluginMetadata metadata, long expiresAt) {}
+    private final ConcurrentMap<String, CachedMetadata> metadataCache = new ConcurrentHashMap<>();
 
     public PluginServiceClient(@Value("${pluginservice.host:plugin-service}") String host,
-                               @Value("${pluginservice.port:9091}") int port) {
+                               @Value("${pluginservice.port:9091}") int port,
+                               @Value("${pluginservice.metadata-cache-ttl-ms:30000}") long metadataTtlMs,
+                               @Value("${pluginservice.metadata-deadline-ms:2000}") long metadataDeadlineMs) {
         this.channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
         this.blockingStub = PluginServiceGrpc.newBlockingStub(channel);
+        this.metadataTtlMs = Math.max(0, metadataTtlMs);
+        this.metadataDeadlineMs = Math.max(1, metadataDeadlineMs);
     }
 
     public PluginMetadata getMetadata(String pluginId, String id) {
+        String key = pluginId + ":" + (id == null ? "" : id);
+        long now = System.currentTimeMillis();
+        CachedMetadata cached = metadataCache.get(key);
+        if (cached != null && cached.expiresAt() > now) return cached.metadata();
         PluginRequest req = PluginRequest.newBuilder().setPluginId(pluginId).setId(id == null ? "" : id).build();
-        return blockingStub.getPluginMetadata(req);
+        PluginMetadata metadata = blockingStub.withDeadlineAfter(metadataDeadlineMs, TimeUnit.MILLISECONDS).getPluginMetadata(req);
+        if (metadataTtlMs > 0) metadataCache.put(key, new CachedMetadata(metadata, now + metadataTtlMs));
+        return metadata;
     }
 
     public byte[] getJarBytes(String pluginId, String id) {
@@ -0,0 +1,107 @@
+package com.flowops.execution_engine.kafka;
+
+import com.flowops.execution_engine.engine.ExecutionScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control for new runs.
+ *
+ * Watches the engine load (running runs, ready steps queued in memory, worker utilisation) and stops
+ * admitting new runs when any of them crosses its limit: ExecutionCommandConsumer then holds START
+ * commands back in Redis instead of starting them, and replays them oldest first once the load has
+ * fallen to engine.admission.resume-ratio of the limits (hysteresis, so admission does not flap).
+ *
+ * Limits (0 disables one):
+ *  - max-active-runs : running runs owned by this node (paused included, failed runs are not held)
+ *  - max-queued-steps: ready steps waiting for a worker
+ *  - max-utilization : busy fraction of the workers, only counted while steps are queued
+ *
+ * Only START is gated. STOP, PAUSE, RESUME and RETRY of admitted runs are always applied, since they
+ * are what brings the load down.
+ */
+@Component
+public class CommandAdmissionController {
+
+    private static final Logger log = LoggerFactory.getLogger(CommandAdmissionController.class);
+
+    private final ExecutionScheduler scheduler;
+
+    private final int maxActiveRuns;
+    private final int maxQueuedSteps;
+    private final double maxUtilization;
+    private final double resumeRatio;
+
+    private final long checkIntervalMs;
+    private final ScheduledExecutorService checker;
+    private boolean saturated; // guarded by this
+
+    public CommandAdmissionController(ExecutionScheduler scheduler,
+                                      @Value("${engine.admission.max-active-runs:1000}") int maxActiveRuns,
+                                      @Value("${engine.admission.max-queued-steps:50000}") int maxQueuedSteps,
+                                      @Value("${engine.admission.max-utilization:0}") double maxUtilization,
+                                      @Value("${engine.admission.resume-ratio:0.8}") double resumeRatio,
+                                      @Value("${engine.admission.check-interval-ms:500}") long checkIntervalMs) {
+        this.scheduler = scheduler;
+        this.maxActiveRuns = Math.max(0, maxActiveRuns);
+        this.maxQueuedSteps = Math.max(0, maxQueuedSteps);
+        this.maxUtilization = Math.max(0, maxUtilization);
+        this.resumeRatio = resumeRatio <= 0 || resumeRatio >= 1 ? 0.8 : resumeRatio;
+        this.checkIntervalMs = Math.max(50, checkIntervalMs);
+        this.checker = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "admission-control"));
+    }
+
+    @PostConstruct
+    public void start() {
+        checker.scheduleWithFixedDelay(this::evaluate, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Re-evaluate the load now. Called periodically and after each started run.
+     */
+    public synchronized void evaluate() {
+        try {
+            int runs = scheduler.activeRunCount();
+            int queued = scheduler.queuedStepCount();
+            double utilization = scheduler.workerUtilization();
+            double pressure = Math.max(ratio(runs, maxActiveRuns), ratio(queued, maxQueuedSteps));
+            if (maxUtilization > 0 && queued > 0) pressure = Math.max(pressure, utilization / maxUtilization);
+
+            if (!saturated && pressure >= 1.0) {
+                saturated = true;
+                log.warn("Engine saturated (runs={} queuedSteps={} utilization={}); holding back new runs",
+                        runs, queued, String.format("%.2f", utilization));
+            } else if (saturated && pressure <= resumeRatio) {
+                saturated = false;
+                log.info("Engine load back to runs={} queuedSteps={} utilization={}; admitting new runs",
+                        runs, queued, String.format("%.2f", utilization));
+            }
+        } catch (Exception ex) {
+            log.warn("Admission check failed: {}", ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return false while the engine is saturated: START commands are to be held back
+     */
+    public synchronized boolean admitsStarts() {
+        return !saturated;
+    }
+
+    private static double ratio(int value, int limit) {
+        return limit <= 0 ? 0 : (double) value / limit;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        checker.shutdownNow();
+    }
+}
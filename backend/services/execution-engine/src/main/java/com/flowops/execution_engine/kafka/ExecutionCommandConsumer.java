@@ -1,48 +1,224 @@
 package com.flowops.execution_engine.kafka;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.flowops.execution_engine.engine.ExecutionScheduler;
+import com.flowops.execution_engine.persistence.redis.RedisExecutionRepository;
 import com.flowops.kafka_contracts.Topics;
 import com.flowops.kafka_contracts.events.ExecutionCommandEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies execution commands to the scheduler.
+ *
+ * While CommandAdmissionController does not admit new runs, a START is held back in Redis (per
+ * command partition, so held runs move with it on rebalance) and later commands of that run queue up
+ * behind it; a STOP drops them and is applied at once. Held runs are replayed oldest first by a
+ * background thread as soon as starts are admitted again. Commands are applied one at a time, whether
+ * they come from Kafka or from the replay.
+ *
+ * A partition holds at most engine.admission.max-held-starts runs. Past that a START is refused with
+ * HeldStartsFullException: the error handler (see KafkaConsumerConfig) pauses the partition and seeks
+ * back to it, so the rest of the partition waits in Kafka rather than in Redis. Which runs are held is
+ * tracked in memory per owned partition, rebuilt from Redis when a partition is assigned.
+ */
 @Component
 public class ExecutionCommandConsumer {
 
     private static final Logger log = LoggerFactory.getLogger(ExecutionCommandConsumer.class);
 
+    // listener container id
+    public static final String LISTENER_ID = "execution-commands";
+
     private final ObjectMapper objectMapper;
     private final ExecutionScheduler scheduler;
+    private final CommandAdmissionController admission;
+    private final RedisExecutionRepository repo;
+    private final int maxHeldStarts;
+
+    // held runs (with commands still queued) of each owned partition; guarded by this
+    private final Map<Integer, Set<String>> heldRuns = new HashMap<>();
 
-    public ExecutionCommandConsumer(ObjectMapper objectMapper, ExecutionScheduler scheduler) {
+    private final long replayIntervalMs;
+    private final ScheduledExecutorService replayer;
+
+    public ExecutionCommandConsumer(ObjectMapper objectMapper, ExecutionScheduler scheduler,
+                                    CommandAdmissionController admission, RedisExecutionRepository repo,
+                                    @Value("${engine.admission.max-held-starts:10000}") int maxHeldStarts,
+                                    @Value("${engine.admission.check-interval-ms:500}") long checkIntervalMs) {
         this.objectMapper = objectMapper;
         this.scheduler = scheduler;
+        this.admission = admission;
+        this.repo = repo;
+        this.maxHeldStarts = Math.max(0, maxHeldStarts);
+        this.replayIntervalMs = Math.max(50, checkIntervalMs);
+        this.replayer = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "command-replay"));
+    }
+
+    @PostConstruct
+    public void start() {
+        replayer.scheduleWithFixedDelay(this::replayDeferred, replayIntervalMs, replayIntervalMs, TimeUnit.MILLISECONDS);
     }
 
-    @KafkaListener(topics = Topics.EXECUTION_COMMANDS, groupId = "execution-engine")
-    public void listen(ConsumerRecord<String, String> record) {
-        try {
-            String value = record.value();
-            ExecutionCommandEvent cmd = objectMapper.readValue(value, ExecutionCommandEvent.class);
+    /**
+     * Failures are rethrown to the container's error handler, which redelivers the command.
+     */
+    @KafkaListener(id = LISTENER_ID, topics = Topics.EXECUTION_COMMANDS, groupId = "execution-engine")
+    public void listen(ConsumerRecord<String, String> record) throws JsonProcessingException {
+        String value = record.value();
+        ExecutionCommandEvent cmd = objectMapper.readValue(value, ExecutionCommandEvent.class);
+
+        log.info("Received ExecutionCommandEvent: type={} flowId={} runId={}",
+                cmd.getEventType(), cmd.getFlowId(), cmd.getRunId());
 
-            log.info("Received ExecutionCommandEvent: type={} flowId={} runId={}",
-                    cmd.getEventType(), cmd.getFlowId(), cmd.getRunId());
+        handle(cmd, value, record.partition());
+    }
+
+    synchronized void handle(ExecutionCommandEvent cmd, String json, int partition) {
+        String runKey = cmd.getFlowId() + ":" + cmd.getRunId();
+        Set<String> held = heldRuns(partition);
+        if (held.contains(runKey)) {
+            if (cmd.getEventType() != ExecutionCommandEvent.EventType.EXECUTION_STOP) {
+                repo.deferCommand(partition, runKey, json);
+                log.info("Run {} is held back; {} queued behind its START", runKey, cmd.getEventType());
+                return;
+            }
+            repo.dropDeferredCommands(partition, runKey);
+            held.remove(runKey);
+        } else if (cmd.getEventType() == ExecutionCommandEvent.EventType.EXECUTION_START && !admission.admitsStarts()) {
+            if (maxHeldStarts > 0 && held.size() >= maxHeldStarts) {
+                throw new HeldStartsFullException(partition, held.size());
+            }
+            repo.deferCommand(partition, runKey, json);
+            held.add(runKey);
+            log.info("Engine saturated; holding back START of run {}", runKey);
+            return;
+        }
+        apply(cmd);
+    }
 
-            switch (cmd.getEventType()) {
-                case EXECUTION_START -> scheduler.startFlow(cmd);
-                case EXECUTION_STOP -> scheduler.stopFlow(cmd.getFlowId(), cmd.getRunId());
-                case EXECUTION_PAUSE -> scheduler.pauseFlow(cmd.getFlowId(), cmd.getRunId());
-                case EXECUTION_RESUME -> scheduler.resumeFlow(cmd.getFlowId(), cmd.getRunId());
-                default -> log.warn("Unknown eventType: {}", cmd.getEventType());
+    /**
+     * Load the held runs of newly assigned partitions. Called before their records are delivered; a
+     * partition that fails to load is loaded again by its first command.
+     */
+    public synchronized void onPartitionsAssigned(Collection<Integer> partitions) {
+        for (int partition : partitions) {
+            heldRuns.remove(partition);
+            try {
+                heldRuns(partition);
+            } catch (Exception ex) {
+                log.warn("Failed to load held runs of partition {}: {}", partition, ex.getMessage());
             }
+        }
+    }
 
-        } catch (Exception e) {
-            log.error("Failed to process ExecutionCommandEvent from Kafka", e);
+    private Set<String> heldRuns(int partition) {
+        Set<String> held = heldRuns.get(partition);
+        if (held == null) {
+            held = new HashSet<>(repo.listDeferredRuns(partition));
+            heldRuns.put(partition, held);
         }
+        return held;
+    }
+
+    public synchronized void onPartitionsRevoked(Collection<Integer> partitions) {
+        partitions.forEach(heldRuns::remove);
+    }
+
+    /** Number of runs held back on the partition. */
+    synchronized int heldRunCount(int partition) {
+        Set<String> held = heldRuns.get(partition);
+        return held == null ? 0 : held.size();
     }
-}
 
+    private void apply(ExecutionCommandEvent cmd) {
+        switch (cmd.getEventType()) {
+            case EXECUTION_START -> {
+                scheduler.startFlow(cmd);
+                // check right away: a burst of starts must not wait for the periodic check
+                admission.evaluate();
+            }
+            case EXECUTION_STOP -> scheduler.stopFlow(cmd.getFlowId(), cmd.getRunId());
+            case EXECUTION_PAUSE -> scheduler.pauseFlow(cmd.getFlowId(), cmd.getRunId());
+            case EXECUTION_RESUME -> scheduler.resumeFlow(cmd.getFlowId(), cmd.getRunId());
+            case EXECUTION_RETRY -> scheduler.retryFlow(cmd.getFlowId(), cmd.getRunId());
+            default -> log.warn("Unknown eventType: {}", cmd.getEventType());
+        }
+    }
+
+    /**
+     * Start held-back runs of the owned partitions, oldest first, while new runs are admitted.
+     */
+    void replayDeferred() {
+        for (int partition : scheduler.ownedPartitions()) {
+            try {
+                while (admission.admitsStarts() && replayNext(partition)) {
+                    // next held run
+                }
+            } catch (Exception ex) {
+                log.warn("Replay of held commands failed for partition {}: {}", partition, ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Apply the held commands of the oldest held run of the partition.
+     *
+     * @return false if there is none (or the partition is no longer ours)
+     */
+    private synchronized boolean replayNext(int partition) {
+        if (!scheduler.ownedPartitions().contains(partition)) return false;
+        String runKey = repo.nextDeferredRun(partition);
+        if (runKey == null) return false;
+        for (String json : repo.getDeferredCommands(partition, runKey)) {
+            try {
+                ExecutionCommandEvent cmd = objectMapper.readValue(json, ExecutionCommandEvent.class);
+                log.info("Replaying held {} of run {}", cmd.getEventType(), runKey);
+                apply(cmd);
+            } catch (Exception ex) {
+                log.error("Failed to replay held command of run {}", runKey, ex);
+            }
+        }
+        // removed only once applied, so a crash in between replays the run rather than losing it
+        repo.removeDeferredRun(partition, runKey);
+        Set<String> held = heldRuns.get(partition);
+        if (held != null) held.remove(runKey);
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        replayer.shutdownNow();
+    }
+
+    /**
+     * A START arrived while its partition already holds max-held-starts runs. Not a failure: the error
+     * handler pauses the partition and redelivers the START until held runs have been replayed.
+     */
+    public static class HeldStartsFullException extends RuntimeException {
+        private final int partition;
+
+        public HeldStartsFullException(int partition, int held) {
+            super("Partition " + partition + " already holds " + held + " runs back");
+            this.partition = partition;
+        }
+
+        public int partition() { return partition; }
+    }
+}
@@ -0,0 +1,78 @@
+package com.flowops.execution_engine.kafka;
+
+import com.flowops.execution_engine.engine.ExecutionScheduler;
+import com.flowops.kafka_contracts.Topics;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Ties run ownership to the execution.commands partitions assigned to this engine node.
+ *
+ * Assigned partitions: the scheduler recovers the active runs that hash to them, and the command
+ * consumer loads the runs held back on them.
+ * Revoked partitions: the scheduler hands those runs off before the consumer commits and leaves,
+ * so the next owner finds their in-flight steps back on the ready set and the leases released.
+ */
+@Component
+public class ExecutionCommandRebalanceListener implements ConsumerAwareRebalanceListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ExecutionCommandRebalanceListener.class);
+
+    private final ExecutionScheduler scheduler;
+    private final ExecutionCommandConsumer commandConsumer;
+
+    public ExecutionCommandRebalanceListener(ExecutionScheduler scheduler, ExecutionCommandConsumer commandConsumer) {
+        this.scheduler = scheduler;
+        this.commandConsumer = commandConsumer;
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        List<PartitionInfo> infos = consumer.partitionsFor(Topics.EXECUTION_COMMANDS);
+        int partitionCount = infos == null ? 0 : infos.size();
+        List<Integer> assigned = commandPartitions(partitions);
+        commandConsumer.onPartitionsAssigned(assigned);
+        try {
+            scheduler.onPartitionsAssigned(assigned, partitionCount);
+        } catch (Exception ex) {
+            log.error("Failed to take over runs for partitions {}: {}", partitions, ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        List<Integer> revoked = commandPartitions(partitions);
+        commandConsumer.onPartitionsRevoked(revoked);
+        try {
+            scheduler.onPartitionsRevoked(revoked, false);
+        } catch (Exception ex) {
+            log.error("Failed to hand off runs for partitions {}: {}", partitions, ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        List<Integer> lost = commandPartitions(partitions);
+        commandConsumer.onPartitionsRevoked(lost);
+        try {
+            scheduler.onPartitionsRevoked(lost, true);
+        } catch (Exception ex) {
+            log.error("Failed to drop runs for lost partitions {}: {}", partitions, ex.getMessage(), ex);
+        }
+    }
+
+    private static List<Integer> commandPartitions(Collection<TopicPartition> partitions) {
+        return partitions.stream()
+                .filter(tp -> Topics.EXECUTION_COMMANDS.equals(tp.topic()))
+                .map(TopicPartition::partition)
+                .toList();
+    }
+}
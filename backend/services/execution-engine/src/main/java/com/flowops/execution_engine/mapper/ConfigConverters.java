@@ -21,6 +21,7 @@ import java.util.Map;
  *  - com.google.protobuf.Struct
  *  - java.util.Map
  *  - JSON String
+ *  - plain Java beans (e.g. ExecutionCommandEvent.Config) via Jackson
  *  - fallback: stores raw.toString() under "raw"
  */
 @Component
@@ -64,6 +65,10 @@ public class ConfigConverters {
                 return om.readValue(json, new TypeReference<Map<String, Object>>() {});
             }
 
+            // Plain bean such as ExecutionCommandEvent.Config {timeoutMs, retryCount, retryDelayMs}
+            Map<String, Object> bean = om.convertValue(config, new TypeReference<Map<String, Object>>() {});
+            if (bean != null && !bean.isEmpty()) return bean;
+
             // fallback: return stringified raw
             return Map.of("raw", config.toString());
         } catch (Exception ex) {
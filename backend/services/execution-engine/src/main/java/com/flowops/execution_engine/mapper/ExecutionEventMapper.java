@@ -10,7 +10,7 @@ import java.util.List;
 
 /**
  * MapStruct mapper to convert ExecutionCommandEvent.Step -> engine Step.
- * - Recursively maps children and branches
+ * - Recursively maps children and branches (a branch becomes a gate step, see toDomain(Branch))
  * - Converts config into Map<String,Object> using ConfigConverters.protoToMap
  *
  * Make sure MapStruct annotation processor is enabled in your build.
@@ -28,6 +28,19 @@ public interface ExecutionEventMapper {
     @Mapping(target = "config", source = "config", qualifiedByName = "protoToMap")
     Step toDomain(ExecutionCommandEvent.Step step);
 
+    /**
+     * Map a Branch to the gate step of the branch: stepId = branchId, its steps become the gate's
+     * children. Gates have no plugin; the engine evaluates their condition and runs or skips the branch.
+     */
+    @Mapping(target = "stepId", source = "branchId")
+    @Mapping(target = "children", source = "steps")
+    @Mapping(target = "pluginId", ignore = true)
+    @Mapping(target = "inputs", ignore = true)
+    @Mapping(target = "outputs", ignore = true)
+    @Mapping(target = "branches", ignore = true)
+    @Mapping(target = "config", ignore = true)
+    Step toDomain(ExecutionCommandEvent.Branch branch);
+
     /**
      * Map list of proto steps to list of engine steps (recursive mapping of children/branches).
      */
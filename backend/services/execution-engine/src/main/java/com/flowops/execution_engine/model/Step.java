@@ -52,6 +52,40 @@ public class Step {
         return this;
     }
 
+    /**
+     * Numeric config value (e.g. timeoutMs, retryCount), or def when absent or not a number.
+     */
+    public long configLong(String key, long def) {
+        if (config == null) return def;
+        Object v = config.get(key);
+        if (v instanceof Number n) return n.longValue();
+        if (v instanceof String str) {
+            try {
+                return Long.parseLong(str.trim());
+            } catch (NumberFormatException ignored) { }
+        }
+        return def;
+    }
+
+    /**
+     * String config value (e.g. mapOver), or null when absent or blank.
+     */
+    public String configString(String key) {
+        Object v = config == null ? null : config.get(key);
+        if (v == null) return null;
+        String str = v.toString().trim();
+        return str.isEmpty() ? null : str;
+    }
+
+    /**
+     * Boolean config value (e.g. speculative), false when absent.
+     */
+    public boolean configBoolean(String key) {
+        Object v = config == null ? null : config.get(key);
+        if (v instanceof Boolean b) return b;
+        return v != null && Boolean.parseBoolean(v.toString().trim());
+    }
+
     @Override
     public String toString() {
         return "Step{" + "stepId='" + stepId + '\'' + '}';
@@ -1,10 +1,26 @@
 package com.flowops.execution_engine.persistence.redis;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Repository;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -13,12 +29,27 @@ import java.util.stream.Collectors;
  * Repository for persisting execution runtime state in Redis.
  *
  * Key design:
+ *  - All keys of a run share the hash tag {flowId:runId} (see RedisKeys), so scripts can touch any of
+ *    them, also on Redis Cluster; a run has a fixed set of keys, not one per step
  *  - In-degree map stored as a Redis Hash (key = indegree(flowId,runId))
- *  - Dependents stored as Redis Sets (one set per step)
+ *  - Dependents stored in one Hash: stepId -> JSON array of dependent stepIds
  *  - Step statuses as Redis Hash (stepsHash)
- *  - Outputs in per-step Hash and mirrored into "context" for quick lookup
- *  - Ready queue as Redis List
- *  - managed_keys Set: we record every key we create in this set so clearFlow can delete only what we created
+ *  - Outputs in the "context" Hash as "stepId.outputKey" -> JSON
+ *  - Ready queue as Redis Set (durable copy; dispatch order is decided in memory)
+ *  - No per-write bookkeeping of created keys: the keys of a run are the fixed set in RedisKeys plus one
+ *    results hash per map step, so clearFlow/expireFlow derive them from the map step ids
+ *  - "remaining" field in the meta hash: steps not yet COMPLETED/SKIPPED, decremented atomically on each
+ *    terminal transition so flow completion is an O(1) check
+ *  - Optional work stealing: ready steps offered on a shared stream (consumer group), executed by any node,
+ *    results reported on a per-partition stream read by the run owner; "remote" hash = steps executing elsewhere
+ *  - In-flight set: steps currently RUNNING, maintained by the claim and status transitions, so recovery
+ *    requeues steps a dead owner left running without scanning every step status. Runs written before
+ *    the set existed have no "stateVersion" meta field and are scanned once instead
+ *  - Run lease (string "nodeId|epoch" with a TTL): the engine node allowed to execute the run. The epoch
+ *    comes from the "leaseEpoch" meta field and grows on every acquisition, so a node that lost its lease
+ *    is fenced off at the commit point (completeStep) even if it has not noticed yet
+ *  - Deferred commands: START commands held back by admission control, with the commands of those runs
+ *    that arrived after them, listed per execution.commands partition
  *
  * NOTE: This class uses String values for everything. Values that are structured (outputs) are stored as JSON strings.
  */
@@ -28,16 +59,399 @@ public class RedisExecutionRepository {
     private final StringRedisTemplate redis;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    public static final String REMAINING_FIELD = "remaining";
+    public static final String LEASE_EPOCH_FIELD = "leaseEpoch";
+    // meta field marking the run state layout; runs without it predate the in-flight set
+    public static final String STATE_VERSION_FIELD = "stateVersion";
+    public static final String STATE_VERSION = "2";
+
+    /** Returned by the commit scripts when the caller no longer holds the run lease. */
+    public static final long FENCED = -2;
+
+    /**
+     * Returned by the commit scripts when no step made its terminal transition (a repeated completion
+     * or skip), so only the first transition of the last step ever reports 0 remaining.
+     */
+    public static final long UNCHANGED = -3;
+
+    /**
+     * KEYS[1] = steps hash, KEYS[2] = meta hash, KEYS[3] = run lease, KEYS[4] = ready set;
+     * ARGV[1] = lease token ('' = unfenced), ARGV[2..] = stepIds.
+     * Marks every listed step that is not yet terminal SKIPPED, drops it from the ready set and
+     * decrements "remaining" once per step. Returns the remaining count, -2 if fenced, or -3 if every step
+     * was already terminal.
+     */
+    private static final RedisScript<Long> MARK_SKIPPED_SCRIPT = new DefaultRedisScript<>(
+            "if ARGV[1] ~= '' and redis.call('GET', KEYS[3]) ~= ARGV[1] then return -2 end " +
+            "local n = 0 " +
+            "for i = 2, #ARGV do " +
+            "  local prev = redis.call('HGET', KEYS[1], ARGV[i]) " +
+            "  if prev ~= 'COMPLETED' and prev ~= 'SKIPPED' and prev ~= 'FAILED' and prev ~= 'CANCELLED' then " +
+            "    redis.call('HSET', KEYS[1], ARGV[i], 'SKIPPED') " +
+            "    redis.call('SREM', KEYS[4], ARGV[i]) " +
+            "    n = n + 1 " +
+            "  end " +
+            "end " +
+            "if n == 0 then return -3 end " +
+            "return redis.call('HINCRBY', KEYS[2], 'remaining', -n)",
+            Long.class);
+
+    /**
+     * KEYS[1] = steps hash, KEYS[2] = meta hash, KEYS[3] = run lease, KEYS[4] = ready set, KEYS[5] = indegree
+     * hash, KEYS[6] = context hash, KEYS[7] = in-flight set;
+     * ARGV[1] = lease token ('' = unfenced), ARGV[2] = stepId, ARGV[3] = number of outputs n,
+     * ARGV[4 .. 3+2n] = outputKey/JSON pairs, then the step's dependents.
+     * Writes the outputs (into the context as "stepId.outputKey"), marks the step COMPLETED, decrements "remaining" and the
+     * dependents' indegrees, and adds the dependents reaching zero (unless skipped) to the ready set, all at once.
+     * Returns {remaining, ready dependents...} as strings; {"-2"} if fenced. A duplicate completion
+     * writes the outputs again but counts and releases nothing, and a step already SKIPPED stays so with
+     * nothing written: both return {"-3"}.
+     */
+    private static final RedisScript<List> COMPLETE_STEP_SCRIPT = new DefaultRedisScript<>(
+            "if ARGV[1] ~= '' and redis.call('GET', KEYS[3]) ~= ARGV[1] then return {'-2'} end " +
+            "local step = ARGV[2] " +
+            "local prev = redis.call('HGET', KEYS[1], step) " +
+            "redis.call('SREM', KEYS[7], step) " +
+            "if prev == 'SKIPPED' then return {'-3'} end " +
+            "local n = tonumber(ARGV[3]) " +
+            "local i = 4 " +
+            "for _ = 1, n do " +
+            "  redis.call('HSET', KEYS[6], step .. '.' .. ARGV[i], ARGV[i + 1]) " +
+            "  i = i + 2 " +
+            "end " +
+            "if prev == 'COMPLETED' then return {'-3'} end " +
+            "redis.call('HSET', KEYS[1], step, 'COMPLETED') " +
+            "local out = {tostring(redis.call('HINCRBY', KEYS[2], 'remaining', -1))} " +
+            "for j = i, #ARGV do " +
+            "  if redis.call('HINCRBY', KEYS[5], ARGV[j], -1) == 0 and redis.call('HGET', KEYS[1], ARGV[j]) ~= 'SKIPPED' then " +
+            "    redis.call('SADD', KEYS[4], ARGV[j]) " +
+            "    table.insert(out, ARGV[j]) " +
+            "  end " +
+            "end " +
+            "return out",
+            List.class);
+
+    /**
+     * KEYS[1] = memo entry, KEYS[2] = the plugin's memo index zset; ARGV[1] = outputs JSON, ARGV[2] = ttl ms,
+     * ARGV[3] = now ms, ARGV[4] = max entries of the plugin.
+     * Stores the entry with its TTL, drops expired members from the index and evicts the plugin's oldest
+     * entries past the size bound. Returns the entries evicted.
+     */
+    private static final RedisScript<Long> MEMO_PUT_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2]) " +
+            "redis.call('ZREMRANGEBYSCORE', KEYS[2], '-inf', tonumber(ARGV[3]) - tonumber(ARGV[2])) " +
+            "redis.call('ZADD', KEYS[2], ARGV[3], KEYS[1]) " +
+            "local over = redis.call('ZCARD', KEYS[2]) - tonumber(ARGV[4]) " +
+            "if over <= 0 then return 0 end " +
+            "local old = redis.call('ZRANGE', KEYS[2], 0, over - 1) " +
+            "redis.call('ZREMRANGEBYRANK', KEYS[2], 0, over - 1) " +
+            "for _, k in ipairs(old) do redis.call('DEL', k) end " +
+            "return over",
+            Long.class);
+
+    /**
+     * KEYS[1] = steps hash, KEYS[2] = attempts hash, KEYS[3] = ready set, KEYS[4] = run lease, KEYS[5] = indegree hash;
+     * ARGV[1] = lease token ('' = unfenced).
+     * Puts every FAILED step back to PENDING on the ready set with its attempt count cleared. PENDING steps
+     * with no dependencies left that are not on the ready set were waiting in the retry queue when the run
+     * failed (their entry is dropped while the run is inactive); they go back on the ready set as well.
+     * Returns the reset stepIds, or nil if fenced.
+     */
+    private static final RedisScript<List> RESET_FAILED_SCRIPT = new DefaultRedisScript<>(
+            "if ARGV[1] ~= '' and redis.call('GET', KEYS[4]) ~= ARGV[1] then return false end " +
+            "local out = {} " +
+            "local s = redis.call('HGETALL', KEYS[1]) " +
+            "for i = 1, #s, 2 do " +
+            "  if s[i + 1] == 'FAILED' then " +
+            "    redis.call('HSET', KEYS[1], s[i], 'PENDING') " +
+            "    redis.call('HDEL', KEYS[2], s[i]) " +
+            "    redis.call('SADD', KEYS[3], s[i]) " +
+            "    table.insert(out, s[i]) " +
+            "  elseif s[i + 1] == 'PENDING' and tonumber(redis.call('HGET', KEYS[5], s[i]) or '0') <= 0 " +
+            "      and redis.call('SADD', KEYS[3], s[i]) == 1 then " +
+            "    table.insert(out, s[i]) " +
+            "  end " +
+            "end " +
+            "return out",
+            List.class);
+
+    /**
+     * KEYS[1] = steps hash, KEYS[2] = in-flight set; ARGV[1] = stepId, ARGV[2] = status.
+     * A step leaving RUNNING also leaves the in-flight set.
+     */
+    private static final RedisScript<Long> SET_STATUS_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('HSET', KEYS[1], ARGV[1], ARGV[2]) " +
+            "if ARGV[2] ~= 'RUNNING' then redis.call('SREM', KEYS[2], ARGV[1]) end " +
+            "return 1",
+            Long.class);
+
+    /**
+     * KEYS[1] = in-flight set, KEYS[2] = steps hash, KEYS[3] = ready set, KEYS[4] = remote hash, KEYS[5] = run lease;
+     * ARGV[1] = lease token ('' = unfenced), ARGV[2] = '1' to find running steps by scanning the statuses
+     * (runs without the in-flight set).
+     * Puts every step still RUNNING on this owner back to PENDING on the ready set; steps executing on
+     * another node (remote) are left alone, they report their result to the owner. Returns the requeued
+     * stepIds, or nil if fenced.
+     */
+    private static final RedisScript<List> REQUEUE_IN_FLIGHT_SCRIPT = new DefaultRedisScript<>(
+            "if ARGV[1] ~= '' and redis.call('GET', KEYS[5]) ~= ARGV[1] then return false end " +
+            "local ids " +
+            "if ARGV[2] == '1' then " +
+            "  ids = {} " +
+            "  local s = redis.call('HGETALL', KEYS[2]) " +
+            "  for i = 1, #s, 2 do if s[i + 1] == 'RUNNING' then table.insert(ids, s[i]) end end " +
+            "else " +
+            "  ids = redis.call('SMEMBERS', KEYS[1]) " +
+            "end " +
+            "local out = {} " +
+            "for _, id in ipairs(ids) do " +
+            "  if redis.call('HEXISTS', KEYS[4], id) == 0 then " +
+            "    redis.call('SREM', KEYS[1], id) " +
+            "    if redis.call('HGET', KEYS[2], id) == 'RUNNING' then " +
+            "      redis.call('HSET', KEYS[2], id, 'PENDING') " +
+            "      redis.call('SADD', KEYS[3], id) " +
+            "      table.insert(out, id) " +
+            "    end " +
+            "  end " +
+            "end " +
+            "return out",
+            List.class);
+
+    /** Outcome of completeStep: remaining steps (or FENCED / UNCHANGED) and the dependents that became ready. */
+    public record StepCommit(long remaining, List<String> ready) {}
+
+    public static final String STEAL_GROUP = "engine";
+
+    /** Persisted definition (null if gone) and meta of a run, read for recovery. */
+    public record RecoveryState(String flowId, String runId, String definition, Map<Object, Object> meta) {}
+
+    /** A ready step offered on the steal stream. */
+    public record StealEntry(String id, String runKey, String stepId, int partition) {}
+
+    /**
+     * Outcome of a step executed by another node, reported to the run owner.
+     *
+     * @param executor the executor recorded when the step was claimed (see stealExecutor), or null for
+     *                 reports of nodes that stored the outputs themselves
+     * @param outputs  the step's outputs when it succeeded
+     */
+    public record StolenResult(String id, String runKey, String stepId, String executor, boolean success,
+                               Map<String, Object> outputs, String error) {}
+
+    /**
+     * KEYS[1] = ready set, KEYS[2] = steps hash, KEYS[3] = remote hash, KEYS[4] = in-flight set;
+     * ARGV[1] = stepId, ARGV[2] = remote executor ('' = the owner itself). Takes the step off the ready
+     * set and marks it RUNNING (and in flight) in one step, so exactly one dispatcher (local or stealing) wins
+     * it. Returns 1 if claimed.
+     */
+    private static final RedisScript<Long> CLAIM_READY_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('SREM', KEYS[1], ARGV[1]) == 0 then return 0 end " +
+            "redis.call('HSET', KEYS[2], ARGV[1], 'RUNNING') " +
+            "redis.call('SADD', KEYS[4], ARGV[1]) " +
+            "if ARGV[2] ~= '' then redis.call('HSET', KEYS[3], ARGV[1], ARGV[2]) end " +
+            "return 1",
+            Long.class);
+
+    /**
+     * KEYS[1] = steps hash, KEYS[2] = remote hash; ARGV[1] = stepId, ARGV[2] = new executor.
+     * Takes over a stolen step whose executor died: only if it is still RUNNING remotely. Returns 1 if adopted.
+     */
+    private static final RedisScript<Long> ADOPT_REMOTE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HGET', KEYS[1], ARGV[1]) ~= 'RUNNING' or redis.call('HEXISTS', KEYS[2], ARGV[1]) == 0 then return 0 end " +
+            "redis.call('HSET', KEYS[2], ARGV[1], ARGV[2]) " +
+            "return 1",
+            Long.class);
+
+    /**
+     * KEYS[1] = steal stream; ARGV = group, consumer, min idle ms, start id, count.
+     * XAUTOCLAIM flattened to [nextCursor, id, rk, step, p, id, rk, step, p, ...].
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> AUTOCLAIM_SCRIPT = new DefaultRedisScript<>(
+            "local r = redis.call('XAUTOCLAIM', KEYS[1], ARGV[1], ARGV[2], ARGV[3], ARGV[4], 'COUNT', ARGV[5]) " +
+            "local out = {r[1]} " +
+            "for _, e in ipairs(r[2]) do " +
+            "  if e and e[2] then " +
+            "    local f = {} " +
+            "    for i = 1, #e[2], 2 do f[e[2][i]] = e[2][i + 1] end " +
+            "    table.insert(out, e[1]) " +
+            "    table.insert(out, f['rk'] or '') " +
+            "    table.insert(out, f['step'] or '') " +
+            "    table.insert(out, f['p'] or '-1') " +
+            "  end " +
+            "end " +
+            "return out",
+            List.class);
+
+    /**
+     * KEYS[1] = steal stream; ARGV[1] = group, ARGV[2] = consumer, ARGV[3..] = ids.
+     * Resets the idle time of entries this node is still executing so they are not reclaimed. Entries
+     * another node has reclaimed meanwhile are left alone. Returns the entries touched.
+     */
+    private static final RedisScript<Long> TOUCH_PENDING_SCRIPT = new DefaultRedisScript<>(
+            "local n = 0 " +
+            "for i = 3, #ARGV do " +
+            "  if #redis.call('XPENDING', KEYS[1], ARGV[1], ARGV[i], ARGV[i], 1, ARGV[2]) > 0 then " +
+            "    redis.call('XCLAIM', KEYS[1], ARGV[1], ARGV[2], 0, ARGV[i], 'JUSTID') " +
+            "    n = n + 1 " +
+            "  end " +
+            "end " +
+            "return n",
+            Long.class);
+
+    /**
+     * KEYS[1] = steal stream; ARGV[1] = group, ARGV[2] = consumer, ARGV[3] = id.
+     * Acknowledges and deletes the entry only if it is still pending for this consumer, so a node whose
+     * entry was reclaimed does not acknowledge it for the node now executing it. Returns 1 if acked.
+     */
+    private static final RedisScript<Long> ACK_PENDING_SCRIPT = new DefaultRedisScript<>(
+            "if #redis.call('XPENDING', KEYS[1], ARGV[1], ARGV[3], ARGV[3], 1, ARGV[2]) == 0 then return 0 end " +
+            "redis.call('XACK', KEYS[1], ARGV[1], ARGV[3]) " +
+            "redis.call('XDEL', KEYS[1], ARGV[3]) " +
+            "return 1",
+            Long.class);
+
+    /**
+     * KEYS[1] = steps hash, KEYS[2] = remote hash; ARGV[1] = stepId, ARGV[2] = executor ('' = any).
+     * Accepts the report of a stolen step once: only from the executor currently recorded for it, and
+     * only while the step is still RUNNING. Clears the remote entry. Returns 1 if accepted.
+     */
+    private static final RedisScript<Long> ACCEPT_STOLEN_SCRIPT = new DefaultRedisScript<>(
+            "local cur = redis.call('HGET', KEYS[2], ARGV[1]) " +
+            "if not cur or (ARGV[2] ~= '' and cur ~= ARGV[2]) then return 0 end " +
+            "redis.call('HDEL', KEYS[2], ARGV[1]) " +
+            "if redis.call('HGET', KEYS[1], ARGV[1]) ~= 'RUNNING' then return 0 end " +
+            "return 1",
+            Long.class);
+
+    /**
+     * KEYS[1] = run lease, KEYS[2] = meta hash; ARGV[1] = nodeId, ARGV[2] = ttl ms.
+     * Takes the lease if it is free (or already ours) under a new epoch. Returns the epoch, or -1 if
+     * another node holds it.
+     */
+    private static final RedisScript<Long> ACQUIRE_LEASE_SCRIPT = new DefaultRedisScript<>(
+            "local cur = redis.call('GET', KEYS[1]) " +
+            "if cur and string.sub(cur, 1, #ARGV[1] + 1) ~= ARGV[1] .. '|' then return -1 end " +
+            "local epoch = redis.call('HINCRBY', KEYS[2], 'leaseEpoch', 1) " +
+            "redis.call('SET', KEYS[1], ARGV[1] .. '|' .. epoch, 'PX', ARGV[2]) " +
+            "return epoch",
+            Long.class);
+
+    // KEYS[1] = run lease; ARGV[1] = token, ARGV[2] = ttl ms. 1 if extended, 0 if the token no longer matches.
+    private static final String RENEW_LEASE_LUA =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+            "  return redis.call('PEXPIRE', KEYS[1], ARGV[2]) " +
+            "end " +
+            "return 0";
+
+    // KEYS[1] = deferred runs list, KEYS[2] = the run's deferred commands; ARGV[1] = runKey, ARGV[2] = command JSON.
+    // Appends the command; the first one of a run also appends the run to the partition's list.
+    private static final RedisScript<Long> DEFER_COMMAND_SCRIPT = new DefaultRedisScript<>(
+            "local n = redis.call('RPUSH', KEYS[2], ARGV[2]) " +
+            "if n == 1 then redis.call('RPUSH', KEYS[1], ARGV[1]) end " +
+            "return n",
+            Long.class);
+
+    // KEYS[1] = legacy ready queue, KEYS[2] = ready set. Runs written before the ready set kept their ready
+    // queue as a List, later ones as a Set; either way its members are added to the ready set (SADD) and the
+    // legacy key is deleted. Returns the members moved.
+    private static final RedisScript<Long> MIGRATE_READY_SCRIPT = new DefaultRedisScript<>(
+            "local t = redis.call('TYPE', KEYS[1]).ok " +
+            "local ids " +
+            "if t == 'list' then ids = redis.call('LRANGE', KEYS[1], 0, -1) " +
+            "elseif t == 'set' then ids = redis.call('SMEMBERS', KEYS[1]) " +
+            "else return 0 end " +
+            "redis.call('DEL', KEYS[1]) " +
+            "for i = 1, #ids, 1000 do " +
+            "  redis.call('SADD', KEYS[2], unpack(ids, i, math.min(i + 999, #ids))) " +
+            "end " +
+            "return #ids",
+            Long.class);
+
+    // KEYS[1] = run lease; ARGV[1] = token. Deletes the lease only if it is still ours.
+    private static final RedisScript<Long> RELEASE_LEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end " +
+            "return 0",
+            Long.class);
+
     public RedisExecutionRepository(StringRedisTemplate redis) {
         this.redis = redis;
     }
 
+    /* --------------------- Run initialisation --------------------- */
+
+    /**
+     * Write the whole initial state of a new run in one pipelined round trip: definition, indegree map,
+     * adjacency, PENDING statuses, durable ready set, meta (with the remaining counter) and the
+     * active-runs entry, in that order. Costs one round trip regardless of the DAG size.
+     *
+     * @param defJson   flattened definition, or null to skip persisting it
+     * @param adjacency stepId -> steps depending on it
+     * @param roots     steps with indegree 0
+     */
+    public void initializeRun(String flowId, String runId, String defJson, Map<String, Integer> indegree,
+                              Map<String, ? extends Collection<String>> adjacency, Collection<String> roots,
+                              Map<String, String> meta) {
+        Map<byte[], byte[]> adj = new HashMap<>();
+        try {
+            for (Map.Entry<String, ? extends Collection<String>> e : adjacency.entrySet()) {
+                if (e.getValue() != null && !e.getValue().isEmpty()) {
+                    adj.put(bytes(e.getKey()), bytes(objectMapper.writeValueAsString(e.getValue())));
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize dependents", e);
+        }
+        redis.executePipelined((RedisCallback<Object>) conn -> {
+            if (defJson != null) {
+                String key = RedisKeys.flowDefinition(flowId, runId);
+                conn.stringCommands().set(bytes(key), bytes(defJson));
+            }
+            if (!indegree.isEmpty()) {
+                Map<byte[], byte[]> indeg = new HashMap<>();
+                Map<byte[], byte[]> statuses = new HashMap<>();
+                byte[] pending = bytes("PENDING");
+                indegree.forEach((stepId, n) -> {
+                    indeg.put(bytes(stepId), bytes(String.valueOf(n)));
+                    statuses.put(bytes(stepId), pending);
+                });
+                String indegKey = RedisKeys.indegree(flowId, runId);
+                String stepsKey = RedisKeys.stepsHash(flowId, runId);
+                conn.hashCommands().hMSet(bytes(indegKey), indeg);
+                conn.hashCommands().hMSet(bytes(stepsKey), statuses);
+            }
+            if (!adj.isEmpty()) {
+                String key = RedisKeys.adjacency(flowId, runId);
+                conn.hashCommands().hMSet(bytes(key), adj);
+            }
+            if (!roots.isEmpty()) {
+                String key = RedisKeys.readyQueue(flowId, runId);
+                conn.setCommands().sAdd(bytes(key), roots.stream().map(RedisExecutionRepository::bytes).toArray(byte[][]::new));
+            }
+            Map<byte[], byte[]> metaBytes = new HashMap<>();
+            meta.forEach((k, v) -> metaBytes.put(bytes(k), bytes(v)));
+            metaBytes.put(bytes(REMAINING_FIELD), bytes(String.valueOf(indegree.size())));
+            String metaKey = RedisKeys.flowMeta(flowId, runId);
+            conn.hashCommands().hMSet(bytes(metaKey), metaBytes);
+            conn.setCommands().sAdd(bytes(RedisKeys.activeRunsKey()), bytes(flowId + ":" + runId));
+            return null;
+        });
+    }
+
+    // a list script answering nil (fenced) comes back as null or as a single null element
+    private static boolean isNil(List<Object> reply) {
+        return reply == null || (reply.size() == 1 && reply.get(0) == null);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
     /* --------------------- Flow meta --------------------- */
 
     public void setFlowMeta(String flowId, String runId, Map<String, String> meta) {
         String key = RedisKeys.flowMeta(flowId, runId);
         redis.opsForHash().putAll(key, meta);
-        recordKey(flowId, runId, key);
     }
 
     public Map<Object, Object> getFlowMeta(String flowId, String runId) {
@@ -49,8 +463,27 @@ public class RedisExecutionRepository {
 
     public void setStepStatus(String flowId, String runId, String stepId, String status) {
         String key = RedisKeys.stepsHash(flowId, runId);
-        redis.opsForHash().put(key, stepId, status);
-        recordKey(flowId, runId, key);
+        redis.execute(SET_STATUS_SCRIPT, List.of(key, RedisKeys.inFlight(flowId, runId)), stepId, status);
+    }
+
+    /**
+     * Put steps this owner had running back on the ready set (hand-off, or recovery after the previous
+     * owner died). Steps executing on other nodes are left running.
+     *
+     * @param scanStatuses find running steps from the statuses instead of the in-flight set (runs
+     *                     written before the set existed)
+     * @return the requeued steps, or null if the lease is held by another node
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> requeueInFlight(String flowId, String runId, String leaseToken, boolean scanStatuses) {
+        List<Object> r = redis.execute(REQUEUE_IN_FLIGHT_SCRIPT,
+                List.of(RedisKeys.inFlight(flowId, runId), RedisKeys.stepsHash(flowId, runId), RedisKeys.readyQueue(flowId, runId),
+                        RedisKeys.remoteSteps(flowId, runId), RedisKeys.runLease(flowId, runId)),
+                leaseToken == null ? "" : leaseToken, scanStatuses ? "1" : "0");
+        if (isNil(r)) return null;
+        List<String> out = new ArrayList<>(r.size());
+        r.forEach(o -> out.add(String.valueOf(o)));
+        return out;
     }
 
     public String getStepStatus(String flowId, String runId, String stepId) {
@@ -66,34 +499,170 @@ public class RedisExecutionRepository {
         return entries.entrySet().stream().collect(Collectors.toMap(e -> e.getKey().toString(), e -> e.getValue().toString()));
     }
 
+    /* --------------------- Remaining-steps counter --------------------- */
+
+    /**
+     * Initialise the number of steps that still have to reach COMPLETED/SKIPPED.
+     */
+    public void setRemainingSteps(String flowId, String runId, long remaining) {
+        String key = RedisKeys.flowMeta(flowId, runId);
+        redis.opsForHash().put(key, REMAINING_FIELD, String.valueOf(remaining));
+    }
+
+    /**
+     * @return the remaining counter, or null if this run was started without one
+     */
+    public Long getRemainingSteps(String flowId, String runId) {
+        Object val = redis.opsForHash().get(RedisKeys.flowMeta(flowId, runId), REMAINING_FIELD);
+        return val == null ? null : Long.parseLong(val.toString());
+    }
+
+    /**
+     * Complete a step in one round trip: outputs, COMPLETED status, remaining counter and the release
+     * of its dependents (whose durable ready entries are written too).
+     */
+    public StepCommit completeStep(String flowId, String runId, String stepId, Map<String, Object> outputs,
+                                   Collection<String> dependents, String leaseToken) {
+        Map<String, Object> outs = outputs == null ? Collections.emptyMap() : outputs;
+        List<String> args = new ArrayList<>(3 + outs.size() * 2 + dependents.size());
+        args.add(leaseToken == null ? "" : leaseToken);
+        args.add(stepId);
+        args.add(Integer.toString(outs.size()));
+        try {
+            for (Map.Entry<String, Object> e : outs.entrySet()) {
+                args.add(e.getKey());
+                args.add(objectMapper.writeValueAsString(e.getValue()));
+            }
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize step output", e);
+        }
+        args.addAll(dependents);
+        List<Object> r = redis.execute(COMPLETE_STEP_SCRIPT,
+                List.of(RedisKeys.stepsHash(flowId, runId), RedisKeys.flowMeta(flowId, runId), RedisKeys.runLease(flowId, runId),
+                        RedisKeys.readyQueue(flowId, runId), RedisKeys.indegree(flowId, runId), RedisKeys.context(flowId, runId),
+                        RedisKeys.inFlight(flowId, runId)),
+                args.toArray());
+        if (r == null || r.isEmpty()) return new StepCommit(-1, List.of());
+        List<String> ready = new ArrayList<>(r.size() - 1);
+        for (int i = 1; i < r.size(); i++) ready.add(String.valueOf(r.get(i)));
+        return new StepCommit(Long.parseLong(String.valueOf(r.get(0))), ready);
+    }
+
+    /**
+     * Mark a set of steps SKIPPED in one round trip (a branch that is not taken and everything
+     * downstream of it).
+     *
+     * @return steps still remaining afterwards, FENCED, or UNCHANGED if all of them were terminal already
+     */
+    public long markStepsSkipped(String flowId, String runId, Collection<String> stepIds, String leaseToken) {
+        List<String> args = new ArrayList<>(stepIds.size() + 1);
+        args.add(leaseToken == null ? "" : leaseToken);
+        args.addAll(stepIds);
+        Long remaining = redis.execute(MARK_SKIPPED_SCRIPT,
+                List.of(RedisKeys.stepsHash(flowId, runId), RedisKeys.flowMeta(flowId, runId),
+                        RedisKeys.runLease(flowId, runId), RedisKeys.readyQueue(flowId, runId)),
+                args.toArray());
+        return remaining == null ? -1 : remaining;
+    }
+
+    /**
+     * Requeue the failed steps of a run for a retry of the run, with fresh attempt counts.
+     *
+     * @return the steps put back on the ready set, or null if the lease is held by another node
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> resetFailedSteps(String flowId, String runId, String leaseToken) {
+        List<Object> r = redis.execute(RESET_FAILED_SCRIPT,
+                List.of(RedisKeys.stepsHash(flowId, runId), RedisKeys.stepAttempts(flowId, runId),
+                        RedisKeys.readyQueue(flowId, runId), RedisKeys.runLease(flowId, runId),
+                        RedisKeys.indegree(flowId, runId)),
+                leaseToken == null ? "" : leaseToken);
+        if (isNil(r)) return null;
+        List<String> out = new ArrayList<>(r.size());
+        r.forEach(o -> out.add(String.valueOf(o)));
+        return out;
+    }
+
+    /* --------------------- Run leases --------------------- */
+
+    /**
+     * Try to take the run lease for nodeId.
+     *
+     * @return the new fencing epoch, or -1 if another node currently holds the lease
+     */
+    public long acquireRunLease(String flowId, String runId, String nodeId, long ttlMs) {
+        Long epoch = redis.execute(ACQUIRE_LEASE_SCRIPT,
+                List.of(RedisKeys.runLease(flowId, runId), RedisKeys.flowMeta(flowId, runId)),
+                nodeId, String.valueOf(ttlMs));
+        return epoch == null ? -1 : epoch;
+    }
+
+    /**
+     * Extend every given lease in one pipelined round trip.
+     *
+     * @param tokensByRunKey "flowId:runId" -> lease token
+     * @return run keys whose lease is no longer held with that token
+     */
+    public List<String> renewRunLeases(Map<String, String> tokensByRunKey, long ttlMs) {
+        if (tokensByRunKey.isEmpty()) return Collections.emptyList();
+        List<Map.Entry<String, String>> entries = new ArrayList<>(tokensByRunKey.entrySet());
+        byte[] script = RENEW_LEASE_LUA.getBytes(StandardCharsets.UTF_8);
+        byte[] ttl = String.valueOf(ttlMs).getBytes(StandardCharsets.UTF_8);
+        List<Object> results = redis.executePipelined((RedisCallback<Object>) conn -> {
+            for (Map.Entry<String, String> e : entries) {
+                String[] parts = e.getKey().split(":", 2);
+                byte[] key = RedisKeys.runLease(parts[0], parts[1]).getBytes(StandardCharsets.UTF_8);
+                conn.scriptingCommands().eval(script, ReturnType.INTEGER, 1, key,
+                        e.getValue().getBytes(StandardCharsets.UTF_8), ttl);
+            }
+            return null;
+        });
+        List<String> lost = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            Object r = i < results.size() ? results.get(i) : null;
+            if (!(r instanceof Number n) || n.longValue() == 0) lost.add(entries.get(i).getKey());
+        }
+        return lost;
+    }
+
+    /**
+     * Give the lease up so the next owner does not have to wait for it to expire. No-op if it is not ours.
+     */
+    public void releaseRunLease(String flowId, String runId, String leaseToken) {
+        redis.execute(RELEASE_LEASE_SCRIPT, List.of(RedisKeys.runLease(flowId, runId)), leaseToken);
+    }
+
     /* --------------------- Outputs & context --------------------- */
 
     /**
-     * Save a single output value for step and also mirror into the flow-level context.
+     * Save a single output value of a step into the flow-level context ("stepId.outputKey").
      * value is serialized to JSON.
      */
     public void setStepOutput(String flowId, String runId, String stepId, String outputKey, Object value) {
-        String stepOutputsKey = RedisKeys.stepOutputs(flowId, runId, stepId);
         try {
             String json = objectMapper.writeValueAsString(value);
-            redis.opsForHash().put(stepOutputsKey, outputKey, json);
-            recordKey(flowId, runId, stepOutputsKey);
-
-            // context holds "stepId.outputKey" -> json
             String ctxKey = RedisKeys.context(flowId, runId);
-            String ctxField = stepId + "." + outputKey;
-            redis.opsForHash().put(ctxKey, ctxField, json);
-            recordKey(flowId, runId, ctxKey);
+            redis.opsForHash().put(ctxKey, stepId + "." + outputKey, json);
         } catch (JsonProcessingException e) {
             throw new RuntimeException("Failed to serialize step output", e);
         }
     }
 
+    /**
+     * Outputs of one step (outputKey -> JSON string), read from the context.
+     */
     public Map<String, String> getStepOutputs(String flowId, String runId, String stepId) {
-        String stepOutputsKey = RedisKeys.stepOutputs(flowId, runId, stepId);
-        Map<Object, Object> entries = redis.opsForHash().entries(stepOutputsKey);
-        if (entries == null) return Collections.emptyMap();
-        return entries.entrySet().stream().collect(Collectors.toMap(e -> e.getKey().toString(), e -> e.getValue().toString()));
+        String prefix = stepId + ".";
+        Map<String, String> out = new HashMap<>();
+        ScanOptions options = ScanOptions.scanOptions().match(globEscape(prefix) + "*").count(256).build();
+        try (Cursor<Map.Entry<Object, Object>> cursor = redis.opsForHash().scan(RedisKeys.context(flowId, runId), options)) {
+            cursor.forEachRemaining(e -> out.put(e.getKey().toString().substring(prefix.length()), e.getValue().toString()));
+        }
+        return out;
+    }
+
+    private static String globEscape(String s) {
+        return s.replaceAll("([*?\\[\\]\\\\])", "\\\\$1");
     }
 
     /**
@@ -106,6 +675,21 @@ public class RedisExecutionRepository {
         return ids.entrySet().stream().collect(Collectors.toMap(e -> e.getKey().toString(), e -> e.getValue().toString()));
     }
 
+    /**
+     * Selected context entries ("stepId.outputKey" -> JSON string); missing keys are left out.
+     */
+    public Map<String, String> getContextValues(String flowId, String runId, Collection<String> keys) {
+        if (keys.isEmpty()) return Collections.emptyMap();
+        List<Object> fields = new ArrayList<>(keys);
+        List<Object> values = redis.opsForHash().multiGet(RedisKeys.context(flowId, runId), fields);
+        Map<String, String> out = new HashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            Object v = values == null ? null : values.get(i);
+            if (v != null) out.put(fields.get(i).toString(), v.toString());
+        }
+        return out;
+    }
+
     /* --------------------- DAG: indegree & dependents --------------------- */
 
     /**
@@ -116,7 +700,6 @@ public class RedisExecutionRepository {
         Map<String, String> asStrings = indegree.entrySet().stream()
                 .collect(Collectors.toMap(Map.Entry::getKey, e -> String.valueOf(e.getValue())));
         redis.opsForHash().putAll(key, asStrings);
-        recordKey(flowId, runId, key);
     }
 
     /**
@@ -129,7 +712,6 @@ public class RedisExecutionRepository {
         String key = RedisKeys.indegree(flowId, runId);
         // using Number return from opsForHash().increment
         Long updated = redis.opsForHash().increment(key, stepId, -1L);
-        recordKey(flowId, runId, key);
         return updated == null ? -1 : updated.longValue();
     }
 
@@ -140,81 +722,458 @@ public class RedisExecutionRepository {
         return m.entrySet().stream().collect(Collectors.toMap(e -> e.getKey().toString(), e -> Integer.parseInt(e.getValue().toString())));
     }
 
-    public void addDependent(String flowId, String runId, String stepId, String dependentStepId) {
-        String key = RedisKeys.dependents(flowId, runId, stepId);
-        redis.opsForSet().add(key, dependentStepId);
-        recordKey(flowId, runId, key);
-    }
-
     public Set<String> getDependents(String flowId, String runId, String stepId) {
-        String key = RedisKeys.dependents(flowId, runId, stepId);
-        Set<String> members = redis.opsForSet().members(key);
-        return members == null ? Collections.emptySet() : members;
+        Object json = redis.opsForHash().get(RedisKeys.adjacency(flowId, runId), stepId);
+        if (json == null) return Collections.emptySet();
+        try {
+            return objectMapper.readValue(json.toString(), new TypeReference<Set<String>>() {});
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to read dependents", e);
+        }
     }
 
     /* --------------------- Ready queue --------------------- */
 
+    /**
+     * Durable copy of the ready queue. The scheduler dispatches from its in-memory queue;
+     * this set only exists so a restarted engine knows which steps were ready.
+     */
     public void enqueueReadyStep(String flowId, String runId, String stepId) {
         String key = RedisKeys.readyQueue(flowId, runId);
-        redis.opsForList().rightPush(key, stepId);
-        recordKey(flowId, runId, key);
+        redis.opsForSet().add(key, stepId);
     }
 
     /**
-     * Non-blocking pop. Returns null if empty.
+     * Remove a step from the durable ready set once it has been handed to a worker.
      */
-    public String dequeueReadyStep(String flowId, String runId) {
+    public void removeReadyStep(String flowId, String runId, String stepId) {
         String key = RedisKeys.readyQueue(flowId, runId);
-        return redis.opsForList().leftPop(key);
+        redis.opsForSet().remove(key, stepId);
+    }
+
+    /**
+     * Atomically take a ready step and mark it RUNNING.
+     *
+     * @param remoteNode executor of the step when it is not the run owner (see stealExecutor), else null
+     * @return true if this caller won the step
+     */
+    public boolean claimReadyStep(String flowId, String runId, String stepId, String remoteNode) {
+        Long claimed = redis.execute(CLAIM_READY_SCRIPT,
+                List.of(RedisKeys.readyQueue(flowId, runId), RedisKeys.stepsHash(flowId, runId), RedisKeys.remoteSteps(flowId, runId),
+                        RedisKeys.inFlight(flowId, runId)),
+                stepId, remoteNode == null ? "" : remoteNode);
+        return claimed != null && claimed > 0;
     }
 
     /**
-     * Blocking pop with timeout (seconds). Useful if you want to wait for a ready step.
+     * All steps currently recorded as ready (used on recovery to re-seed the in-memory queue).
      */
-    public String blockingDequeueReadyStep(String flowId, String runId, long timeoutSeconds) {
+    public Set<String> getReadySteps(String flowId, String runId) {
         String key = RedisKeys.readyQueue(flowId, runId);
-        return redis.opsForList().leftPop(key, timeoutSeconds, TimeUnit.SECONDS);
+        Set<String> members = redis.opsForSet().members(key);
+        return members == null ? Collections.emptySet() : members;
     }
 
-    /* --------------------- Managed keys bookkeeping & clear --------------------- */
+    /* --------------------- Map steps --------------------- */
 
     /**
-     * Record a key into the managed keys set for this flow - used for safe deletion later.
+     * Store the outputs of one item of a map step.
      */
-    private void recordKey(String flowId, String runId, String key) {
-        String managed = RedisKeys.managedKeysSet(flowId, runId);
-        redis.opsForSet().add(managed, key);
-        // set a TTL for the bookkeeping set to avoid orphan managed sets if flow never cleared
-        redis.expire(managed, 7, TimeUnit.DAYS);
+    public void setMapItemResult(String flowId, String runId, String stepId, int index, Map<String, Object> outputs) {
+        String key = RedisKeys.mapResults(flowId, runId, stepId);
+        try {
+            redis.opsForHash().put(key, Integer.toString(index), objectMapper.writeValueAsString(outputs == null ? Map.of() : outputs));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize map item outputs", e);
+        }
     }
 
     /**
-     * Delete all keys created for the flow/run. Returns the number of keys removed.
+     * Indexes of the items of a map step that already have results.
      */
-    public long clearFlow(String flowId, String runId) {
-        String managedKeySet = RedisKeys.managedKeysSet(flowId, runId);
-        Set<String> keys = redis.opsForSet().members(managedKeySet);
-        long deleted = 0;
-        if (keys != null && !keys.isEmpty()) {
-            // convert to array and delete
-            String[] arr = keys.toArray(new String[0]);
-            redis.delete(Arrays.asList(arr));
-            // delete the managed set itself
-            redis.delete(managedKeySet);
-            deleted = arr.length + 1;
+    public Set<Integer> getMapItemsDone(String flowId, String runId, String stepId) {
+        Set<Object> fields = redis.opsForHash().keys(RedisKeys.mapResults(flowId, runId, stepId));
+        if (fields == null) return Collections.emptySet();
+        return fields.stream().map(f -> Integer.parseInt(f.toString())).collect(Collectors.toSet());
+    }
+
+    /**
+     * Outputs of all finished items of a map step, by item index.
+     */
+    public Map<Integer, Map<String, Object>> getMapItemResults(String flowId, String runId, String stepId) {
+        Map<Object, Object> entries = redis.opsForHash().entries(RedisKeys.mapResults(flowId, runId, stepId));
+        Map<Integer, Map<String, Object>> out = new HashMap<>();
+        if (entries == null) return out;
+        for (Map.Entry<Object, Object> e : entries.entrySet()) {
+            try {
+                out.put(Integer.parseInt(e.getKey().toString()),
+                        objectMapper.readValue(e.getValue().toString(), new TypeReference<Map<String, Object>>() {}));
+            } catch (JsonProcessingException ex) {
+                throw new RuntimeException("Failed to read map item outputs", ex);
+            }
+        }
+        return out;
+    }
+
+    /* --------------------- Output memoization --------------------- */
+
+    /**
+     * @return memoized outputs (JSON object) for the entry key, or null
+     */
+    public String getMemoizedOutputs(String entryKey) {
+        return redis.opsForValue().get(entryKey);
+    }
+
+    /**
+     * Store memoized outputs of the plugin with a TTL, keeping at most maxEntries entries of that plugin
+     * (oldest evicted first).
+     *
+     * @return the entries evicted
+     */
+    public long putMemoizedOutputs(String pluginId, String entryKey, String outputsJson, long ttlMs, long maxEntries) {
+        Long evicted = redis.execute(MEMO_PUT_SCRIPT, List.of(entryKey, RedisKeys.memoIndex(pluginId)),
+                outputsJson, Long.toString(ttlMs), Long.toString(System.currentTimeMillis()), Long.toString(maxEntries));
+        return evicted == null ? 0 : evicted;
+    }
+
+    /* --------------------- Retries --------------------- */
+
+    /**
+     * Record one more failed attempt for the step and return the total failed attempts.
+     */
+    public long incrementStepAttempts(String flowId, String runId, String stepId) {
+        String key = RedisKeys.stepAttempts(flowId, runId);
+        Long n = redis.opsForHash().increment(key, stepId, 1L);
+        return n == null ? 1 : n;
+    }
+
+    /**
+     * Put the step on the durable delay queue of its run's command partition, due at dueAtEpochMs.
+     */
+    public void scheduleRetry(int partition, String flowId, String runId, String stepId, long dueAtEpochMs) {
+        redis.opsForZSet().add(RedisKeys.retryQueueKey(partition), retryMember(flowId, runId, stepId), dueAtEpochMs);
+    }
+
+    /**
+     * Retry entries due at or before nowEpochMs (oldest first). Entries stay queued until removeRetry.
+     */
+    public List<String> listDueRetries(int partition, long nowEpochMs, int limit) {
+        Set<String> due = redis.opsForZSet().rangeByScore(RedisKeys.retryQueueKey(partition), 0, nowEpochMs, 0, limit);
+        return due == null ? Collections.emptyList() : new ArrayList<>(due);
+    }
+
+    /**
+     * @return true if this call removed the entry (i.e. the caller won the claim)
+     */
+    public boolean removeRetry(int partition, String member) {
+        Long removed = redis.opsForZSet().remove(RedisKeys.retryQueueKey(partition), member);
+        return removed != null && removed > 0;
+    }
+
+    public static String retryMember(String flowId, String runId, String stepId) {
+        return flowId + ":" + runId + "|" + stepId;
+    }
+
+    /* --------------------- Deferred commands (admission control) --------------------- */
+
+    /**
+     * Hold back a command of the run until the engine admits it; kept per command partition so the
+     * held runs move with the partition.
+     */
+    public void deferCommand(int partition, String runKey, String commandJson) {
+        redis.execute(DEFER_COMMAND_SCRIPT,
+                List.of(RedisKeys.deferredRuns(partition), RedisKeys.deferredCommands(partition, runKey)),
+                runKey, commandJson);
+    }
+
+    /**
+     * Held runs of the partition whose commands were not dropped, oldest first.
+     */
+    public List<String> listDeferredRuns(int partition) {
+        List<String> runKeys = redis.opsForList().range(RedisKeys.deferredRuns(partition), 0, -1);
+        if (runKeys == null || runKeys.isEmpty()) return Collections.emptyList();
+        List<Object> exists = redis.executePipelined((RedisCallback<Object>) conn -> {
+            for (String runKey : runKeys) conn.keyCommands().exists(bytes(RedisKeys.deferredCommands(partition, runKey)));
+            return null;
+        });
+        List<String> out = new ArrayList<>(runKeys.size());
+        for (int i = 0; i < runKeys.size(); i++) {
+            if (Boolean.TRUE.equals(exists.get(i))) out.add(runKeys.get(i));
+        }
+        return out;
+    }
+
+    /**
+     * Oldest held run of the partition, or null. It stays first until removeDeferredRun.
+     */
+    public String nextDeferredRun(int partition) {
+        return redis.opsForList().index(RedisKeys.deferredRuns(partition), 0);
+    }
+
+    /**
+     * Held commands of the run in arrival order; empty if they were dropped (STOP).
+     */
+    public List<String> getDeferredCommands(int partition, String runKey) {
+        List<String> cmds = redis.opsForList().range(RedisKeys.deferredCommands(partition, runKey), 0, -1);
+        return cmds == null ? Collections.emptyList() : cmds;
+    }
+
+    /**
+     * Drop the held commands of a run; its entry in the partition list is skipped when reached.
+     */
+    public void dropDeferredCommands(int partition, String runKey) {
+        redis.delete(RedisKeys.deferredCommands(partition, runKey));
+    }
+
+    /**
+     * The run's held commands were applied: remove it and its commands.
+     */
+    public void removeDeferredRun(int partition, String runKey) {
+        byte[] runs = bytes(RedisKeys.deferredRuns(partition));
+        byte[] cmds = bytes(RedisKeys.deferredCommands(partition, runKey));
+        redis.executePipelined((RedisCallback<Object>) conn -> {
+            conn.listCommands().lRem(runs, 1, bytes(runKey));
+            conn.keyCommands().del(cmds);
+            return null;
+        });
+    }
+
+    /* --------------------- Work stealing streams --------------------- */
+
+    /**
+     * Create the steal stream and its consumer group if missing.
+     */
+    public void ensureStealGroup() {
+        byte[] key = RedisKeys.stealStream().getBytes(StandardCharsets.UTF_8);
+        try {
+            redis.execute((RedisCallback<String>) conn ->
+                    conn.streamCommands().xGroupCreate(key, STEAL_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception ex) {
+            // BUSYGROUP: created by another node already
+            if (ex.getMessage() == null || !ex.getMessage().contains("BUSYGROUP")) throw ex;
+        }
+    }
+
+    public void offerStealableStep(String runKey, String stepId, int partition) {
+        redis.opsForStream().add(RedisKeys.stealStream(),
+                Map.of("rk", runKey, "step", stepId, "p", String.valueOf(partition)));
+    }
+
+    /**
+     * Read up to count new offered steps for this consumer (node).
+     */
+    public List<StealEntry> readStealableSteps(String consumer, int count) {
+        List<MapRecord<String, Object, Object>> records = redis.opsForStream().read(
+                Consumer.from(STEAL_GROUP, consumer),
+                StreamReadOptions.empty().count(count),
+                StreamOffset.create(RedisKeys.stealStream(), ReadOffset.lastConsumed()));
+        if (records == null) return Collections.emptyList();
+        List<StealEntry> out = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> r : records) {
+            Map<Object, Object> v = r.getValue();
+            out.add(new StealEntry(r.getId().getValue(), String.valueOf(v.get("rk")), String.valueOf(v.get("step")),
+                    Integer.parseInt(String.valueOf(v.getOrDefault("p", "-1")))));
+        }
+        return out;
+    }
+
+    /**
+     * Claim offered steps another consumer read but did not acknowledge within minIdleMs (i.e. it died).
+     *
+     * @param cursor start id, "0-0" for a new scan
+     * @param claimed receives the claimed entries
+     * @return cursor for the next call ("0-0" once the scan wrapped)
+     */
+    @SuppressWarnings("unchecked")
+    public String reclaimStealableSteps(String consumer, long minIdleMs, String cursor, int count, List<StealEntry> claimed) {
+        List<Object> r = redis.execute(AUTOCLAIM_SCRIPT, List.of(RedisKeys.stealStream()),
+                STEAL_GROUP, consumer, String.valueOf(minIdleMs), cursor, String.valueOf(count));
+        if (r == null || r.isEmpty()) return "0-0";
+        for (int i = 1; i + 3 < r.size(); i += 4) {
+            claimed.add(new StealEntry(String.valueOf(r.get(i)), String.valueOf(r.get(i + 1)), String.valueOf(r.get(i + 2)),
+                    Integer.parseInt(String.valueOf(r.get(i + 3)))));
+        }
+        return String.valueOf(r.get(0));
+    }
+
+    /**
+     * Keep entries this consumer is still executing from looking abandoned.
+     */
+    public void touchStealableSteps(String consumer, Collection<String> ids) {
+        if (ids.isEmpty()) return;
+        List<String> args = new ArrayList<>(ids.size() + 2);
+        args.add(STEAL_GROUP);
+        args.add(consumer);
+        args.addAll(ids);
+        redis.execute(TOUCH_PENDING_SCRIPT, List.of(RedisKeys.stealStream()), args.toArray());
+    }
+
+    /**
+     * Acknowledge and delete an offer, if it is still pending for this consumer.
+     *
+     * @return false if another node reclaimed it meanwhile
+     */
+    public boolean ackStealableStep(String consumer, String id) {
+        Long acked = redis.execute(ACK_PENDING_SCRIPT, List.of(RedisKeys.stealStream()), STEAL_GROUP, consumer, id);
+        return acked != null && acked > 0;
+    }
+
+    /**
+     * Executor recorded in a run's remote hash for a stolen step: the node plus the offer it executes,
+     * so a report of an earlier execution of the same step is told apart.
+     */
+    public static String stealExecutor(String node, String entryId) {
+        return node + "|" + entryId;
+    }
+
+    /**
+     * Take over a stolen step whose executor died; true if it was still running remotely.
+     */
+    public boolean adoptRemoteStep(String flowId, String runId, String stepId, String executor) {
+        Long adopted = redis.execute(ADOPT_REMOTE_SCRIPT,
+                List.of(RedisKeys.stepsHash(flowId, runId), RedisKeys.remoteSteps(flowId, runId)), stepId, executor);
+        return adopted != null && adopted > 0;
+    }
+
+    /**
+     * Accept the report of a stolen step: true only for the first report of its current executor while
+     * the step is RUNNING. Stale (reclaimed, retried) and duplicate reports return false.
+     *
+     * @param executor the reporting executor, or null to accept a report of any executor
+     */
+    public boolean acceptStolenResult(String flowId, String runId, String stepId, String executor) {
+        Long accepted = redis.execute(ACCEPT_STOLEN_SCRIPT,
+                List.of(RedisKeys.stepsHash(flowId, runId), RedisKeys.remoteSteps(flowId, runId)),
+                stepId, executor == null ? "" : executor);
+        return accepted != null && accepted > 0;
+    }
+
+    /**
+     * Steps of the run currently executing on a node other than its owner.
+     */
+    public Set<String> getRemoteSteps(String flowId, String runId) {
+        Set<Object> keys = redis.opsForHash().keys(RedisKeys.remoteSteps(flowId, runId));
+        if (keys == null) return Collections.emptySet();
+        return keys.stream().map(Object::toString).collect(Collectors.toSet());
+    }
+
+    /**
+     * Report the outcome of a stolen step to the owner of its partition, which commits the outputs
+     * (fenced by its lease) if the report is still current.
+     */
+    public void reportStolenResult(int partition, String runKey, String stepId, String executor, boolean success,
+                                   Map<String, Object> outputs, String error) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("rk", runKey);
+        fields.put("step", stepId);
+        fields.put("exec", executor);
+        fields.put("ok", success ? "1" : "0");
+        try {
+            if (outputs != null) fields.put("out", objectMapper.writeValueAsString(outputs));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize step outputs", e);
+        }
+        if (error != null) fields.put("error", error);
+        redis.opsForStream().add(RedisKeys.stealResults(partition), fields);
+    }
+
+    public List<StolenResult> readStolenResults(int partition, int count) {
+        List<MapRecord<String, Object, Object>> records = redis.opsForStream().range(
+                RedisKeys.stealResults(partition), Range.unbounded(), Limit.limit().count(count));
+        if (records == null) return Collections.emptyList();
+        List<StolenResult> out = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> r : records) {
+            Map<Object, Object> v = r.getValue();
+            Object err = v.get("error");
+            Object exec = v.get("exec");
+            Object json = v.get("out");
+            Map<String, Object> outputs = null;
+            try {
+                if (json != null) outputs = objectMapper.readValue(json.toString(), new TypeReference<Map<String, Object>>() {});
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("Failed to read outputs of stolen step " + v.get("step"), e);
+            }
+            out.add(new StolenResult(r.getId().getValue(), String.valueOf(v.get("rk")), String.valueOf(v.get("step")),
+                    exec == null ? null : exec.toString(), "1".equals(String.valueOf(v.get("ok"))), outputs,
+                    err == null ? null : err.toString()));
         }
-        // also attempt to delete well-known keys in case managed set wasn't created
-        List<String> fallbacks = List.of(
+        return out;
+    }
+
+    public void deleteStolenResult(int partition, String id) {
+        redis.opsForStream().delete(RedisKeys.stealResults(partition), RecordId.of(id));
+    }
+
+    /* --------------------- Retention & clear --------------------- */
+
+    /**
+     * Every key of a run: the fixed per-run keys plus the results hash of each map step.
+     */
+    private static List<String> runKeys(String flowId, String runId, Collection<String> mapStepIds) {
+        List<String> keys = new ArrayList<>(List.of(
                 RedisKeys.flowMeta(flowId, runId),
                 RedisKeys.stepsHash(flowId, runId),
                 RedisKeys.context(flowId, runId),
                 RedisKeys.indegree(flowId, runId),
-                RedisKeys.readyQueue(flowId, runId)
-        );
-        deleted += redis.delete(fallbacks);
+                RedisKeys.adjacency(flowId, runId),
+                RedisKeys.readyQueue(flowId, runId),
+                RedisKeys.flowDefinition(flowId, runId),
+                RedisKeys.stepAttempts(flowId, runId),
+                RedisKeys.remoteSteps(flowId, runId),
+                RedisKeys.inFlight(flowId, runId),
+                RedisKeys.runLease(flowId, runId)));
+        for (String stepId : mapStepIds) keys.add(RedisKeys.mapResults(flowId, runId, stepId));
+        return keys;
+    }
+
+    /**
+     * Delete all keys of the flow/run with UNLINK, so Redis frees large hashes in the background, in
+     * chunks of at most chunkSize keys. Returns the number of keys removed.
+     *
+     * @param mapStepIds steps of the run that have mapOver (each owns a results hash)
+     */
+    public long clearFlow(String flowId, String runId, Collection<String> mapStepIds, int chunkSize) {
+        List<String> keys = runKeys(flowId, runId, mapStepIds);
+        int chunk = Math.max(1, chunkSize);
+        long deleted = 0;
+        for (int i = 0; i < keys.size(); i += chunk) {
+            Long n = redis.unlink(keys.subList(i, Math.min(keys.size(), i + chunk)));
+            deleted += n == null ? 0 : n;
+        }
         return deleted;
     }
 
+    /**
+     * Keep the state of a finished run readable for ttlMs, then let Redis expire it. The lease is
+     * dropped at once. One pipelined round trip.
+     */
+    public void expireFlow(String flowId, String runId, Collection<String> mapStepIds, long ttlMs) {
+        String lease = RedisKeys.runLease(flowId, runId);
+        redis.executePipelined((RedisCallback<Object>) conn -> {
+            for (String key : runKeys(flowId, runId, mapStepIds)) {
+                if (key.equals(lease)) {
+                    conn.keyCommands().unlink(bytes(key));
+                } else {
+                    conn.keyCommands().pExpire(bytes(key), ttlMs);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Undo expireFlow for a run that is active again (a retried failed run).
+     */
+    public void persistFlow(String flowId, String runId, Collection<String> mapStepIds) {
+        String lease = RedisKeys.runLease(flowId, runId);
+        redis.executePipelined((RedisCallback<Object>) conn -> {
+            for (String key : runKeys(flowId, runId, mapStepIds)) {
+                if (!key.equals(lease)) conn.keyCommands().persist(bytes(key));
+            }
+            return null;
+        });
+    }
+
     /* --------------------- Utility / helper read methods --------------------- */
 
     /**
@@ -238,8 +1197,6 @@ public class RedisExecutionRepository {
     public void setFlowDefinition(String flowId, String runId, String json) {
         String key = RedisKeys.flowDefinition(flowId, runId);
         redis.opsForValue().set(key, json);
-        // record this key in the managed-keys set for this flow so clearFlow will delete it later
-        recordKey(flowId, runId, key);
     }
 
     /**
@@ -248,14 +1205,117 @@ public class RedisExecutionRepository {
     public Optional<String> getFlowDefinition(String flowId, String runId) {
         String key = RedisKeys.flowDefinition(flowId, runId);
         String val = redis.opsForValue().get(key);
+        if (val == null && migrateLegacyRun(flowId, runId)) val = redis.opsForValue().get(key);
         return Optional.ofNullable(val);
     }
 
+    /**
+     * Definitions and meta of several runs in one pipelined round trip.
+     *
+     * @param runKeys "flowId:runId"
+     */
+    public List<RecoveryState> loadRecoveryStates(List<String> runKeys) {
+        List<String[]> ids = runKeys.stream().map(rk -> rk.split(":", 2)).filter(p -> p.length == 2).toList();
+        List<Object> results = redis.executePipelined((RedisCallback<Object>) conn -> {
+            for (String[] id : ids) {
+                conn.stringCommands().get(RedisKeys.flowDefinition(id[0], id[1]).getBytes(StandardCharsets.UTF_8));
+                conn.hashCommands().hGetAll(RedisKeys.flowMeta(id[0], id[1]).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        List<RecoveryState> out = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Object def = 2 * i < results.size() ? results.get(2 * i) : null;
+            Object meta = 2 * i + 1 < results.size() ? results.get(2 * i + 1) : null;
+            Map<Object, Object> metaMap = new HashMap<>();
+            if (meta instanceof Map<?, ?> m) m.forEach(metaMap::put);
+            String flowId = ids.get(i)[0];
+            String runId = ids.get(i)[1];
+            if (def == null && migrateLegacyRun(flowId, runId)) {
+                def = redis.opsForValue().get(RedisKeys.flowDefinition(flowId, runId));
+                metaMap = getFlowMeta(flowId, runId);
+            }
+            out.add(new RecoveryState(flowId, runId, def == null ? null : def.toString(), metaMap));
+        }
+        return out;
+    }
+
+    /* --------------------- Legacy layout migration --------------------- */
+
+    // legacy suffix -> current key, for the fixed per-run keys moved as they are (not the ready queue)
+    private static Map<String, String> legacyRunKeys(String flowId, String runId) {
+        Map<String, String> keys = new LinkedHashMap<>();
+        keys.put("meta", RedisKeys.flowMeta(flowId, runId));
+        keys.put("steps", RedisKeys.stepsHash(flowId, runId));
+        keys.put("context", RedisKeys.context(flowId, runId));
+        keys.put("dag:indegree", RedisKeys.indegree(flowId, runId));
+        keys.put("def", RedisKeys.flowDefinition(flowId, runId));
+        keys.put("attempts", RedisKeys.stepAttempts(flowId, runId));
+        keys.put("inflight", RedisKeys.inFlight(flowId, runId));
+        keys.put("remote", RedisKeys.remoteSteps(flowId, runId));
+        keys.put("lease", RedisKeys.runLease(flowId, runId));
+        return keys;
+    }
+
+    /**
+     * Move a run written in the layout before hash tags (flow:{flowId}:{runId}:...) to the current one:
+     * fixed keys are renamed, the ready queue (a List in the oldest runs) is copied into the ready set,
+     * per-step dependents sets folded into the adjacency hash, per-step output hashes dropped (the context
+     * already holds them) and map results renamed. Legacy runs only exist on standalone Redis, where
+     * renaming across slots (and scripts touching several slots) is allowed.
+     *
+     * @return true if a legacy run was found and moved
+     */
+    public boolean migrateLegacyRun(String flowId, String runId) {
+        if (Boolean.TRUE.equals(redis.hasKey(RedisKeys.flowMeta(flowId, runId)))
+                || !Boolean.TRUE.equals(redis.hasKey(RedisKeys.legacyRunKey(flowId, runId, "meta")))) {
+            return false;
+        }
+        // the ready queue is converted, not renamed: it may still be a List
+        redis.execute(MIGRATE_READY_SCRIPT,
+                List.of(RedisKeys.legacyRunKey(flowId, runId, "queue"), RedisKeys.readyQueue(flowId, runId)));
+        legacyRunKeys(flowId, runId).forEach((suffix, key) -> {
+            String legacy = RedisKeys.legacyRunKey(flowId, runId, suffix);
+            if (Boolean.TRUE.equals(redis.hasKey(legacy))) {
+                redis.rename(legacy, key);
+            }
+        });
+
+        String legacyManaged = RedisKeys.legacyRunKey(flowId, runId, "managed_keys");
+        Set<String> legacyKeys = redis.opsForSet().members(legacyManaged);
+        String dagPrefix = RedisKeys.legacyRunKey(flowId, runId, "dag:");
+        String stepPrefix = RedisKeys.legacyRunKey(flowId, runId, "step:");
+        String mapPrefix = RedisKeys.legacyRunKey(flowId, runId, "map:");
+        Map<String, String> adj = new HashMap<>();
+        for (String legacy : legacyKeys == null ? Set.<String>of() : legacyKeys) {
+            try {
+                if (legacy.startsWith(dagPrefix) && legacy.endsWith(":dependents")) {
+                    String stepId = legacy.substring(dagPrefix.length(), legacy.length() - ":dependents".length());
+                    Set<String> deps = redis.opsForSet().members(legacy);
+                    if (deps != null && !deps.isEmpty()) adj.put(stepId, objectMapper.writeValueAsString(deps));
+                    redis.delete(legacy);
+                } else if (legacy.startsWith(stepPrefix) && legacy.endsWith(":outputs")) {
+                    redis.delete(legacy);
+                } else if (legacy.startsWith(mapPrefix) && Boolean.TRUE.equals(redis.hasKey(legacy))) {
+                    String key = RedisKeys.mapResults(flowId, runId, legacy.substring(mapPrefix.length()));
+                    redis.rename(legacy, key);
+                }
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("Failed to serialize dependents", e);
+            }
+        }
+        if (!adj.isEmpty()) {
+            redis.opsForHash().putAll(RedisKeys.adjacency(flowId, runId), adj);
+        }
+        redis.delete(legacyManaged);
+        return true;
+    }
+
     /* --------------------- Active runs index (global set) --------------------- */
 
     /**
      * Add runKey (format "flowId:runId") to the global active runs set.
-     * This is intentionally NOT recorded into per-flow managed-keys because it's a global index.
+     * This is a global index, not part of any run's keys.
      */
     public void addActiveRun(String runKey) {
         String activeKey = RedisKeys.activeRunsKey();
@@ -270,6 +1330,11 @@ public class RedisExecutionRepository {
         redis.opsForSet().remove(activeKey, runKey);
     }
 
+    public boolean isActiveRun(String runKey) {
+        Boolean member = redis.opsForSet().isMember(RedisKeys.activeRunsKey(), runKey);
+        return Boolean.TRUE.equals(member);
+    }
+
     /**
      * List all active run keys (each entry is "flowId:runId").
      */
@@ -1,58 +1,145 @@
 package com.flowops.execution_engine.persistence.redis;
 
-// flow:{flowId}:{runId}:meta            -> Hash { status, startedAt, pausedAt, lastUpdated }
-// flow:{flowId}:{runId}:steps           -> Hash mapping stepId -> status (PENDING/RUNNING/COMPLETED/FAILED/SKIPPED)
-// flow:{flowId}:{runId}:step:{stepId}:outputs -> Hash of outputs (outputKey -> JSON string value)
-// flow:{flowId}:{runId}:context         -> Hash of "stepId.outputKey" -> serialized value
-// flow:{flowId}:{runId}:dag:indegree   -> Hash of stepId -> integer (remaining deps)
-// flow:{flowId}:{runId}:dag:adj         -> Redis Set per step: dag:{stepId}:dependents (set of stepIds)
-// flow:{flowId}:{runId}:queue           -> List (or Stream) of ready stepIds
+// All keys of a run carry the hash tag {flowId:runId}: they map to one Redis Cluster slot, so the run's
+// Lua scripts may touch any of them. A run has a fixed handful of keys plus one per map step.
+//
+// flow:{flowId:runId}:meta      -> Hash { status, startedAt, pausedAt, remaining, leaseEpoch, stateVersion, ... }
+// flow:{flowId:runId}:steps     -> Hash mapping stepId -> status (PENDING/RUNNING/COMPLETED/FAILED/SKIPPED)
+// flow:{flowId:runId}:context   -> Hash of "stepId.outputKey" -> JSON value (the outputs of every step)
+// flow:{flowId:runId}:indegree  -> Hash of stepId -> integer (remaining deps)
+// flow:{flowId:runId}:adj       -> Hash of stepId -> JSON array of the steps depending on it
+// flow:{flowId:runId}:ready     -> Set of ready stepIds (durable copy of the in-memory ready queue)
+// flow:{flowId:runId}:def       -> String: flattened flow definition (JSON)
+// flow:{flowId:runId}:attempts  -> Hash of stepId -> failed attempt count
+// flow:{flowId:runId}:inflight  -> Set of stepIds currently RUNNING (requeued on recovery)
+// flow:{flowId:runId}:remote    -> Hash of stepId -> "nodeId|offerId", for steps executing on a node other than the owner
+// flow:{flowId:runId}:map:{stepId} -> Hash of item index -> JSON outputs of that item, for map steps
+// flow:{flowId:runId}:lease     -> String "nodeId|epoch" (PX ttl): engine node that owns the run
+// flowops:steal                         -> Stream of offered ready steps {rk, step, p}, consumer group "engine"
+// flowops:steal:done:{partition}        -> Stream of results of stolen steps {rk, step, exec, ok, out, error}, read by the partition owner
+// flowops:retry_queue:{partition}       -> Sorted set of "flowId:runId|stepId" scored by retry due time (epoch ms)
+// flowops:{deferred:partition}:runs     -> List of "flowId:runId" whose START was held back by admission control, oldest first
+// flowops:{deferred:partition}:run:{runKey} -> List of the held commands (JSON) of that run, in arrival order
+// flowops:{memo:pluginId}:{version}:{inputsHash} -> String (PX ttl): JSON outputs of a deterministic plugin for those inputs
+// flowops:{memo:pluginId}:index         -> Sorted set of that plugin's memo entry keys scored by write time, for size-bounded
+//                                          eviction (a plugin's keys share its tag, since eviction deletes entries from a script)
+//
+// Runs written before this layout used flow:{flowId}:{runId}:... keys (see legacyRunKey); they are moved
+// over when first loaded.
 
 public final class RedisKeys {
     private RedisKeys() {}
 
-    public static String flowMeta(String flowId, String runId) {
-        return String.format("flow:%s:%s:meta", flowId, runId);
+    private static String run(String flowId, String runId) {
+        return "flow:{" + flowId + ":" + runId + "}:";
     }
 
-    public static String stepsHash(String flowId, String runId) {
-        return String.format("flow:%s:%s:steps", flowId, runId);
+    public static String flowMeta(String flowId, String runId) {
+        return run(flowId, runId) + "meta";
     }
 
-    public static String stepOutputs(String flowId, String runId, String stepId) {
-        return String.format("flow:%s:%s:step:%s:outputs", flowId, runId, stepId);
+    public static String stepsHash(String flowId, String runId) {
+        return run(flowId, runId) + "steps";
     }
 
     public static String context(String flowId, String runId) {
-        return String.format("flow:%s:%s:context", flowId, runId);
+        return run(flowId, runId) + "context";
     }
 
     public static String indegree(String flowId, String runId) {
-        return String.format("flow:%s:%s:dag:indegree", flowId, runId);
+        return run(flowId, runId) + "indegree";
     }
 
-    public static String dependents(String flowId, String runId, String stepId) {
-        return String.format("flow:%s:%s:dag:%s:dependents", flowId, runId, stepId);
+    public static String adjacency(String flowId, String runId) {
+        return run(flowId, runId) + "adj";
     }
 
     public static String readyQueue(String flowId, String runId) {
-        return String.format("flow:%s:%s:queue", flowId, runId);
+        return run(flowId, runId) + "ready";
+    }
+
+    /**
+     * Key for storing serialized (JSON) flattened flow definition.
+     * e.g. flow:{flowId:runId}:def
+     */
+    public static String flowDefinition(String flowId, String runId) {
+        return run(flowId, runId) + "def";
+    }
+
+    public static String stepAttempts(String flowId, String runId) {
+        return run(flowId, runId) + "attempts";
+    }
+
+    public static String inFlight(String flowId, String runId) {
+        return run(flowId, runId) + "inflight";
+    }
+
+    public static String remoteSteps(String flowId, String runId) {
+        return run(flowId, runId) + "remote";
+    }
+
+    public static String mapResults(String flowId, String runId, String stepId) {
+        return run(flowId, runId) + "map:" + stepId;
+    }
+
+    public static String runLease(String flowId, String runId) {
+        return run(flowId, runId) + "lease";
     }
 
     /**
-     * A private bookkeeping set that contains the list of keys the repository created for this flow/run.
-     * Using this we can safely delete only keys we created (safer than KEYS pattern).
+     * Key of a run in the layout used before hash tags, e.g. legacyRunKey(f, r, "meta") = flow:f:r:meta.
+     * Only read when migrating such a run.
      */
-    public static String managedKeysSet(String flowId, String runId) {
-        return String.format("flow:%s:%s:managed_keys", flowId, runId);
+    public static String legacyRunKey(String flowId, String runId, String suffix) {
+        return "flow:" + flowId + ":" + runId + ":" + suffix;
     }
 
     /**
-     * Key for storing serialized (JSON) flattened flow definition.
-     * e.g. flow:{flowId}:{runId}:def
+     * Shared stream of ready steps offered by busy nodes to nodes with idle workers.
      */
-    public static String flowDefinition(String flowId, String runId) {
-        return String.format("flow:%s:%s:def", flowId, runId);
+    public static String stealStream() {
+        return "flowops:steal";
+    }
+
+    /**
+     * Results of stolen steps, per execution.commands partition so only the run owner reads them.
+     */
+    public static String stealResults(int partition) {
+        return "flowops:steal:done:" + partition;
+    }
+
+    /**
+     * Delay queue of step retries for one execution.commands partition, so each engine node only polls
+     * the runs it owns. Members are "flowId:runId|stepId", score = due time in epoch ms.
+     */
+    public static String retryQueueKey(int partition) {
+        return "flowops:retry_queue:" + partition;
+    }
+
+    /**
+     * Runs of one execution.commands partition whose START is held back while the engine is saturated,
+     * in arrival order. Shares the {deferred:partition} tag with deferredCommands.
+     */
+    public static String deferredRuns(int partition) {
+        return "flowops:{deferred:" + partition + "}:runs";
+    }
+
+    /**
+     * Held commands of one run (its START and whatever arrived after it), as the JSON read from Kafka.
+     */
+    public static String deferredCommands(int partition, String runKey) {
+        return "flowops:{deferred:" + partition + "}:run:" + runKey;
+    }
+
+    /**
+     * Memoized outputs of a deterministic plugin version for one hash of its resolved inputs.
+     */
+    public static String memoEntry(String pluginId, String version, String inputsHash) {
+        return "flowops:{memo:" + pluginId + "}:" + version + ":" + inputsHash;
+    }
+
+    public static String memoIndex(String pluginId) {
+        return "flowops:{memo:" + pluginId + "}:index";
     }
 
     /**
@@ -0,0 +1,163 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.model.Step;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConditionCompilerTest {
+
+    private final ConditionCompiler compiler = new ConditionCompiler();
+
+    private boolean eval(String expr, Map<String, Object> context) {
+        return compiler.compile(expr).test(context::get);
+    }
+
+    private boolean eval(String expr) {
+        return eval(expr, Map.of());
+    }
+
+    @Test
+    void andBindsTighterThanOr() {
+        Map<String, Object> ctx = Map.of("a.x", true, "b.y", false, "c.z", false);
+        assertThat(eval("a.x || b.y && c.z", ctx)).isTrue();
+        assertThat(eval("(a.x || b.y) && c.z", ctx)).isFalse();
+        assertThat(eval("b.y && c.z || a.x", ctx)).isTrue();
+    }
+
+    @Test
+    void notAppliesToTheWholeComparison() {
+        Map<String, Object> ctx = Map.of("a.x", 1);
+        assertThat(eval("!a.x == 1", ctx)).isFalse();
+        assertThat(eval("!a.x == 2", ctx)).isTrue();
+        assertThat(eval("!!a.x", ctx)).isTrue();
+        assertThat(eval("a.x != 2", ctx)).isTrue();
+    }
+
+    @Test
+    void literals() {
+        assertThat(eval("true")).isTrue();
+        assertThat(eval("false")).isFalse();
+        assertThat(eval("null")).isFalse();
+        assertThat(eval("0")).isFalse();
+        assertThat(eval("-1.5 < 0")).isTrue();
+        assertThat(eval("1.50 == 1.5")).isTrue();
+        assertThat(eval("'it\\'s' == \"it's\"")).isTrue();
+        assertThat(eval("''")).isFalse();
+        assertThat(eval("'abc' < 'abd'")).isTrue();
+    }
+
+    @Test
+    void numbersCompareNumericallyAcrossTypes() {
+        Map<String, Object> ctx = Map.of("a.int", 3, "a.long", 3L, "a.double", 3.0, "a.dec", new BigDecimal("3.00"));
+        assertThat(eval("a.int == a.double", ctx)).isTrue();
+        assertThat(eval("a.long == a.dec", ctx)).isTrue();
+        assertThat(eval("a.int >= 3 && a.double <= 3", ctx)).isTrue();
+        assertThat(eval("a.int > 2.5", ctx)).isTrue();
+    }
+
+    @Test
+    void mixedTypesAreNeitherEqualNorOrdered() {
+        Map<String, Object> ctx = Map.of("a.num", 1, "a.str", "1", "a.flag", true);
+        assertThat(eval("a.num == '1'", ctx)).isFalse();
+        assertThat(eval("a.num != a.str", ctx)).isTrue();
+        assertThat(eval("a.num < 'b'", ctx)).isFalse();
+        assertThat(eval("a.num >= 'b'", ctx)).isFalse();
+        assertThat(eval("a.flag == 1", ctx)).isFalse();
+        assertThat(eval("a.flag == true", ctx)).isTrue();
+    }
+
+    @Test
+    void missingReferencesAreNull() {
+        Map<String, Object> ctx = Map.of("a.obj", Map.of("items", List.of(10, 20)));
+        assertThat(eval("b.x", ctx)).isFalse();
+        assertThat(eval("b.x == null", ctx)).isTrue();
+        assertThat(eval("b.x > 0", ctx)).isFalse();
+        assertThat(eval("b.x <= 0", ctx)).isFalse();
+        assertThat(eval("a.obj.missing.deeper == null", ctx)).isTrue();
+        assertThat(eval("a.obj.items.5 == null", ctx)).isTrue();
+        assertThat(eval("a.obj.items.name == null", ctx)).isTrue();
+    }
+
+    @Test
+    void referencesNavigateObjectsAndArrays() {
+        Map<String, Object> ctx = Map.of("a.obj", Map.of("items", List.of(10, Map.of("n", "x"))));
+        assertThat(eval("a.obj.items.0 == 10", ctx)).isTrue();
+        assertThat(eval("${a.obj.items.1.n} == 'x'", ctx)).isTrue();
+        assertThat(eval("a.obj.items", ctx)).isTrue();
+    }
+
+    @Test
+    void reportsReadKeysAndSteps() {
+        ConditionCompiler.Condition c = compiler.compile("a.x.y > 1 || ${b.z} == 'q' && a.w");
+        assertThat(c.contextKeys()).containsExactlyInAnyOrder("a.x", "b.z", "a.w");
+        assertThat(c.stepIds()).containsExactlyInAnyOrder("a", "b");
+    }
+
+    @Test
+    void cachesCompiledConditions() {
+        assertThat(compiler.compile("  a.x == 1 ")).isSameAs(compiler.compile("a.x == 1"));
+        assertThat(compiler.compile(" ")).isNull();
+        assertThat(compiler.compile(null)).isNull();
+    }
+
+    @Test
+    void rejectsMalformedExpressions() {
+        for (String bad : List.of("a.x ==", "(a.x", "'abc", "foo", "a.x }", "${a.x", "a.x == 1 1", "&& a.x", "a.")) {
+            assertThatThrownBy(() -> compiler.compile(bad))
+                    .as(bad)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Invalid condition");
+        }
+    }
+
+    @Test
+    void defaultBranchIsTakenOnlyWhenNoSiblingHolds() {
+        Step decide = Step.of("decide").withPluginId("classify")
+                .addBranch(Step.of("isA").withCondition("decide.kind == 'a'"))
+                .addBranch(Step.of("isB").withCondition("decide.kind == 'b'"))
+                .addBranch(Step.of("other"));
+        Map<String, Step> flat = new LinkedHashMap<>();
+        flat.put("decide", decide);
+        decide.getBranches().forEach(b -> flat.put(b.getStepId(), b));
+        ConditionCompiler.FlowConditions conditions = compiler.forFlow(flat);
+
+        Map<String, Object> ctx = new HashMap<>();
+        Function<String, Object> lookup = ctx::get;
+        ctx.put("decide.kind", "a");
+        assertThat(conditions.holds("isA", lookup)).isTrue();
+        assertThat(conditions.holds("isB", lookup)).isFalse();
+        assertThat(conditions.holds("other", lookup)).isFalse();
+
+        ctx.put("decide.kind", "c");
+        assertThat(conditions.holds("isA", lookup)).isFalse();
+        assertThat(conditions.holds("isB", lookup)).isFalse();
+        assertThat(conditions.holds("other", lookup)).isTrue();
+
+        ctx.remove("decide.kind");
+        assertThat(conditions.holds("other", lookup)).isTrue();
+
+        assertThat(conditions.contextKeys("other")).containsExactly("decide.kind");
+        assertThat(conditions.isGuarded("other")).isTrue();
+        assertThat(conditions.isControl("other")).isTrue();
+        assertThat(conditions.isGuarded("decide")).isFalse();
+        assertThat(conditions.isControl("decide")).isFalse();
+    }
+
+    @Test
+    void stepsWithoutConditionOrBranchAlwaysHold() {
+        Map<String, Step> flat = Map.of("plain", Step.of("plain").withPluginId("p"));
+        ConditionCompiler.FlowConditions conditions = compiler.forFlow(flat);
+        assertThat(conditions.isGuarded("plain")).isFalse();
+        assertThat(conditions.holds("plain", k -> null)).isTrue();
+        assertThat(conditions.contextKeys("plain")).isEmpty();
+    }
+}
@@ -0,0 +1,113 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.model.Step;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DAGBuilderTest {
+
+    private final DAGBuilder builder = new DAGBuilder(new ConditionCompiler());
+
+    private DAGBuilder.DAG build(Step... steps) {
+        return builder.buildDAG(builder.flattenSteps(List.of(steps)));
+    }
+
+    @Test
+    void inputReferencesBecomeEdgesCountedOnce() {
+        DAGBuilder.DAG dag = build(
+                Step.of("a").withPluginId("p"),
+                Step.of("b").withPluginId("p").withInputs(Map.of("x", "${a.out}", "y", "a.other and a.out")));
+        assertThat(dag.getAdjacency().get("a")).containsExactly("b");
+        assertThat(dag.getIndegree()).containsEntry("a", 0).containsEntry("b", 1);
+    }
+
+    @Test
+    void conditionReferencesBecomeEdges() {
+        DAGBuilder.DAG dag = build(
+                Step.of("a").withPluginId("p"),
+                Step.of("b").withPluginId("p"),
+                Step.of("c").withPluginId("p").withCondition("a.ok && ${b.count} > 2"));
+        assertThat(dag.getAdjacency().get("a")).containsExactly("c");
+        assertThat(dag.getAdjacency().get("b")).containsExactly("c");
+        assertThat(dag.getIndegree()).containsEntry("c", 2);
+    }
+
+    @Test
+    void mapStepDependsOnItsList() {
+        DAGBuilder.DAG dag = build(
+                Step.of("list").withPluginId("p"),
+                Step.of("each").withPluginId("p").withConfig(Map.of("mapOver", "${list.items}")));
+        assertThat(dag.getAdjacency().get("list")).containsExactly("each");
+        assertThat(dag.getIndegree()).containsEntry("each", 1);
+    }
+
+    @Test
+    void gatesDependOnTheDecisionAndNestedStepsOnTheGate() {
+        Step decide = Step.of("decide").withPluginId("p")
+                .addBranch(Step.of("yes").withCondition("decide.ok")
+                        .addChild(Step.of("work").withPluginId("p")
+                                .addChild(Step.of("deeper").withPluginId("p"))))
+                .addBranch(Step.of("no"));
+        DAGBuilder.DAG dag = build(decide);
+        assertThat(dag.getAdjacency().get("decide")).containsExactlyInAnyOrder("yes", "no");
+        assertThat(dag.getAdjacency().get("yes")).containsExactlyInAnyOrder("work", "deeper");
+        // the condition on decide.ok adds no second decide -> yes edge
+        assertThat(dag.getIndegree()).containsEntry("yes", 1).containsEntry("no", 1)
+                .containsEntry("work", 1).containsEntry("deeper", 1);
+    }
+
+    @Test
+    void unknownReferencesAreRejected() {
+        assertThatThrownBy(() -> build(Step.of("b").withPluginId("p").withInputs(Map.of("x", "missing.out"))))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("missing");
+        assertThatThrownBy(() -> build(Step.of("b").withPluginId("p").withCondition("missing.ok")))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("condition");
+        assertThatThrownBy(() -> build(Step.of("b").withPluginId("p").withConfig(Map.of("mapOver", "missing.items"))))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("maps over");
+        assertThatThrownBy(() -> build(Step.of("a"), Step.of("a")))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Duplicate");
+    }
+
+    @Test
+    void criticalPathRanksAddTheLongestWeightedTail() {
+        DAGBuilder.DAG dag = dag(Map.of(
+                "a", Set.of("b", "d"),
+                "b", Set.of("c"),
+                "c", Set.of(),
+                "d", Set.of()));
+        Map<String, Long> weights = Map.of("a", 1L, "b", 5L, "c", 2L, "d", 3L);
+        Map<String, Long> ranks = builder.criticalPathRanks(dag, weights::get);
+        assertThat(ranks).containsEntry("c", 2L).containsEntry("d", 3L).containsEntry("b", 7L).containsEntry("a", 8L);
+    }
+
+    @Test
+    void criticalPathRanksCountAtLeastOnePerStep() {
+        DAGBuilder.DAG dag = dag(Map.of("a", Set.of("b"), "b", Set.of()));
+        assertThat(builder.criticalPathRanks(dag, id -> 0)).containsEntry("b", 1L).containsEntry("a", 2L);
+    }
+
+    @Test
+    void cyclesAreDetected() {
+        DAGBuilder.DAG dag = dag(Map.of("a", Set.of("b"), "b", Set.of("a")));
+        assertThatThrownBy(() -> builder.topologicalSort(dag)).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static DAGBuilder.DAG dag(Map<String, Set<String>> edges) {
+        Map<String, Set<String>> adjacency = new LinkedHashMap<>();
+        Map<String, Integer> indegree = new LinkedHashMap<>();
+        edges.keySet().stream().sorted().forEach(id -> {
+            adjacency.put(id, new LinkedHashSet<>(edges.get(id)));
+            indegree.putIfAbsent(id, 0);
+        });
+        edges.values().forEach(deps -> deps.forEach(d -> indegree.merge(d, 1, Integer::sum)));
+        return new DAGBuilder.DAG(adjacency, indegree);
+    }
+}
@@ -0,0 +1,80 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.executor.WorkerPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class FairShareSchedulerTest {
+
+    private final WorkerPool pool = new WorkerPool("platform", 4);
+    private final FairShareScheduler scheduler = new FairShareScheduler(pool, "run", "", 0.5);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private FlowRunControl run(String runId, int ready) {
+        FlowRunControl ctrl = new FlowRunControl("f", runId, null, Map.of(), null, Map.of(), "node|1", null);
+        ctrl.setRunning(true);
+        for (int i = 0; i < ready; i++) ctrl.offerReady(runId + "-" + i);
+        scheduler.register(ctrl);
+        scheduler.signal(ctrl);
+        return ctrl;
+    }
+
+    private List<String> dispatch(int n) {
+        return assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            List<String> runs = new ArrayList<>();
+            for (int i = 0; i < n; i++) runs.add(scheduler.next().run().runId);
+            return runs;
+        });
+    }
+
+    @Test
+    void aRunAloneMayUseEveryWorker() {
+        run("a", 10);
+        assertThat(dispatch(4)).containsExactly("a", "a", "a", "a");
+        assertThat(scheduler.inFlight()).isEqualTo(4);
+    }
+
+    @Test
+    void runsSharingTheWorkersAreCappedAtTheirShare() {
+        run("a", 10);
+        run("b", 10);
+        assertThat(dispatch(4)).containsExactlyInAnyOrder("a", "a", "b", "b");
+    }
+
+    @Test
+    void aRunOverItsShareYieldsToANewRun() {
+        FlowRunControl a = run("a", 10);
+        dispatch(4); // a holds every worker
+        run("b", 10);
+
+        scheduler.release(a);
+        scheduler.release(a);
+        // a is still at its cap of 2, so the free slots go to b
+        assertThat(dispatch(2)).containsExactly("b", "b");
+    }
+
+    @Test
+    void aParkedRunTakesSlotsNoOtherRunCanUse() {
+        run("a", 10);
+        FlowRunControl b = run("b", 1);
+        assertThat(dispatch(3)).containsExactlyInAnyOrder("a", "a", "b");
+
+        // b has nothing left to run, so a goes past its share
+        assertThat(dispatch(1)).containsExactly("a");
+        scheduler.release(b);
+        assertThat(dispatch(1)).containsExactly("a");
+        assertThat(scheduler.inFlight()).isEqualTo(4);
+    }
+}
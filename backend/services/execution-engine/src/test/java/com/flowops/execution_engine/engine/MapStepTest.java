@@ -0,0 +1,70 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.model.Step;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MapStepTest {
+
+    private static MapStep map(int items, int parallelism, Set<Integer> done) {
+        Step step = Step.of("each").withPluginId("p")
+                .withConfig(Map.of("mapOver", "${list.items}", "parallelism", parallelism));
+        return new MapStep(step, new ArrayList<>(Collections.nCopies(items, "x")), done);
+    }
+
+    @Test
+    void startsUpToParallelismAndSkipsDoneItems() {
+        MapStep map = map(5, 2, Set.of(0));
+        assertThat(map.start()).containsExactly(1, 2);
+        assertThat(map.claim(1)).isTrue();
+        assertThat(map.claim(1)).isFalse();
+    }
+
+    @Test
+    void eachFinishedItemIssuesTheNext() {
+        MapStep map = map(3, 2, Set.of());
+        map.start();
+        map.claim(0);
+        map.claim(1);
+        assertThat(map.finished(0, null)).isEqualTo(2);
+        assertThat(map.finished(1, null)).isEqualTo(-1);
+        map.claim(2);
+        assertThat(map.isSettled()).isFalse();
+        map.finished(2, null);
+        assertThat(map.isSettled()).isTrue();
+        assertThat(map.failure()).isNull();
+    }
+
+    @Test
+    void aFailureWithdrawsIssuedItemsThatWereNotSubmitted() {
+        MapStep map = map(10, 3, Set.of());
+        map.start();
+        map.claim(0); // 1 and 2 are still on the ready queue
+
+        assertThat(map.finished(0, "boom")).isEqualTo(-1);
+
+        assertThat(map.claim(1)).isFalse();
+        assertThat(map.claim(2)).isFalse();
+        assertThat(map.isSettled()).isTrue();
+        assertThat(map.failure()).contains("Item 0 failed: boom");
+    }
+
+    @Test
+    void aFailureWaitsForSubmittedItems() {
+        MapStep map = map(10, 3, Set.of());
+        map.start();
+        map.claim(0);
+        map.claim(1);
+
+        map.finished(0, "boom");
+        assertThat(map.isSettled()).isFalse();
+        map.finished(1, null);
+        assertThat(map.isSettled()).isTrue();
+    }
+}
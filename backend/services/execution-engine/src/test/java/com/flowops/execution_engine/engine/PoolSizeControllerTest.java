@@ -0,0 +1,86 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.executor.WorkerPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PoolSizeControllerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private final WorkerPool pool = new WorkerPool("platform", 8);
+    private final FairShareScheduler scheduler = new FairShareScheduler(pool, "owner", "", 1.0);
+    private final PoolSizeController controller = new PoolSizeController(pool, scheduler, false, 1, 100_000, 1.0, 5000);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    // 100 steps of 10 ms each, of which cpuShare was spent on the CPU
+    private static WorkerPool.Stats steps(double cpuShare, long poolQueueWaitNanos) {
+        long service = 100 * 10 * MS;
+        return new WorkerPool.Stats(100, poolQueueWaitNanos, service, 100, (long) (service * cpuShare), service);
+    }
+
+    private static FairShareScheduler.QueueStats slotWait(long avgWaitNanos) {
+        return new FairShareScheduler.QueueStats(100, 100 * avgWaitNanos);
+    }
+
+    @Test
+    void growsBlockingStepsThatWaitForASlotByAtMostAQuarter() {
+        // W/C = 9, so the estimate is far above 8
+        assertThat(controller.nextSize(steps(0.1, 0), slotWait(5 * MS), 8)).isEqualTo(10);
+    }
+
+    @Test
+    void doesNotGrowWhenReadyStepsDoNotWaitForASlot() {
+        assertThat(controller.nextSize(steps(0.1, 0), slotWait(0), 8)).isEqualTo(8);
+    }
+
+    @Test
+    void ignoresQueueWaitInsideTheWorkerPool() {
+        // the scheduler caps in-flight steps, so wait inside the pool is not a reason to grow
+        assertThat(controller.nextSize(steps(0.1, 100 * 5 * MS), slotWait(0), 8)).isEqualTo(8);
+    }
+
+    @Test
+    void shrinksTowardsTheCoreCountForCpuBoundSteps() {
+        int current = CORES * 4;
+        int next = controller.nextSize(steps(1.0, 0), slotWait(0), current);
+        assertThat(next).isEqualTo(Math.max(CORES, current - current / 4));
+    }
+
+    @Test
+    void keepsTheSizeWithTooFewSamples() {
+        WorkerPool.Stats few = new WorkerPool.Stats(3, 0, 30 * MS, 3, 3 * MS, 30 * MS);
+        assertThat(controller.nextSize(few, slotWait(5 * MS), 8)).isEqualTo(8);
+    }
+
+    @Test
+    void schedulerMeasuresHowLongReadyStepsWaitForASlot() throws InterruptedException {
+        scheduler.setCapacity(1);
+        FlowRunControl run = new FlowRunControl("f", "r", "alice", Map.of(), null, Map.of(), "node|1", null);
+        run.setRunning(true);
+        run.offerAllReady(List.of("a", "b"));
+        scheduler.register(run);
+        scheduler.signal(run);
+
+        assertThat(scheduler.next().stepId()).isEqualTo("a");
+        Thread.sleep(30); // "b" is ready but the only slot is taken
+        scheduler.release(run);
+        assertThat(scheduler.next().stepId()).isEqualTo("b");
+
+        FairShareScheduler.QueueStats stats = scheduler.drainQueueStats();
+        assertThat(stats.dispatched()).isEqualTo(2);
+        assertThat(stats.waitNanos()).isGreaterThanOrEqualTo(30 * MS);
+        assertThat(scheduler.drainQueueStats().dispatched()).isZero();
+    }
+}
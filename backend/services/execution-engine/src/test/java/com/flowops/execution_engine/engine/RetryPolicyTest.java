@@ -0,0 +1,78 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.model.Step;
+import org.junit.jupiter.api.Test;
+
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(10_000);
+
+    private static Step step(long retryCount, long retryDelayMs) {
+        return Step.of("s").withConfig(Map.of("retryCount", retryCount, "retryDelayMs", retryDelayMs));
+    }
+
+    private static LongSummaryStatistics samples(LongSupplier backoff) {
+        return LongStream.generate(backoff).limit(2_000).summaryStatistics();
+    }
+
+    private static void assertAllBetween(LongSupplier backoff, long min, long max) {
+        LongSummaryStatistics ms = samples(backoff);
+        assertThat(ms.getMin()).isGreaterThanOrEqualTo(min);
+        assertThat(ms.getMax()).isLessThanOrEqualTo(max);
+    }
+
+    @Test
+    void retriesUntilTheFailedAttemptsReachTheRetryCount() {
+        Step twice = step(2, 100);
+        assertThat(policy.shouldRetry(twice, 1)).isTrue();
+        assertThat(policy.shouldRetry(twice, 2)).isTrue();
+        assertThat(policy.shouldRetry(twice, 3)).isFalse();
+
+        assertThat(policy.shouldRetry(Step.of("s"), 1)).isFalse();
+    }
+
+    @Test
+    void backoffDoublesPerFailedAttemptWithinEqualJitter() {
+        Step s = step(5, 1_000);
+        for (int attempt = 1; attempt <= 3; attempt++) {
+            long delay = 1_000L << (attempt - 1);
+            int failed = attempt;
+            assertAllBetween(() -> policy.backoffMs(s, failed), delay / 2, delay);
+        }
+    }
+
+    @Test
+    void jitterSpreadsOverTheWholeUpperHalf() {
+        LongSummaryStatistics ms = samples(() -> policy.backoffMs(step(1, 1_000), 1));
+        assertThat(ms.getMin()).isLessThan(600);
+        assertThat(ms.getMax()).isGreaterThan(900);
+    }
+
+    @Test
+    void backoffIsCappedAtTheMaxDelay() {
+        assertAllBetween(() -> policy.backoffMs(step(10, 1_000), 8), 5_000, 10_000);
+    }
+
+    @Test
+    void theShiftIsClamped() {
+        RetryPolicy uncapped = new RetryPolicy(Long.MAX_VALUE);
+        long maxDelay = 1L << 30;
+        // 2^1000 would overflow; the exponent stops at 30
+        assertAllBetween(() -> uncapped.backoffMs(step(2_000, 1), 1_000), maxDelay / 2, maxDelay);
+        // attempt numbers below 1 do not shift right
+        assertAllBetween(() -> uncapped.backoffMs(step(1, 1_000), 0), 500, 1_000);
+    }
+
+    @Test
+    void noDelayWithoutRetryDelay() {
+        assertThat(policy.backoffMs(step(3, 0), 2)).isZero();
+        assertThat(policy.backoffMs(Step.of("s"), 2)).isZero();
+    }
+}
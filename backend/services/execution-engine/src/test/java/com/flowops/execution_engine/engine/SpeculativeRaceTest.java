@@ -0,0 +1,75 @@
+package com.flowops.execution_engine.engine;
+
+import com.flowops.execution_engine.executor.StepExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class SpeculativeRaceTest {
+
+    private final FlowRunControl ctrl = new FlowRunControl("f", "r", "alice", Map.of(), null, Map.of(), "node|1", null);
+    private final List<Object> reported = new ArrayList<>();
+    private final StepExecutor.Execution first = mock(StepExecutor.Execution.class);
+    private final StepExecutor.Execution duplicate = mock(StepExecutor.Execution.class);
+    private final CompletableFuture<Object> firstFuture = new CompletableFuture<>();
+    private final CompletableFuture<Object> duplicateFuture = new CompletableFuture<>();
+
+    private SpeculativeRace race() {
+        SpeculativeRace race = new SpeculativeRace(ctrl, "s#1", first,
+                (outputs, err) -> reported.add(err != null ? err : outputs));
+        ctrl.addRunningFuture("s#1", firstFuture);
+        assertThat(race.addAttempt("s#2", duplicate)).isTrue();
+        ctrl.addRunningFuture("s#2", duplicateFuture);
+        return race;
+    }
+
+    @Test
+    void theFirstSuccessWinsAndTheOtherAttemptsAreCancelled() {
+        SpeculativeRace race = race();
+
+        race.complete("s#2", Map.of("out", "dup"), null);
+
+        assertThat(reported).containsExactly(Map.of("out", "dup"));
+        assertThat(firstFuture).isCancelled();
+        verify(first).stop();
+        verify(duplicate, never()).stop();
+        assertThat(duplicateFuture).isNotDone();
+
+        // the cancelled loser still reports, and a late attempt is not started
+        race.complete("s#1", null, new CancellationException());
+        assertThat(race.addAttempt("s#3", mock(StepExecutor.Execution.class))).isFalse();
+        assertThat(reported).hasSize(1);
+    }
+
+    @Test
+    void aFailureIsReportedOnlyOnceNoAttemptIsRunning() {
+        SpeculativeRace race = race();
+        RuntimeException firstError = new RuntimeException("first");
+        RuntimeException lastError = new RuntimeException("last");
+
+        race.complete("s#1", null, firstError);
+        assertThat(reported).isEmpty();
+
+        race.complete("s#2", null, lastError);
+        assertThat(reported).containsExactly(lastError);
+    }
+
+    @Test
+    void aDuplicateCanStillSucceedAfterTheFirstAttemptFailed() {
+        SpeculativeRace race = race();
+
+        race.complete("s#1", null, new RuntimeException("boom"));
+        race.complete("s#2", Map.of("out", "dup"), null);
+
+        assertThat(reported).containsExactly(Map.of("out", "dup"));
+    }
+}
@@ -0,0 +1,53 @@
+package com.flowops.execution_engine.engine;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StepDurationStatsTest {
+
+    private final StepDurationStats stats = new StepDurationStats();
+
+    private void recordRange(String pluginId, int from, int to) {
+        // out of order, so the percentile has to sort
+        for (int v = to; v >= from; v--) stats.record(pluginId, v);
+    }
+
+    @Test
+    void p95IsTheNearestRank() {
+        recordRange("p", 1, 20);
+        // ceil(0.95 * 20) = 19th smallest
+        assertThat(stats.p95Ms("p", 20)).isEqualTo(19);
+
+        recordRange("q", 1, 100);
+        assertThat(stats.p95Ms("q", 1)).isEqualTo(95);
+
+        stats.record("single", 42);
+        assertThat(stats.p95Ms("single", 1)).isEqualTo(42);
+    }
+
+    @Test
+    void p95NeedsTheMinimumSamples() {
+        recordRange("p", 1, 19);
+        assertThat(stats.p95Ms("p", 20)).isEqualTo(-1);
+        assertThat(stats.p95Ms("unknown", 1)).isEqualTo(-1);
+        assertThat(stats.p95Ms(null, 1)).isEqualTo(-1);
+    }
+
+    @Test
+    void p95OnlyCountsTheLastWindowOfSamples() {
+        // 128 samples are kept: 73..200 after recording 1..200 in order
+        for (int v = 1; v <= 200; v++) stats.record("p", v);
+        // ceil(0.95 * 128) = 122nd smallest of 73..200
+        assertThat(stats.p95Ms("p", 1)).isEqualTo(194);
+    }
+
+    @Test
+    void expectedDurationIsAMovingAverage() {
+        assertThat(stats.expectedDurationMs("p")).isEqualTo(-1);
+        stats.record("p", 100);
+        assertThat(stats.expectedDurationMs("p")).isEqualTo(100);
+        stats.record("p", 200);
+        assertThat(stats.expectedDurationMs("p")).isEqualTo(120);
+    }
+}
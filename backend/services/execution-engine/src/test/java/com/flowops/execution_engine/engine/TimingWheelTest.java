@@ -0,0 +1,69 @@
+package com.flowops.execution_engine.engine;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimingWheelTest {
+
+    // 8 ticks of 10 ms: the first level spans 80 ms, the overflow level 640 ms
+    private final TimingWheel wheel = new TimingWheel(10, 8);
+
+    @AfterEach
+    void shutdown() {
+        wheel.shutdown();
+    }
+
+    /** Schedules and returns the ms from scheduling to firing. */
+    private static CompletableFuture<Long> elapsedAfter(TimingWheel wheel, long delayMs) {
+        CompletableFuture<Long> fired = new CompletableFuture<>();
+        long t0 = System.nanoTime();
+        wheel.schedule(delayMs, () -> fired.complete(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0)));
+        return fired;
+    }
+
+    @Test
+    void firesADeadlineWithinTheFirstLevel() throws Exception {
+        assertThat(elapsedAfter(wheel, 35).get(5, TimeUnit.SECONDS)).isGreaterThanOrEqualTo(35);
+    }
+
+    @Test
+    void anOverflowDeadlineCascadesDownAndFiresNoEarlierThanDue() throws Exception {
+        CompletableFuture<Long> far = elapsedAfter(wheel, 250);
+        CompletableFuture<Long> farther = elapsedAfter(wheel, 500);
+
+        Thread.sleep(150);
+        assertThat(far).isNotDone();
+        assertThat(far.get(5, TimeUnit.SECONDS)).isGreaterThanOrEqualTo(250);
+        assertThat(farther.get(5, TimeUnit.SECONDS)).isGreaterThanOrEqualTo(500);
+    }
+
+    @Test
+    void aCancelledTimeoutNeverRuns() throws Exception {
+        AtomicBoolean ran = new AtomicBoolean();
+        wheel.schedule(30, () -> ran.set(true)).cancel();
+        wheel.schedule(200, () -> ran.set(true)).cancel();
+        // a later timeout firing shows the wheel got past both
+        CompletableFuture<Long> after = elapsedAfter(wheel, 250);
+
+        after.get(5, TimeUnit.SECONDS);
+        assertThat(ran).isFalse();
+    }
+
+    @Test
+    void aNonPositiveDelayFiresImmediately() throws Exception {
+        TimingWheel coarse = new TimingWheel(10_000, 8);
+        try {
+            // well before the first 10 s tick
+            assertThat(elapsedAfter(coarse, 0).get(2, TimeUnit.SECONDS)).isLessThan(2_000);
+            assertThat(elapsedAfter(coarse, -5).get(2, TimeUnit.SECONDS)).isLessThan(2_000);
+        } finally {
+            coarse.shutdown();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.flowops.execution_engine.executor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BulkheadTest {
+
+    private final Bulkhead bulkhead = new Bulkhead("p", () -> 1, 10);
+    private final List<String> woken = new ArrayList<>();
+
+    private Bulkhead.Admission enter(String owner, boolean takes) {
+        return bulkhead.tryEnter(owner, () -> {
+            woken.add(owner);
+            return takes;
+        });
+    }
+
+    @Test
+    void exitHandsThePermitToTheOldestWaiter() {
+        assertThat(enter("a", true)).isEqualTo(Bulkhead.Admission.ENTERED);
+        assertThat(enter("b", true)).isEqualTo(Bulkhead.Admission.QUEUED);
+        assertThat(enter("c", true)).isEqualTo(Bulkhead.Admission.QUEUED);
+
+        bulkhead.exit();
+
+        assertThat(woken).containsExactly("b");
+        assertThat(bulkhead.active()).isEqualTo(1);
+        // the permit went to b, so nobody can barge in ahead of c
+        assertThat(bulkhead.tryEnterNow()).isFalse();
+        assertThat(bulkhead.queued()).isEqualTo(1);
+    }
+
+    @Test
+    void aDeclinedPermitMovesOnToTheNextWaiter() {
+        enter("a", true);
+        enter("gone", false);
+        enter("gone", false);
+        enter("c", true);
+
+        bulkhead.exit();
+
+        assertThat(woken).containsExactly("gone", "gone", "c");
+        assertThat(bulkhead.active()).isEqualTo(1);
+        assertThat(bulkhead.queued()).isZero();
+    }
+
+    @Test
+    void thePermitIsFreedWhenNoWaiterTakesIt() {
+        enter("a", true);
+        enter("gone", false);
+
+        bulkhead.exit();
+
+        assertThat(bulkhead.active()).isZero();
+        assertThat(bulkhead.tryEnterNow()).isTrue();
+    }
+
+    @Test
+    void purgeDropsTheWaitersOfAnOwner() {
+        enter("a", true);
+        enter("gone", true);
+        enter("c", true);
+        enter("gone", true);
+
+        assertThat(bulkhead.purge("gone")).isEqualTo(2);
+        bulkhead.exit();
+
+        assertThat(woken).containsExactly("c");
+    }
+
+    @Test
+    void aShrunkBulkheadDropsThePermitInsteadOfHandingItOver() {
+        int[] limit = {2};
+        Bulkhead shrinking = new Bulkhead("p", () -> limit[0], 10);
+        shrinking.tryEnterNow();
+        shrinking.tryEnterNow();
+        shrinking.tryEnter("w", () -> {
+            woken.add("w");
+            return true;
+        });
+        limit[0] = 1;
+
+        shrinking.exit();
+        assertThat(woken).isEmpty();
+        assertThat(shrinking.active()).isEqualTo(1);
+
+        shrinking.exit();
+        assertThat(woken).containsExactly("w");
+        assertThat(shrinking.active()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,76 @@
+package com.flowops.execution_engine.executor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InterruptibleFutureTest {
+
+    private final WorkerPool pool = new WorkerPool("platform", 1);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    // a plugin that ignores interrupts until released
+    private InterruptibleFuture<String> stubborn(CountDownLatch started, CountDownLatch release) {
+        return pool.submit(() -> {
+            started.countDown();
+            while (true) {
+                try {
+                    if (release.await(10, TimeUnit.SECONDS)) return "done";
+                } catch (InterruptedException ignored) {
+                    // keeps going
+                }
+            }
+        });
+    }
+
+    @Test
+    void exitActionWaitsForACancelledTaskToReturn() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InterruptibleFuture<String> future = stubborn(started, release);
+        CompletableFuture<Throwable> exited = new CompletableFuture<>();
+        future.whenExitedAsync((out, err) -> exited.complete(err), Runnable::run);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(future.cancel(true)).isTrue();
+        assertThat(future.isCancelled()).isTrue();
+        Thread.sleep(50);
+        assertThat(exited).isNotDone();
+
+        release.countDown();
+        assertThat(exited.get(5, TimeUnit.SECONDS)).isInstanceOf(CancellationException.class);
+    }
+
+    @Test
+    void exitActionRunsAtOnceForATaskCancelledBeforeItStarted() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        stubborn(started, release); // occupies the only worker
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        InterruptibleFuture<String> queued = pool.submit(() -> "never");
+        CompletableFuture<Throwable> exited = new CompletableFuture<>();
+        queued.whenExitedAsync((out, err) -> exited.complete(err), Runnable::run);
+        queued.cancel(true);
+
+        assertThat(exited.get(5, TimeUnit.SECONDS)).isInstanceOf(CancellationException.class);
+        release.countDown();
+    }
+
+    @Test
+    void exitActionGetsTheResult() throws Exception {
+        CompletableFuture<String> exited = new CompletableFuture<>();
+        pool.submit(() -> "ok").whenExitedAsync((out, err) -> exited.complete(out), Runnable::run);
+        assertThat(exited.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+    }
+}
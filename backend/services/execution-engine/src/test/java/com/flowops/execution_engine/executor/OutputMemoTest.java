@@ -0,0 +1,59 @@
+package com.flowops.execution_engine.executor;
+
+import com.flowops.common.grpc.PluginMetadata;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OutputMemoTest {
+
+    private static final PluginMetadata V1 = PluginMetadata.newBuilder().setId("v1").build();
+
+    // keyFor never touches Redis
+    private final OutputMemo memo = new OutputMemo(null, "json-transform, set-variable", 60_000, 100);
+
+    private static Map<String, Object> ordered(Object... kv) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (int i = 0; i < kv.length; i += 2) m.put((String) kv[i], kv[i + 1]);
+        return m;
+    }
+
+    @Test
+    void equalInputsInAnotherOrderHashToTheSameKey() {
+        OutputMemo.Key a = memo.keyFor("json-transform", V1,
+                ordered("x", 1, "y", ordered("p", "q", "r", List.of(1, 2))));
+        OutputMemo.Key b = memo.keyFor("json-transform", V1,
+                ordered("y", ordered("r", List.of(1, 2), "p", "q"), "x", 1));
+
+        assertThat(a).isNotNull().isEqualTo(b);
+        assertThat(a.pluginId()).isEqualTo("json-transform");
+        assertThat(a.entry()).startsWith("flowops:{memo:json-transform}:v1:");
+    }
+
+    @Test
+    void differentInputsOrVersionsHashToDifferentKeys() {
+        OutputMemo.Key base = memo.keyFor("json-transform", V1, Map.of("x", 1));
+
+        assertThat(memo.keyFor("json-transform", V1, Map.of("x", 2))).isNotEqualTo(base);
+        assertThat(memo.keyFor("json-transform", PluginMetadata.newBuilder().setId("v2").build(), Map.of("x", 1)))
+                .isNotEqualTo(base);
+        // list order is significant
+        assertThat(memo.keyFor("json-transform", V1, Map.of("x", List.of(1, 2))))
+                .isNotEqualTo(memo.keyFor("json-transform", V1, Map.of("x", List.of(2, 1))));
+    }
+
+    @Test
+    void unlistedPluginsAreNotMemoized() {
+        assertThat(memo.keyFor("http-call", V1, Map.of("x", 1))).isNull();
+    }
+
+    @Test
+    void pluginsWithoutAMetadataIdAreNotMemoized() {
+        assertThat(memo.keyFor("json-transform", null, Map.of("x", 1))).isNull();
+        assertThat(memo.keyFor("json-transform", PluginMetadata.getDefaultInstance(), Map.of("x", 1))).isNull();
+    }
+}
@@ -0,0 +1,54 @@
+package com.flowops.execution_engine.kafka;
+
+import com.flowops.execution_engine.engine.ExecutionScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CommandAdmissionControllerTest {
+
+    private final ExecutionScheduler scheduler = mock(ExecutionScheduler.class);
+    // at most 10 runs, admitting again at 8; not started, so only evaluate() checks the load
+    private final CommandAdmissionController admission =
+            new CommandAdmissionController(scheduler, 10, 0, 0, 0.8, 60_000);
+
+    @AfterEach
+    void shutdown() {
+        admission.shutdown();
+    }
+
+    private boolean admitsWith(int activeRuns) {
+        when(scheduler.activeRunCount()).thenReturn(activeRuns);
+        admission.evaluate();
+        return admission.admitsStarts();
+    }
+
+    @Test
+    void saturatesAtTheLimitAndAdmitsAgainOnlyBelowTheResumeRatio() {
+        assertThat(admitsWith(9)).isTrue();
+        assertThat(admitsWith(10)).isFalse();
+        assertThat(admitsWith(9)).isFalse();
+        assertThat(admitsWith(8)).isTrue();
+        // back under the limit but above the resume ratio: stays admitting
+        assertThat(admitsWith(9)).isTrue();
+    }
+
+    @Test
+    void utilizationOnlyCountsWhileStepsAreQueued() {
+        CommandAdmissionController byUtilization = new CommandAdmissionController(scheduler, 0, 0, 0.9, 0.8, 60_000);
+        try {
+            when(scheduler.workerUtilization()).thenReturn(1.0);
+            byUtilization.evaluate();
+            assertThat(byUtilization.admitsStarts()).isTrue();
+
+            when(scheduler.queuedStepCount()).thenReturn(5);
+            byUtilization.evaluate();
+            assertThat(byUtilization.admitsStarts()).isFalse();
+        } finally {
+            byUtilization.shutdown();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.flowops.execution_engine.kafka;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flowops.execution_engine.engine.ExecutionScheduler;
+import com.flowops.execution_engine.persistence.redis.RedisExecutionRepository;
+import com.flowops.kafka_contracts.events.ExecutionCommandEvent;
+import com.flowops.kafka_contracts.events.ExecutionCommandEvent.EventType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Holding back and replaying commands, against an embedded Redis.
+ */
+class ExecutionCommandConsumerTest {
+
+    private static final int PARTITION = 0;
+
+    private static RedisServer server;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redis;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final ExecutionScheduler scheduler = mock(ExecutionScheduler.class);
+    private final CommandAdmissionController admission = mock(CommandAdmissionController.class);
+    private RedisExecutionRepository repo;
+    private ExecutionCommandConsumer consumer;
+
+    @BeforeAll
+    static void startRedis() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new RedisServer(port);
+        server.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        redis = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        if (connectionFactory != null) connectionFactory.destroy();
+        if (server != null) server.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.getRequiredConnectionFactory().getConnection().serverCommands().flushAll();
+        repo = new RedisExecutionRepository(redis);
+        when(scheduler.ownedPartitions()).thenReturn(Set.of(PARTITION));
+        // at most 2 held runs; not started, so held runs are only replayed by replayDeferred()
+        consumer = new ExecutionCommandConsumer(objectMapper, scheduler, admission, repo, 2, 60_000);
+        consumer.onPartitionsAssigned(List.of(PARTITION));
+    }
+
+    @AfterEach
+    void shutdown() {
+        consumer.shutdown();
+    }
+
+    private void send(EventType type, String runId) throws Exception {
+        ExecutionCommandEvent cmd = ExecutionCommandEvent.builder().eventType(type).flowId("f").runId(runId).build();
+        consumer.handle(cmd, objectMapper.writeValueAsString(cmd), PARTITION);
+    }
+
+    @Test
+    void commandsQueuedBehindAHeldStartReplayInOrder() throws Exception {
+        when(admission.admitsStarts()).thenReturn(false);
+        send(EventType.EXECUTION_START, "r1");
+        send(EventType.EXECUTION_PAUSE, "r1");
+        send(EventType.EXECUTION_RESUME, "r1");
+        send(EventType.EXECUTION_START, "r2");
+        verify(scheduler, never()).startFlow(any());
+        assertThat(consumer.heldRunCount(PARTITION)).isEqualTo(2);
+
+        when(admission.admitsStarts()).thenReturn(true);
+        consumer.replayDeferred();
+
+        InOrder order = inOrder(scheduler);
+        order.verify(scheduler).startFlow(any());
+        order.verify(scheduler).pauseFlow("f", "r1");
+        order.verify(scheduler).resumeFlow("f", "r1");
+        order.verify(scheduler).startFlow(any());
+        assertThat(consumer.heldRunCount(PARTITION)).isZero();
+        assertThat(repo.listDeferredRuns(PARTITION)).isEmpty();
+
+        // no longer held: applied at once
+        send(EventType.EXECUTION_PAUSE, "r1");
+        verify(scheduler, times(2)).pauseFlow("f", "r1");
+    }
+
+    @Test
+    void aStopDropsTheHeldCommands() throws Exception {
+        when(admission.admitsStarts()).thenReturn(false);
+        send(EventType.EXECUTION_START, "r1");
+        send(EventType.EXECUTION_PAUSE, "r1");
+        send(EventType.EXECUTION_STOP, "r1");
+
+        verify(scheduler).stopFlow("f", "r1");
+        assertThat(consumer.heldRunCount(PARTITION)).isZero();
+
+        when(admission.admitsStarts()).thenReturn(true);
+        consumer.replayDeferred();
+        verify(scheduler, never()).startFlow(any());
+        verify(scheduler, never()).pauseFlow("f", "r1");
+    }
+
+    @Test
+    void refusesAStartOnceThePartitionHoldsTheMaximum() throws Exception {
+        when(admission.admitsStarts()).thenReturn(false);
+        send(EventType.EXECUTION_START, "r1");
+        send(EventType.EXECUTION_START, "r2");
+
+        assertThatThrownBy(() -> send(EventType.EXECUTION_START, "r3"))
+                .isInstanceOf(ExecutionCommandConsumer.HeldStartsFullException.class);
+        // commands of runs already held are still queued behind them
+        send(EventType.EXECUTION_PAUSE, "r1");
+        assertThat(repo.getDeferredCommands(PARTITION, "f:r1")).hasSize(2);
+        assertThat(repo.listDeferredRuns(PARTITION)).containsExactly("f:r1", "f:r2");
+    }
+
+    @Test
+    void heldRunsAreReloadedWhenThePartitionIsAssigned() throws Exception {
+        when(admission.admitsStarts()).thenReturn(false);
+        send(EventType.EXECUTION_START, "r1");
+
+        ExecutionCommandConsumer next = new ExecutionCommandConsumer(objectMapper, scheduler, admission, repo, 2, 60_000);
+        try {
+            next.onPartitionsAssigned(List.of(PARTITION));
+            assertThat(next.heldRunCount(PARTITION)).isEqualTo(1);
+
+            ExecutionCommandEvent pause = ExecutionCommandEvent.builder()
+                    .eventType(EventType.EXECUTION_PAUSE).flowId("f").runId("r1").build();
+            next.handle(pause, objectMapper.writeValueAsString(pause), PARTITION);
+            verify(scheduler, never()).pauseFlow("f", "r1");
+        } finally {
+            next.shutdown();
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package com.flowops.execution_engine.persistence.redis;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The repository's Lua scripts against a real (embedded) Redis server.
+ */
+class RedisExecutionRepositoryTest {
+
+    private static final String FLOW = "f1";
+    private static final String NODE = "node-a";
+
+    private static RedisServer server;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redis;
+
+    private RedisExecutionRepository repo;
+    private String runId;
+    private String token;
+
+    @BeforeAll
+    static void startRedis() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new RedisServer(port);
+        server.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        redis = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        if (connectionFactory != null) connectionFactory.destroy();
+        if (server != null) server.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.getRequiredConnectionFactory().getConnection().serverCommands().flushAll();
+        repo = new RedisExecutionRepository(redis);
+        runId = "r" + System.nanoTime();
+    }
+
+    /**
+     * a -> c, b -> c, c -> d; lease taken by NODE.
+     */
+    private void startDiamond() {
+        Map<String, Integer> indegree = new LinkedHashMap<>();
+        indegree.put("a", 0);
+        indegree.put("b", 0);
+        indegree.put("c", 2);
+        indegree.put("d", 1);
+        repo.initializeRun(FLOW, runId, "{}", indegree,
+                Map.of("a", Set.of("c"), "b", Set.of("c"), "c", Set.of("d")),
+                List.of("a", "b"), Map.of("status", "RUNNING"));
+        token = NODE + "|" + repo.acquireRunLease(FLOW, runId, NODE, 30_000);
+    }
+
+    private RedisExecutionRepository.StepCommit complete(String stepId, Set<String> dependents, String leaseToken) {
+        return repo.completeStep(FLOW, runId, stepId, Map.of("out", stepId + "-value"), dependents, leaseToken);
+    }
+
+    @Test
+    void completionReleasesDependentsOnceAllDependenciesComplete() {
+        startDiamond();
+        assertThat(repo.claimReadyStep(FLOW, runId, "a", null)).isTrue();
+
+        RedisExecutionRepository.StepCommit first = complete("a", Set.of("c"), token);
+        assertThat(first.remaining()).isEqualTo(3);
+        assertThat(first.ready()).isEmpty();
+
+        assertThat(repo.claimReadyStep(FLOW, runId, "b", null)).isTrue();
+        RedisExecutionRepository.StepCommit second = complete("b", Set.of("c"), token);
+        assertThat(second.remaining()).isEqualTo(2);
+        assertThat(second.ready()).containsExactly("c");
+        assertThat(repo.getReadySteps(FLOW, runId)).containsExactly("c");
+        assertThat(repo.getContextValues(FLOW, runId, List.of("a.out"))).containsEntry("a.out", "\"a-value\"");
+        assertThat(redis.opsForSet().members(RedisKeys.inFlight(FLOW, runId))).isEmpty();
+    }
+
+    @Test
+    void duplicateCompletionReleasesNothing() {
+        startDiamond();
+        assertThat(repo.claimReadyStep(FLOW, runId, "a", null)).isTrue();
+        complete("a", Set.of("c"), token);
+
+        RedisExecutionRepository.StepCommit duplicate = complete("a", Set.of("c"), token);
+        assertThat(duplicate.remaining()).isEqualTo(RedisExecutionRepository.UNCHANGED);
+        assertThat(duplicate.ready()).isEmpty();
+        assertThat(repo.getIndegreeMap(FLOW, runId)).containsEntry("c", 1);
+        assertThat(repo.getRemainingSteps(FLOW, runId)).isEqualTo(3);
+        assertThat(repo.getReadySteps(FLOW, runId)).containsExactly("b");
+    }
+
+    @Test
+    void fencedCompletionWritesNothing() {
+        startDiamond();
+        String stale = NODE + "|0";
+
+        RedisExecutionRepository.StepCommit commit = complete("a", Set.of("c"), stale);
+        assertThat(commit.remaining()).isEqualTo(RedisExecutionRepository.FENCED);
+        assertThat(commit.ready()).isEmpty();
+        assertThat(repo.getStepStatus(FLOW, runId, "a")).isEqualTo("PENDING");
+        assertThat(repo.getContext(FLOW, runId)).isEmpty();
+        assertThat(repo.getIndegreeMap(FLOW, runId)).containsEntry("c", 2);
+        assertThat(repo.getRemainingSteps(FLOW, runId)).isEqualTo(4);
+
+        assertThat(repo.markStepsSkipped(FLOW, runId, List.of("a"), stale)).isEqualTo(RedisExecutionRepository.FENCED);
+        assertThat(repo.getStepStatus(FLOW, runId, "a")).isEqualTo("PENDING");
+        assertThat(repo.resetFailedSteps(FLOW, runId, stale)).isNull();
+        assertThat(repo.requeueInFlight(FLOW, runId, stale, false)).isNull();
+    }
+
+    @Test
+    void remainingReachesZeroExactlyOnce() throws Exception {
+        int steps = 64;
+        Map<String, Integer> indegree = new LinkedHashMap<>();
+        for (int i = 0; i < steps; i++) indegree.put("s" + i, 0);
+        repo.initializeRun(FLOW, runId, "{}", indegree, Map.of(), indegree.keySet(), Map.of("status", "RUNNING"));
+        token = NODE + "|" + repo.acquireRunLease(FLOW, runId, NODE, 30_000);
+
+        // every step completed twice, from 8 threads at once
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Long>> results = new ArrayList<>();
+        try {
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < steps; i++) {
+                    String stepId = "s" + i;
+                    results.add(pool.submit(() -> {
+                        go.await();
+                        return complete(stepId, Set.of(), token).remaining();
+                    }));
+                }
+            }
+            go.countDown();
+            List<Long> remaining = new ArrayList<>();
+            for (Future<Long> f : results) remaining.add(f.get());
+            assertThat(Collections.frequency(remaining, 0L)).isEqualTo(1);
+            assertThat(Collections.frequency(remaining, RedisExecutionRepository.UNCHANGED)).isEqualTo(steps);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(repo.getRemainingSteps(FLOW, runId)).isZero();
+    }
+
+    @Test
+    void skipThenCompletionOfTheSameStepCountsOnce() {
+        startDiamond();
+        assertThat(repo.claimReadyStep(FLOW, runId, "a", null)).isTrue();
+
+        assertThat(repo.markStepsSkipped(FLOW, runId, List.of("c", "d"), token)).isEqualTo(2);
+        RedisExecutionRepository.StepCommit late = complete("c", Set.of("d"), token);
+        assertThat(late.remaining()).isEqualTo(RedisExecutionRepository.UNCHANGED);
+        assertThat(late.ready()).isEmpty();
+        assertThat(repo.getStepStatus(FLOW, runId, "c")).isEqualTo("SKIPPED");
+        assertThat(repo.getContext(FLOW, runId)).doesNotContainKey("c.out");
+        assertThat(repo.getRemainingSteps(FLOW, runId)).isEqualTo(2);
+
+        // a skip pass over a step that already completed changes nothing either
+        assertThat(complete("a", Set.of("c"), token).remaining()).isEqualTo(1);
+        assertThat(repo.markStepsSkipped(FLOW, runId, List.of("a", "c"), token)).isEqualTo(RedisExecutionRepository.UNCHANGED);
+        assertThat(repo.getStepStatus(FLOW, runId, "a")).isEqualTo("COMPLETED");
+        assertThat(repo.claimReadyStep(FLOW, runId, "b", null)).isTrue();
+        RedisExecutionRepository.StepCommit last = complete("b", Set.of("c"), token);
+        assertThat(last.remaining()).isZero();
+        assertThat(last.ready()).isEmpty();
+        assertThat(repo.getReadySteps(FLOW, runId)).isEmpty();
+    }
+
+    @Test
+    void skippingRemovesStepsFromTheReadySet() {
+        startDiamond();
+        assertThat(repo.markStepsSkipped(FLOW, runId, List.of("b"), token)).isEqualTo(3);
+        assertThat(repo.getReadySteps(FLOW, runId)).containsExactly("a");
+    }
+
+    @Test
+    void onlyOneClaimWinsAStep() {
+        startDiamond();
+        assertThat(repo.claimReadyStep(FLOW, runId, "a", null)).isTrue();
+        assertThat(repo.claimReadyStep(FLOW, runId, "a", "node-b")).isFalse();
+        assertThat(repo.claimReadyStep(FLOW, runId, "c", null)).isFalse();
+
+        assertThat(repo.getStepStatus(FLOW, runId, "a")).isEqualTo("RUNNING");
+        assertThat(repo.getReadySteps(FLOW, runId)).containsExactly("b");
+        assertThat(redis.opsForSet().members(RedisKeys.inFlight(FLOW, runId))).containsExactly("a");
+        assertThat(repo.getRemoteSteps(FLOW, runId)).isEmpty();
+
+        assertThat(repo.claimReadyStep(FLOW, runId, "b", "node-b")).isTrue();
+        assertThat(repo.getRemoteSteps(FLOW, runId)).containsExactly("b");
+    }
+
+    @Test
+    void requeueInFlightPutsLocalRunningStepsBack() {
+        startDiamond();
+        repo.claimReadyStep(FLOW, runId, "a", null);
+        repo.claimReadyStep(FLOW, runId, "b", "node-b");
+
+        assertThat(repo.requeueInFlight(FLOW, runId, token, false)).containsExactly("a");
+        assertThat(repo.getStepStatus(FLOW, runId, "a")).isEqualTo("PENDING");
+        assertThat(repo.getStepStatus(FLOW, runId, "b")).isEqualTo("RUNNING");
+        assertThat(repo.getReadySteps(FLOW, runId)).containsExactly("a");
+        assertThat(redis.opsForSet().members(RedisKeys.inFlight(FLOW, runId))).containsExactly("b");
+    }
+
+    @Test
+    void requeueInFlightScansStatusesOfOlderRuns() {
+        startDiamond();
+        repo.claimReadyStep(FLOW, runId, "a", null);
+        redis.delete(RedisKeys.inFlight(FLOW, runId));
+
+        assertThat(repo.requeueInFlight(FLOW, runId, token, false)).isEmpty();
+        assertThat(repo.requeueInFlight(FLOW, runId, token, true)).containsExactly("a");
+        assertThat(repo.getReadySteps(FLOW, runId)).containsExactlyInAnyOrder("a", "b");
+    }
+
+    @Test
+    void resetFailedRequeuesFailedAndStrandedSteps() {
+        startDiamond();
+        repo.claimReadyStep(FLOW, runId, "a", null);
+        repo.claimReadyStep(FLOW, runId, "b", null);
+        repo.incrementStepAttempts(FLOW, runId, "a");
+        repo.setStepStatus(FLOW, runId, "a", "FAILED");
+        // b was waiting in the retry queue when the run failed
+        repo.setStepStatus(FLOW, runId, "b", "PENDING");
+
+        assertThat(repo.resetFailedSteps(FLOW, runId, token)).containsExactlyInAnyOrder("a", "b");
+        assertThat(repo.getStepStatus(FLOW, runId, "a")).isEqualTo("PENDING");
+        assertThat(repo.getReadySteps(FLOW, runId)).containsExactlyInAnyOrder("a", "b");
+        assertThat(redis.opsForHash().hasKey(RedisKeys.stepAttempts(FLOW, runId), "a")).isFalse();
+        // c still waits on its dependencies
+        assertThat(repo.getStepStatus(FLOW, runId, "c")).isEqualTo("PENDING");
+
+        assertThat(repo.resetFailedSteps(FLOW, runId, token)).isEmpty();
+    }
+
+    @Test
+    void leaseIsExclusiveAndFencedByEpoch() {
+        startDiamond();
+        assertThat(token).isEqualTo(NODE + "|1");
+        assertThat(repo.acquireRunLease(FLOW, runId, "node-b", 30_000)).isEqualTo(-1);
+
+        // re-acquiring our own lease moves to a new epoch and fences the old token
+        long epoch = repo.acquireRunLease(FLOW, runId, NODE, 30_000);
+        assertThat(epoch).isEqualTo(2);
+        String current = NODE + "|" + epoch;
+        assertThat(complete("a", Set.of("c"), token).remaining()).isEqualTo(RedisExecutionRepository.FENCED);
+
+        String rk = FLOW + ":" + runId;
+        assertThat(repo.renewRunLeases(Map.of(rk, token), 30_000)).containsExactly(rk);
+        assertThat(repo.renewRunLeases(Map.of(rk, current), 30_000)).isEmpty();
+
+        repo.releaseRunLease(FLOW, runId, token);
+        assertThat(repo.acquireRunLease(FLOW, runId, "node-b", 30_000)).isEqualTo(-1);
+        repo.releaseRunLease(FLOW, runId, current);
+        assertThat(repo.acquireRunLease(FLOW, runId, "node-b", 30_000)).isEqualTo(3);
+        assertThat(complete("a", Set.of("c"), current).remaining()).isEqualTo(RedisExecutionRepository.FENCED);
+    }
+
+    @Test
+    void migratesLegacyListReadyQueue() {
+        redis.opsForHash().put(RedisKeys.legacyRunKey(FLOW, runId, "meta"), "status", "RUNNING");
+        redis.opsForValue().set(RedisKeys.legacyRunKey(FLOW, runId, "def"), "{}");
+        redis.opsForList().rightPushAll(RedisKeys.legacyRunKey(FLOW, runId, "queue"), "a", "b", "a");
+
+        assertThat(repo.getFlowDefinition(FLOW, runId)).contains("{}");
+        assertThat(repo.getReadySteps(FLOW, runId)).containsExactlyInAnyOrder("a", "b");
+        assertThat(redis.hasKey(RedisKeys.legacyRunKey(FLOW, runId, "queue"))).isFalse();
+        assertThat(repo.claimReadyStep(FLOW, runId, "a", null)).isTrue();
+    }
+
+    @Test
+    void memoEntriesAreBoundedPerPlugin() {
+        for (int i = 0; i < 3; i++) {
+            repo.putMemoizedOutputs("a", RedisKeys.memoEntry("a", "v1", "h" + i), "{}", 60_000, 2);
+        }
+        repo.putMemoizedOutputs("b", RedisKeys.memoEntry("b", "v1", "h0"), "{}", 60_000, 2);
+
+        assertThat(repo.getMemoizedOutputs(RedisKeys.memoEntry("a", "v1", "h0"))).isNull();
+        assertThat(repo.getMemoizedOutputs(RedisKeys.memoEntry("a", "v1", "h2"))).isEqualTo("{}");
+        assertThat(redis.opsForZSet().size(RedisKeys.memoIndex("a"))).isEqualTo(2);
+        // another plugin's entries do not count against it
+        assertThat(repo.getMemoizedOutputs(RedisKeys.memoEntry("b", "v1", "h0"))).isEqualTo("{}");
+        assertThat(repo.putMemoizedOutputs("b", RedisKeys.memoEntry("b", "v1", "h1"), "{}", 60_000, 2)).isZero();
+    }
+
+    /* --------------------- Work stealing --------------------- */
+
+    private RedisExecutionRepository.StealEntry offerAndRead(String stepId, String consumer) {
+        repo.ensureStealGroup();
+        repo.offerStealableStep(FLOW + ":" + runId, stepId, 0);
+        List<RedisExecutionRepository.StealEntry> read = repo.readStealableSteps(consumer, 10);
+        assertThat(read).hasSize(1);
+        return read.get(0);
+    }
+
+    private List<RedisExecutionRepository.StealEntry> reclaim(String consumer, long minIdleMs) {
+        List<RedisExecutionRepository.StealEntry> claimed = new ArrayList<>();
+        repo.reclaimStealableSteps(consumer, minIdleMs, "0-0", 10, claimed);
+        return claimed;
+    }
+
+    @Test
+    void autoclaimHandsAnIdleOfferToAnotherNode() throws Exception {
+        startDiamond();
+        RedisExecutionRepository.StealEntry offer = offerAndRead("a", "node-b");
+
+        assertThat(reclaim("node-c", 60_000)).isEmpty();
+        Thread.sleep(50);
+        List<RedisExecutionRepository.StealEntry> claimed = reclaim("node-c", 20);
+
+        assertThat(claimed).containsExactly(offer);
+        assertThat(offer.runKey()).isEqualTo(FLOW + ":" + runId);
+        assertThat(offer.stepId()).isEqualTo("a");
+        assertThat(offer.partition()).isZero();
+    }
+
+    @Test
+    void touchKeepsOnlyTheToucherOwnOffersFresh() throws Exception {
+        startDiamond();
+        RedisExecutionRepository.StealEntry offer = offerAndRead("a", "node-b");
+        Thread.sleep(50);
+
+        repo.touchStealableSteps("node-b", List.of(offer.id()));
+        assertThat(reclaim("node-c", 40)).isEmpty();
+
+        Thread.sleep(50);
+        assertThat(reclaim("node-c", 40)).containsExactly(offer);
+        // node-b still believes it executes the offer: touching must not take it back
+        repo.touchStealableSteps("node-b", List.of(offer.id()));
+        Thread.sleep(50);
+        assertThat(reclaim("node-d", 40)).containsExactly(offer);
+    }
+
+    @Test
+    void onlyTheConsumerHoldingAnOfferAcknowledgesIt() throws Exception {
+        startDiamond();
+        RedisExecutionRepository.StealEntry offer = offerAndRead("a", "node-b");
+        Thread.sleep(50);
+        reclaim("node-c", 20);
+
+        assertThat(repo.ackStealableStep("node-b", offer.id())).isFalse();
+        assertThat(redis.opsForStream().size(RedisKeys.stealStream())).isEqualTo(1);
+        assertThat(repo.ackStealableStep("node-c", offer.id())).isTrue();
+        assertThat(redis.opsForStream().size(RedisKeys.stealStream())).isZero();
+    }
+
+    @Test
+    void adoptTakesOverOnlyARunningRemoteStep() {
+        startDiamond();
+        String first = RedisExecutionRepository.stealExecutor("node-b", "1-0");
+        String second = RedisExecutionRepository.stealExecutor("node-c", "1-0");
+
+        assertThat(repo.adoptRemoteStep(FLOW, runId, "a", second)).isFalse();
+        repo.claimReadyStep(FLOW, runId, "a", first);
+        assertThat(repo.adoptRemoteStep(FLOW, runId, "a", second)).isTrue();
+        assertThat(redis.opsForHash().get(RedisKeys.remoteSteps(FLOW, runId), "a")).isEqualTo(second);
+
+        // the owner took it back meanwhile
+        repo.claimReadyStep(FLOW, runId, "b", null);
+        assertThat(repo.adoptRemoteStep(FLOW, runId, "b", second)).isFalse();
+    }
+
+    @Test
+    void theOwnerAcceptsOneReportOfTheCurrentExecutor() {
+        startDiamond();
+        String first = RedisExecutionRepository.stealExecutor("node-b", "1-0");
+        String second = RedisExecutionRepository.stealExecutor("node-c", "1-0");
+        repo.claimReadyStep(FLOW, runId, "a", first);
+        repo.adoptRemoteStep(FLOW, runId, "a", second);
+
+        repo.reportStolenResult(0, FLOW + ":" + runId, "a", first, true, Map.of("out", "stale"), null);
+        repo.reportStolenResult(0, FLOW + ":" + runId, "a", second, true, Map.of("out", "fresh"), null);
+        repo.reportStolenResult(0, FLOW + ":" + runId, "a", second, true, Map.of("out", "fresh"), null);
+        List<RedisExecutionRepository.StolenResult> results = repo.readStolenResults(0, 10);
+        assertThat(results).hasSize(3);
+
+        assertThat(repo.acceptStolenResult(FLOW, runId, "a", results.get(0).executor())).isFalse();
+        RedisExecutionRepository.StolenResult current = results.get(1);
+        assertThat(current.success()).isTrue();
+        assertThat(current.outputs()).containsEntry("out", "fresh");
+        assertThat(repo.acceptStolenResult(FLOW, runId, "a", current.executor())).isTrue();
+        assertThat(repo.getRemoteSteps(FLOW, runId)).isEmpty();
+        assertThat(repo.acceptStolenResult(FLOW, runId, "a", results.get(2).executor())).isFalse();
+
+        repo.completeStep(FLOW, runId, "a", current.outputs(), Set.of("c"), token);
+        assertThat(repo.getContextValues(FLOW, runId, List.of("a.out"))).containsEntry("a.out", "\"fresh\"");
+    }
+
+    @Test
+    void aReportOfAFinishedStepIsNotAccepted() {
+        startDiamond();
+        String executor = RedisExecutionRepository.stealExecutor("node-b", "1-0");
+        repo.claimReadyStep(FLOW, runId, "a", executor);
+        // skipped by the owner, e.g. the run was stopped
+        repo.markStepsSkipped(FLOW, runId, List.of("a"), token);
+
+        assertThat(repo.acceptStolenResult(FLOW, runId, "a", executor)).isFalse();
+    }
+}
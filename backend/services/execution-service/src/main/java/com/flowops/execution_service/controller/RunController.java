@@ -46,6 +46,12 @@ public class RunController {
         return ResponseEntity.ok(ApiResponse.success(null));
     }
 
+    @PostMapping("/runs/{runId}/retry")
+    public ResponseEntity<ApiResponse<Void>> retryRun(@PathVariable UUID runId) {
+        runService.retryRun(runId);
+        return ResponseEntity.ok(ApiResponse.success(null));
+    }
+
     @GetMapping("/runs/{runId}/status")
     public ResponseEntity<ApiResponse<RunDetailResponse>> getRunStatus(@PathVariable UUID runId) {
         RunDetailResponse status = runService.getRunStatus(runId);
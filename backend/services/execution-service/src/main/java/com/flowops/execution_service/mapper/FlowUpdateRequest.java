@@ -23,7 +23,7 @@ public class FlowUpdateRequest {
     public static class StepDto {
         private UUID stepId;
         private UUID pluginId;
-        private String type; // "ACTION" | "DECISION"
+        private String type; // "ACTION" | "DECISION" | "MAP"
         private Map<String, String> inputs;
         private Map<String, String> outputs;
         private String condition;
@@ -44,5 +44,9 @@ public class FlowUpdateRequest {
         private int timeoutMs;
         private int retryCount;
         private int retryDelayMs;
+        private String mapOver;
+        private int parallelism;
+        private String itemInput;
+        private boolean speculative;
     }
 }
@@ -47,7 +47,7 @@ public class Flow {
     public static class Step {
         private UUID stepId;
         private UUID pluginId;
-        private StepType type;                   // action | decision
+        private StepType type;                   // action | decision | map
         private Map<String, String> inputs;      // inputKey → static_value/depStepId.outputKey
         private Map<String, String> outputs;     // outputKey → type
         private String condition;
@@ -74,6 +74,10 @@ public class Flow {
         private int timeoutMs;
         private int retryCount;
         private int retryDelayMs;
+        private String mapOver;                  // map steps: list reference "stepId.outputKey"
+        private int parallelism;                 // map steps: items executing at once
+        private String itemInput;                // map steps: input receiving each item
+        private boolean speculative;             // hedge stragglers with a duplicate (idempotent plugins)
     }
 
     @Data
@@ -87,7 +91,7 @@ public class Flow {
     }
 
     public enum StepType {
-        ACTION, DECISION
+        ACTION, DECISION, MAP
     }
 
     public enum ScheduleType {
@@ -103,6 +103,10 @@ public class ExecutionServiceImpl implements ExecutionService {
                         .timeoutMs(dto.getConfig().getTimeoutMs())
                         .retryCount(dto.getConfig().getRetryCount())
                         .retryDelayMs(dto.getConfig().getRetryDelayMs())
+                        .mapOver(dto.getConfig().getMapOver())
+                        .parallelism(dto.getConfig().getParallelism())
+                        .itemInput(dto.getConfig().getItemInput())
+                        .speculative(dto.getConfig().isSpeculative())
                         .build() : null)
                 .build();
     }
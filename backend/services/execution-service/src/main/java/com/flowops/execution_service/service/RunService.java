@@ -10,5 +10,6 @@ public interface RunService {
     void pauseRun(UUID runId);
     void resumeRun(UUID runId);
     void stopRun(UUID runId);
+    void retryRun(UUID runId);
     RunDetailResponse getRunStatus(UUID runId);
 }
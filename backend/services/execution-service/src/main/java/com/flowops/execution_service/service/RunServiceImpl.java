@@ -2,6 +2,7 @@ package com.flowops.execution_service.service;
 
 import com.flowops.execution_service.dto.run.RunDetailResponse;
 import com.flowops.execution_service.dto.run.RunRequest;
+import com.flowops.execution_service.exception.InvalidRequestException;
 import com.flowops.execution_service.exception.NotFoundException;
 import com.flowops.execution_service.mapper.ExecutionCommandMapper;
 import com.flowops.execution_service.mapper.RunMapper;
@@ -80,6 +81,26 @@ public class RunServiceImpl implements RunService {
         updateStatus(runId, Run.RunStatus.STOPPED);
     }
 
+    /**
+     * Resume a failed run from its failed steps; steps that completed are not executed again.
+     */
+    @Override
+    public void retryRun(UUID runId) {
+        Run run = runRepository.findById(runId)
+                .orElseThrow(() -> new NotFoundException("Run not found: " + runId));
+        if (run.getStatus() != Run.RunStatus.FAILED) {
+            throw new InvalidRequestException("Only failed runs can be retried; run " + runId + " is " + run.getStatus());
+        }
+        ExecutionCommandEvent event = ExecutionCommandEvent.builder()
+                .eventType(ExecutionCommandEvent.EventType.EXECUTION_RETRY)
+                .flowId(run.getFlowId().toString())
+                .runId(runId.toString())
+                .triggeredBy(run.getTriggeredBy())
+                .timestamp(Instant.now())
+                .build();
+        eventPublisher.publish(Topics.EXECUTION_COMMANDS, event, runId.toString());
+    }
+
     @Override
     public RunDetailResponse getRunStatus(UUID runId) {
         Run run = runRepository.findById(runId)